@@ -0,0 +1,179 @@
+package com.caa.benchmark;
+
+import com.caa.model.Person;
+import com.caa.model.Program;
+import com.caa.modelview.ProgramExerciseItemView;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Inputs shared by the benchmarks, built from a fixed seed so every run sees the same data.
+ */
+class BenchmarkData {
+
+    private static final String[] REPEAT_TYPES = {"S", "M", "T"};
+    private static final String[] EXERCISE_NAMES = {"پرس سینه هالتر", "اسکات پا", "زیر بغل سیمکش", "جلو بازو دمبل",
+            "پشت بازو سیمکش", "ددلیفت", "پرس سرشانه", "کرانچ شکم", "لانج دمبل", "فیله کمر"};
+
+    /**
+     * @param sessions number of sub programs (1 to 6), spread evenly over the items
+     * @param supersetEvery every n-th exercise gets a second item with the same id, as in a superset; 0 for none
+     */
+    static List<ProgramExerciseItemView> programItems(int itemCount, int sessions, int supersetEvery) {
+        Random random = new Random(42);
+        List<ProgramExerciseItemView> items = new ArrayList<>(itemCount);
+        int perSession = Math.max(1, itemCount / sessions);
+        long id = 0;
+        for (int i = 0; i < itemCount; i++) {
+            int sub = Math.min(sessions, i / perSession + 1);
+            boolean superset = supersetEvery > 0 && i > 0 && i % supersetEvery == 0
+                    && items.get(i - 1).getSubExerciseId() == sub;
+            if (!superset) {
+                id++;
+            }
+            ProgramExerciseItemView item = new ProgramExerciseItemView();
+            item.setIdpk(i + 1);
+            item.setId(id);
+            item.setSubExerciseId(sub);
+            item.setExerciseId(1 + random.nextInt(300));
+            item.setExerciseName("(" + (1001 + random.nextInt(300)) + ")  " + EXERCISE_NAMES[random.nextInt(EXERCISE_NAMES.length)]);
+            item.setExerciseSet(3 + random.nextInt(3));
+            item.setExerciseRepeat(8 + random.nextInt(8));
+            item.setExerciseRepeatType(REPEAT_TYPES[random.nextInt(REPEAT_TYPES.length)]);
+            item.setDescription(random.nextInt(4) == 0 ? "استراحت ۶۰ ثانیه" : "");
+            items.add(item);
+        }
+        return items;
+    }
+
+    static Person person(int thumbnailBytes) {
+        Person person = new Person();
+        person.setId(1234);
+        person.setTenantId("benchmark");
+        person.setFirstName("علی");
+        person.setLastName("محمدی");
+        person.setFatherName("حسین");
+        person.setMobileNumber("09121234567");
+        person.setAddress("تهران، خیابان ولیعصر، کوچه بهار، پلاک ۱۲");
+        person.setDisability("");
+        person.setBirthDate(new GregorianCalendar(1990, Calendar.MAY, 17).getTime());
+        byte[] thumbnail = new byte[thumbnailBytes];
+        new Random(7).nextBytes(thumbnail);
+        person.setShrinkedImage(thumbnail);
+        person.setImageSuffix("jpg");
+        return person;
+    }
+
+    static Program program(long id) {
+        Program program = new Program();
+        program.setId(id);
+        program.setTenantId("benchmark");
+        program.setPersonId(1234);
+        program.setProgramDate(new GregorianCalendar(2019, Calendar.FEBRUARY, 3).getTime());
+        program.setProgramName("برنامه حجم " + id);
+        program.setPersonAge(29);
+        program.setPersonTall(178);
+        program.setPersonWeight(82.5);
+        program.setPersonChest(104);
+        program.setPersonWaist(88);
+        program.setPersonAbdomen(92);
+        program.setPersonArm(36);
+        program.setPersonForeArm(30);
+        program.setPersonThigh(58);
+        program.setPersonShin(38);
+        program.setPersonButt(101);
+        program.setPersonFatPercentage(18.4);
+        program.setPersonFatWeight(15.2);
+        program.setPersonMuscleWeight(38.9);
+        program.setPersonScore(7.5);
+        program.setDescription("هفته اول سبک، از هفته دوم وزنه ها ۵ درصد بیشتر");
+        return program;
+    }
+
+    /**
+     * The photo fixture, a 1920x1200 JPEG landscape photo (client/src/assets/images/wallpapers.jpg).
+     */
+    static final String PHOTO_FIXTURE = "/photos/photo-1920x1200.jpg";
+
+    /**
+     * The photos of -Dbenchmark.photoDir, or when it is not set the photo fixture: as it is when the
+     * size is its own, otherwise scaled up to cover the size, cropped to it and saved again at a phone
+     * camera's JPEG quality.
+     */
+    static List<byte[]> photos(int width, int height) throws IOException {
+        String dir = System.getProperty("benchmark.photoDir");
+        if (dir != null) {
+            File[] files = new File(dir).listFiles((d, name) -> name.toLowerCase().matches(".*\\.(jpe?g|png)"));
+            if (files == null || files.length == 0) {
+                throw new IOException("no jpg or png files in " + dir);
+            }
+            Arrays.sort(files);
+            List<byte[]> photos = new ArrayList<>();
+            for (File file : files) {
+                photos.add(Files.readAllBytes(file.toPath()));
+            }
+            return photos;
+        }
+        byte[] fixture = readFixture();
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(fixture));
+        if (image.getWidth() == width && image.getHeight() == height) {
+            return Arrays.asList(fixture);
+        }
+        return Arrays.asList(scaledPhoto(image, width, height));
+    }
+
+    private static byte[] readFixture() throws IOException {
+        try (InputStream in = BenchmarkData.class.getResourceAsStream(PHOTO_FIXTURE)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private static byte[] scaledPhoto(BufferedImage source, int width, int height) throws IOException {
+        double scale = Math.max(width / (double) source.getWidth(), height / (double) source.getHeight());
+        int scaledWidth = (int) Math.ceil(source.getWidth() * scale);
+        int scaledHeight = (int) Math.ceil(source.getHeight() * scale);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+        g.drawImage(source, (width - scaledWidth) / 2, (height - scaledHeight) / 2, scaledWidth, scaledHeight, null);
+        g.dispose();
+
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpg").next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(0.92f);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ImageOutputStream stream = ImageIO.createImageOutputStream(out)) {
+            writer.setOutput(stream);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+}
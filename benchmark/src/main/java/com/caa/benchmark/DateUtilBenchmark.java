@@ -0,0 +1,66 @@
+package com.caa.benchmark;
+
+import com.caa.util.DateUtil;
+import ir.huri.jcal.JalaliCalendar;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Jalali conversions, called for every person and program serialized. The jalaliCalendar* methods
+ * time the conversion DateUtil used before JalaliConverter, as a reference.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class DateUtilBenchmark {
+
+    private static final int DATES = 1024;
+
+    private final Date[] dates = new Date[DATES];
+    private final String[] shamsiDates = new String[DATES];
+    private int next;
+
+    @Setup
+    public void setUp() {
+        GregorianCalendar calendar = new GregorianCalendar(1950, Calendar.JANUARY, 1);
+        for (int i = 0; i < DATES; i++) {
+            // spread over about 70 years, so every month and leap year shows up
+            calendar.add(Calendar.DAY_OF_MONTH, 25);
+            dates[i] = calendar.getTime();
+            shamsiDates[i] = DateUtil.getShamsiDate(dates[i]);
+        }
+    }
+
+    @Benchmark
+    public String getShamsiDate() {
+        return DateUtil.getShamsiDate(dates[next++ & (DATES - 1)]);
+    }
+
+    @Benchmark
+    public Date getGregorianDate() {
+        return DateUtil.getGregorianDate(shamsiDates[next++ & (DATES - 1)]);
+    }
+
+    @Benchmark
+    public String jalaliCalendarShamsiDate() {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTime(dates[next++ & (DATES - 1)]);
+        JalaliCalendar j = new JalaliCalendar(new GregorianCalendar(
+                calendar.get(Calendar.YEAR), calendar.get(Calendar.MONTH), calendar.get(Calendar.DAY_OF_MONTH)));
+        return j.getYear() + "/" + j.getMonth() + "/" + j.getDay();
+    }
+
+    @Benchmark
+    public Date jalaliCalendarGregorianDate() {
+        String arr[] = shamsiDates[next++ & (DATES - 1)].split("/");
+        return new JalaliCalendar(Integer.parseInt(arr[0]), Integer.parseInt(arr[1]), Integer.parseInt(arr[2]))
+                .toGregorian().getTime();
+    }
+}
@@ -0,0 +1,56 @@
+package com.caa.benchmark;
+
+import com.caa.model.Person;
+import com.caa.model.Program;
+import com.caa.modelview.ProgramExerciseItemView;
+import com.caa.report.ExportReport;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Filling and exporting the program report. The compiled session templates are read from the
+ * report folder of a tenant config folder, given with -Dbenchmark.confFolder, as on the server.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExportReportBenchmark {
+
+    @Param({"12", "60"})
+    int items;
+
+    @Param({"1", "6"})
+    int sessions;
+
+    private String confFolder;
+    private List<ProgramExerciseItemView> programItems;
+    private Program program;
+    private Person person;
+
+    @Setup
+    public void setUp() {
+        confFolder = System.getProperty("benchmark.confFolder");
+        if (confFolder == null || !new File(confFolder, "report").isDirectory()) {
+            throw new IllegalStateException("set -Dbenchmark.confFolder to a config folder that has the compiled report templates in report/");
+        }
+        programItems = BenchmarkData.programItems(items, sessions, 4);
+        program = BenchmarkData.program(1);
+        person = BenchmarkData.person(0);
+    }
+
+    @Benchmark
+    public byte[] pdf() {
+        return ExportReport.getProgramExerciseAsPDFInBytes(confFolder, "مربی", programItems, program, person);
+    }
+
+    @Benchmark
+    public byte[] jpeg() {
+        return ExportReport.getProgramExerciseAsImageInBytes(confFolder, "مربی", programItems, program, person);
+    }
+}
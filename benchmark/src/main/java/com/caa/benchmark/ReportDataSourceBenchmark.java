@@ -0,0 +1,75 @@
+package com.caa.benchmark;
+
+import com.caa.modelview.ProgramExerciseItemView;
+import com.caa.report.ProgramExercisesReportDTO;
+import com.caa.report.ProgramReportDataSource;
+import com.caa.report.ProgramReportRowsBuilder;
+import net.sf.jasperreports.engine.JRDataSource;
+import net.sf.jasperreports.engine.JRException;
+import net.sf.jasperreports.engine.JRField;
+import net.sf.jasperreports.engine.data.JRBeanCollectionDataSource;
+import net.sf.jasperreports.engine.design.JRDesignField;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The data source part of a report fill: building the rows from the program items and reading
+ * every field of every row, as Jasper does, once through the former DTO list with
+ * JRBeanCollectionDataSource and once through ProgramReportDataSource. Needs no report template.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ReportDataSourceBenchmark {
+
+    private static final String[] SESSION_FIELDS = {"Id", "Exercise", "ExerciseRepeatSet", "ExerciseDscription"};
+
+    @Param({"12", "60", "300"})
+    int items;
+
+    @Param({"1", "6"})
+    int sessions;
+
+    private List<ProgramExerciseItemView> programItems;
+    private JRField[] fields;
+
+    @Setup
+    public void setUp() {
+        programItems = BenchmarkData.programItems(items, sessions, 4);
+        // the fields a template of this many sessions declares
+        fields = new JRField[sessions * SESSION_FIELDS.length];
+        for (int session = 1; session <= sessions; session++) {
+            for (int field = 0; field < SESSION_FIELDS.length; field++) {
+                JRDesignField designField = new JRDesignField();
+                designField.setName("program" + session + SESSION_FIELDS[field]);
+                designField.setValueClass(field == 0 ? Long.class : String.class);
+                fields[(session - 1) * SESSION_FIELDS.length + field] = designField;
+            }
+        }
+    }
+
+    @Benchmark
+    public void beanCollectionDataSource(Blackhole blackhole) throws JRException {
+        List<ProgramExercisesReportDTO> rows = new ProgramReportRowsBuilder().addAll(programItems).buildReportDTOs();
+        readAll(new JRBeanCollectionDataSource(rows), blackhole);
+    }
+
+    @Benchmark
+    public void programReportDataSource(Blackhole blackhole) throws JRException {
+        readAll(ProgramReportDataSource.fromItems(programItems), blackhole);
+    }
+
+    private void readAll(JRDataSource dataSource, Blackhole blackhole) throws JRException {
+        while (dataSource.next()) {
+            for (JRField field : fields) {
+                blackhole.consume(dataSource.getFieldValue(field));
+            }
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.caa.benchmark;
+
+import com.caa.modelview.ProgramExerciseItemView;
+import com.caa.report.ProgramReportDataSource;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turning a program's items into the rows of the Jasper report, done on every uncached render:
+ * ProgramReportDataSource.fromItems, which ExportReport fills the report from.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ReportDtoBenchmark {
+
+    @Param({"12", "60", "300"})
+    int items;
+
+    @Param({"1", "3", "6"})
+    int sessions;
+
+    private List<ProgramExerciseItemView> programItems;
+
+    @Setup
+    public void setUp() {
+        programItems = BenchmarkData.programItems(items, sessions, 4);
+    }
+
+    @Benchmark
+    public ProgramReportDataSource fromItems() {
+        return ProgramReportDataSource.fromItems(programItems);
+    }
+}
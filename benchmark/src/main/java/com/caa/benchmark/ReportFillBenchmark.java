@@ -0,0 +1,153 @@
+package com.caa.benchmark;
+
+import com.caa.modelview.ProgramExerciseItemView;
+import com.caa.report.ProgramReportDataSource;
+import com.caa.report.ProgramReportRowsBuilder;
+import net.sf.jasperreports.engine.JRException;
+import net.sf.jasperreports.engine.JasperCompileManager;
+import net.sf.jasperreports.engine.JasperFillManager;
+import net.sf.jasperreports.engine.JasperPrint;
+import net.sf.jasperreports.engine.JasperReport;
+import net.sf.jasperreports.engine.data.JRBeanCollectionDataSource;
+import net.sf.jasperreports.engine.design.JRDesignBand;
+import net.sf.jasperreports.engine.design.JRDesignExpression;
+import net.sf.jasperreports.engine.design.JRDesignField;
+import net.sf.jasperreports.engine.design.JRDesignParameter;
+import net.sf.jasperreports.engine.design.JRDesignSection;
+import net.sf.jasperreports.engine.design.JRDesignTextField;
+import net.sf.jasperreports.engine.design.JasperDesign;
+import net.sf.jasperreports.engine.util.JRLoader;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JasperFillManager.fillReport of the program report, once from the DTO list through
+ * JRBeanCollectionDataSource, as ExportReport did before, and once from ProgramReportDataSource.
+ * Fills the compiled session templates of -Dbenchmark.confFolder when it is set, otherwise a
+ * template built here with the same fields and parameters: a header with the person's measurements
+ * and one stretching id, exercise and repeat text field per session in the detail band.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ReportFillBenchmark {
+
+    private static final String[] MEASUREMENTS = {"age", "tall", "weight", "chest", "waist", "abdomen", "arm",
+            "forearm", "thigh", "shin", "butt", "fatPercentage", "fatWeight", "muscleWeight", "score"};
+    private static final int PAGE_WIDTH = 595;
+    private static final int MARGIN = 20;
+
+    @Param({"12", "60", "300"})
+    int items;
+
+    @Param({"1", "6"})
+    int sessions;
+
+    private List<ProgramExerciseItemView> programItems;
+    private JasperReport report;
+    private Map<String, Object> parameters;
+
+    @Setup
+    public void setUp() throws JRException {
+        programItems = BenchmarkData.programItems(items, sessions, 4);
+        String confFolder = System.getProperty("benchmark.confFolder");
+        if (confFolder != null) {
+            report = (JasperReport) JRLoader.loadObject(
+                    new File(confFolder, "report/PersonProgramExercises" + sessions + "Session.jasper"));
+        } else {
+            report = JasperCompileManager.compileReport(design(sessions));
+        }
+        parameters = new HashMap<>();
+        parameters.put("coachName", "مربی");
+        parameters.put("programDate", "1397/11/14");
+        parameters.put("personName", "علی محمدی");
+        for (String measurement : MEASUREMENTS) {
+            parameters.put(measurement, 42.5);
+        }
+    }
+
+    @Benchmark
+    public JasperPrint beanCollectionDataSource() throws JRException {
+        // a new parameter map each fill, as ExportReport makes; fillReport adds entries to it
+        return JasperFillManager.fillReport(report, new HashMap<>(parameters),
+                new JRBeanCollectionDataSource(new ProgramReportRowsBuilder().addAll(programItems).buildReportDTOs()));
+    }
+
+    @Benchmark
+    public JasperPrint programReportDataSource() throws JRException {
+        return JasperFillManager.fillReport(report, new HashMap<>(parameters),
+                ProgramReportDataSource.fromItems(programItems));
+    }
+
+    private static JasperDesign design(int sessions) throws JRException {
+        JasperDesign design = new JasperDesign();
+        design.setName("PersonProgramExercises" + sessions + "Session");
+        design.setPageWidth(PAGE_WIDTH);
+        design.setPageHeight(842);
+        design.setColumnWidth(PAGE_WIDTH - 2 * MARGIN);
+        design.setLeftMargin(MARGIN);
+        design.setRightMargin(MARGIN);
+        design.setTopMargin(MARGIN);
+        design.setBottomMargin(MARGIN);
+
+        JRDesignBand title = new JRDesignBand();
+        title.setHeight(20 + 20 * ((MEASUREMENTS.length + 4) / 5));
+        addParameter(design, title, "coachName", String.class, 0, 0, 180);
+        addParameter(design, title, "programDate", String.class, 180, 0, 180);
+        addParameter(design, title, "personName", String.class, 360, 0, 180);
+        for (int i = 0; i < MEASUREMENTS.length; i++) {
+            addParameter(design, title, MEASUREMENTS[i], Double.class, (i % 5) * 110, 20 + (i / 5) * 20, 110);
+        }
+        design.setTitle(title);
+
+        JRDesignBand detail = new JRDesignBand();
+        detail.setHeight(20);
+        int columnWidth = (PAGE_WIDTH - 2 * MARGIN) / sessions;
+        for (int session = 1; session <= sessions; session++) {
+            int x = (session - 1) * columnWidth;
+            addField(design, detail, "program" + session + "Id", Long.class, x, 20);
+            addField(design, detail, "program" + session + "Exercise", String.class, x + 20, columnWidth - 60);
+            addField(design, detail, "program" + session + "ExerciseRepeatSet", String.class, x + columnWidth - 40, 40);
+        }
+        ((JRDesignSection) design.getDetailSection()).addBand(detail);
+        return design;
+    }
+
+    private static void addParameter(JasperDesign design, JRDesignBand band, String name, Class<?> type,
+                                     int x, int y, int width) throws JRException {
+        JRDesignParameter parameter = new JRDesignParameter();
+        parameter.setName(name);
+        parameter.setValueClass(type);
+        design.addParameter(parameter);
+        band.addElement(textField("$P{" + name + "}", x, y, width));
+    }
+
+    private static void addField(JasperDesign design, JRDesignBand band, String name, Class<?> type,
+                                 int x, int width) throws JRException {
+        JRDesignField field = new JRDesignField();
+        field.setName(name);
+        field.setValueClass(type);
+        design.addField(field);
+        band.addElement(textField("$F{" + name + "}", x, 0, width));
+    }
+
+    private static JRDesignTextField textField(String expression, int x, int y, int width) {
+        JRDesignTextField textField = new JRDesignTextField();
+        textField.setX(x);
+        textField.setY(y);
+        textField.setWidth(width);
+        textField.setHeight(20);
+        textField.setStretchWithOverflow(true);
+        textField.setBlankWhenNull(true);
+        textField.setExpression(new JRDesignExpression(expression));
+        return textField;
+    }
+}
@@ -0,0 +1,50 @@
+package com.caa.benchmark;
+
+import com.caa.util.ImageUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Making the thumbnails of uploaded pictures, from the photo fixture at its own 2.3 MP and scaled up
+ * to phone camera sizes. Set -Dbenchmark.photoDir to a folder of other photos to time those instead;
+ * the photo size parameter is then ignored.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ShrinkImageBenchmark {
+
+    // the fixture as it is, and phone camera sizes of 8 MP and 12 MP
+    @Param({"1920x1200", "3264x2448", "4032x3024"})
+    String photoSize;
+
+    // the avatar and the program picture preview
+    @Param({"120x120", "600x600"})
+    String thumbnailSize;
+
+    private List<byte[]> photos;
+    private int thumbnailWidth;
+    private int thumbnailHeight;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        String[] photo = photoSize.split("x");
+        photos = BenchmarkData.photos(Integer.parseInt(photo[0]), Integer.parseInt(photo[1]));
+        String[] thumbnail = thumbnailSize.split("x");
+        thumbnailWidth = Integer.parseInt(thumbnail[0]);
+        thumbnailHeight = Integer.parseInt(thumbnail[1]);
+    }
+
+    @Benchmark
+    public byte[] shrinkImage() throws IOException {
+        byte[] photo = photos.get(next++ % photos.size());
+        return ImageUtil.shrinkImage(thumbnailWidth, thumbnailHeight, photo, "jpg");
+    }
+}
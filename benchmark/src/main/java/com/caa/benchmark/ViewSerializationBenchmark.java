@@ -0,0 +1,73 @@
+package com.caa.benchmark;
+
+import com.caa.model.Person;
+import com.caa.modelview.PersonView;
+import com.caa.modelview.ProgramExerciseItemView;
+import com.caa.modelview.ProgramView;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building and writing the person and program lists as the controllers return them, with an
+ * ObjectMapper configured the way Spring Boot configures the server's.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ViewSerializationBenchmark {
+
+    @Param({"20", "200"})
+    int rows;
+
+    // 0 for the list views, which leave the avatar out; a typical avatar thumbnail otherwise
+    @Param({"0", "8192"})
+    int thumbnailBytes;
+
+    private ObjectMapper objectMapper;
+    private Person person;
+    private List<ProgramView> programViews;
+
+    @Setup
+    public void setUp() {
+        objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        person = BenchmarkData.person(thumbnailBytes);
+        List<ProgramExerciseItemView> items = BenchmarkData.programItems(30, 3, 4);
+        programViews = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            ProgramView view = new ProgramView(BenchmarkData.program(i + 1));
+            view.setShamsiProgramDate("1397/11/14");
+            view.setPersonName("علی محمدی");
+            for (ProgramExerciseItemView item : items) {
+                switch (item.getSubExerciseId()) {
+                    case 1: view.getProgramExercise1Items().add(item); break;
+                    case 2: view.getProgramExercise2Items().add(item); break;
+                    default: view.getProgramExercise3Items().add(item); break;
+                }
+            }
+            programViews.add(view);
+        }
+    }
+
+    @Benchmark
+    public byte[] personViews() throws JsonProcessingException {
+        List<PersonView> views = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            views.add(new PersonView(person));
+        }
+        return objectMapper.writeValueAsBytes(views);
+    }
+
+    @Benchmark
+    public byte[] programViews() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(programViews);
+    }
+}
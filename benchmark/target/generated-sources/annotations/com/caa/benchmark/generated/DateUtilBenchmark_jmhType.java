@@ -0,0 +1,4 @@
+package com.caa.benchmark.generated;
+public class DateUtilBenchmark_jmhType extends DateUtilBenchmark_jmhType_B3 {
+}
+
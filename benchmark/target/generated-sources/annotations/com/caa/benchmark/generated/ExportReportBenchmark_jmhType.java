@@ -0,0 +1,4 @@
+package com.caa.benchmark.generated;
+public class ExportReportBenchmark_jmhType extends ExportReportBenchmark_jmhType_B3 {
+}
+
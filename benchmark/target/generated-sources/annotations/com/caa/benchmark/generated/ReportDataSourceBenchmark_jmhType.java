@@ -0,0 +1,4 @@
+package com.caa.benchmark.generated;
+public class ReportDataSourceBenchmark_jmhType extends ReportDataSourceBenchmark_jmhType_B3 {
+}
+
@@ -0,0 +1,4 @@
+package com.caa.benchmark.generated;
+public class ReportDtoBenchmark_jmhType extends ReportDtoBenchmark_jmhType_B3 {
+}
+
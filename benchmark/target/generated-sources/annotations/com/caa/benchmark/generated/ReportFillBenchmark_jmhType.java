@@ -0,0 +1,4 @@
+package com.caa.benchmark.generated;
+public class ReportFillBenchmark_jmhType extends ReportFillBenchmark_jmhType_B3 {
+}
+
@@ -0,0 +1,4 @@
+package com.caa.benchmark.generated;
+public class ShrinkImageBenchmark_jmhType extends ShrinkImageBenchmark_jmhType_B3 {
+}
+
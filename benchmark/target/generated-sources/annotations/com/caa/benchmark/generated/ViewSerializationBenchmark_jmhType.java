@@ -0,0 +1,4 @@
+package com.caa.benchmark.generated;
+public class ViewSerializationBenchmark_jmhType extends ViewSerializationBenchmark_jmhType_B3 {
+}
+
@@ -20,6 +20,8 @@ export class PersonsComponent implements OnInit {
               private modalService: NgbModal) {
   }
 
+  private DUMMY_PERSON_IMAGE = 'assets/images/dummy-person.png';
+
   searchText: string = '';
   public personList: Person[] = [];
 
@@ -28,7 +30,7 @@ export class PersonsComponent implements OnInit {
   }
   ///////////////////////////////////////////////////////////////////////////
   initPersonList() {
-    this.personService.getPersonList().subscribe((data: Person[]) => {
+    this.personService.getPersonShortList().subscribe((data: Person[]) => {
       this.personList = data;
       this.personList.forEach((person, index, array) => {
         this.manageImage(person);
@@ -40,13 +42,20 @@ export class PersonsComponent implements OnInit {
 
   manageImage(person: PersonView) {
     const img = person.shrinkedImage;
-    if (img === undefined || img === null || img.length === 0)
-      person.shrinkedImage = 'assets/images/dummy-person.png';
-    else
+    if (img !== undefined && img !== null && img.length > 0)
       person.shrinkedImage = this.helperService.BASE_64_IMAGE_PREFIX + person.shrinkedImage;
+    else if (person.avatarUrl)
+      // list responses carry no image; the browser loads and caches the avatar by url
+      person.shrinkedImage = person.avatarUrl;
+    else
+      person.shrinkedImage = this.DUMMY_PERSON_IMAGE;
     // return person;
   }
 
+  avatarError(person: PersonView) {
+    person.shrinkedImage = this.DUMMY_PERSON_IMAGE;
+  }
+
   addPersonClick() {
     const activeModal = this.modalService.open(AddPersonModalComponent, { backdrop: 'static', size: 'lg', container: 'nb-layout' });
     activeModal.componentInstance.personId = 0;
@@ -154,10 +154,16 @@ export class AddProgramModalComponent implements OnInit {
     for (let i = 1; i <= 6; i++) {
       this.bodyPicture[i] = 'assets/images/dummy-body.png';
     }
-    const ver = new Date().getTime();
+    const hashes = this.program.pictureHashes || {};
     for (let i = 1; i <= 6; i++) {
-      this.bodyPicture[i] = this.helperService.SERVER_URL + this.programService.DOWNLOAD_PROGRAM_PICTURES_SHRINKED +
-        '/' + this.person.mobileNumber + '/' + this.program.id + '/' + i + '?ver=' + ver;
+      // a stored picture has an immutable URL the browser caches; older ones are revalidated by the server
+      const hash = hashes[this.programService.PROGRAM_PICTURE_NAME + i + '/small'];
+      if (hash) {
+        this.bodyPicture[i] = this.helperService.SERVER_URL + this.programService.IMAGES + '/' + hash;
+      } else {
+        this.bodyPicture[i] = this.helperService.SERVER_URL + this.programService.DOWNLOAD_PROGRAM_PICTURES_SHRINKED +
+          '/' + this.person.mobileNumber + '/' + this.program.id + '/' + i;
+      }
     /// this.downloadPicture(i);
     }
   }
@@ -7,6 +7,7 @@ import {HelperService} from '../../../../services/helper.service';
 // import {NotificationsService} from 'angular2-notifications';
 import DataSource from 'devextreme/data/data_source';
 import ArrayStore from 'devextreme/data/array_store';
+import CustomStore from 'devextreme/data/custom_store';
 import {AddExerciseModalComponent} from './addExerciseModalComponent/add-exercise-modal.component';
 
 interface SearchData {
@@ -33,6 +34,8 @@ export class AddExerciseItemModalComponent implements OnInit {
     }),
   });
 
+  private SEARCH_LIMIT = 20;
+
   source: LocalDataSource = new LocalDataSource();
   public inputExercise: string;
   public inputExerciseId: number = 0;
@@ -57,21 +60,11 @@ export class AddExerciseItemModalComponent implements OnInit {
   ) {
   }
   ngOnInit() {
-    const programList = [];
-    this.exerciseService.getExerciseShortList().subscribe((data: Exercise[]) => {
-      data.forEach((e, index, array) => {
-        this.searchData.push({item : e.name, value : e.id});
-        programList.push(e.name);
-      }, (error) => {
-        this.helperService.showError(error)
-      });
-
-      this.dataSource =  new DataSource({
-        store: new ArrayStore({
-          key: 'item',
-          data: programList,
-        }),
-      });
+    // suggestions are searched on the server as the user types instead of downloading the whole catalog
+    this.dataSource =  new DataSource({
+      store: new CustomStore({
+        load: (loadOptions: any) => this.searchExercises(loadOptions.searchValue),
+      }),
     });
 
     if (this.selectedExcercisesList != null && this.selectedExcercisesList.length > 0) {
@@ -116,6 +109,25 @@ export class AddExerciseItemModalComponent implements OnInit {
     return r;
   }
 
+  searchExercises(q: string) {
+    if (q == null || q.length === 0) {
+      return Promise.resolve([]);
+    }
+    return this.exerciseService.searchExercises(q, this.SEARCH_LIMIT).toPromise().then((data: Exercise[]) => {
+      const names = [];
+      data.forEach((e) => {
+        if (this.getExerciseId(e.name) === 0) {
+          this.searchData.push({item : e.name, value : e.id});
+        }
+        names.push(e.name);
+      });
+      return names;
+    }, (error) => {
+      this.helperService.showError(error);
+      return [];
+    });
+  }
+
   getExerciseId(name: string) {
     let exercixeId = 0;
     this.searchData.forEach((programItem: SearchData, index, array) => {
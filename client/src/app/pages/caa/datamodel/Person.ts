@@ -10,4 +10,5 @@ export class Person {
   birthDate: string;
   originalImage: any;
   shrinkedImage: any;
+  avatarUrl: string;
 }
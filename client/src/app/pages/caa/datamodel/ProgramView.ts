@@ -32,6 +32,9 @@ export class ProgramView {
 
   shamsiProgramDate: string;
   personName: string;
+
+  // content hash of each stored picture variant by 'imageName/variant', served by /images/{hash}
+  pictureHashes: { [name: string]: string } = {};
 }
 
 export class ProgramExerciseItem {
@@ -11,6 +11,7 @@ export class ExerciseService {
 
   public GET_PERSON_LIST: string  = '/getExercises';
   public GET_EXERCISE_SHORT_LIST: string  = '/getExerciseShortList';
+  public SEARCH_EXERCISES: string  = '/searchExercises';
   public SAVE_PERSON: string  = '/saveExercise';
   public DELETE_PERSON: string  = '/deleteExercise';
 
@@ -40,6 +41,11 @@ export class ExerciseService {
     return this.http.get<Exercise[]>(this.helperService.SERVER_URL + this.GET_EXERCISE_SHORT_LIST);
   }
 
+  public searchExercises(q: string, limit: number) {
+    return this.http.get<Exercise[]>(this.helperService.SERVER_URL + this.SEARCH_EXERCISES,
+      {params: {q: q, limit: limit + ''}});
+  }
+
   public getExerciseRepeatTypeDesc(repeatType: string) {
     return repeatType === 'S' ?  this.exerciseRepeatTypeDesc[0] :
       repeatType === 'M' ?  this.exerciseRepeatTypeDesc[1] :
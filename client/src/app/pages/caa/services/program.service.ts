@@ -19,6 +19,7 @@ export class ProgramService {
   private UPLOAD_PROGRAM_PICTURES: string  = '/uploadProgramPictures';
   public DOWNLOAD_PROGRAM_PICTURES_SHRINKED: string  = '/downloadProgramPicturesShrinked';
   public DOWNLOAD_PROGRAM_PICTURES_ORIGINAL: string  = '/downloadProgramPicturesOriginal';
+  public IMAGES: string  = '/images';
 
   public SAVE_PROGRAM: string  = '/saveProgram';
   public DELETE_PROGRAM: string  = '/deleteProgram';
@@ -0,0 +1,136 @@
+package com.caa;
+
+import com.caa.services.BulkImportService;
+import com.caa.services.ExerciseCatalogCache;
+import com.caa.services.ImagePipelineService;
+import com.caa.services.MeasurementSeriesCache;
+import com.caa.services.PersonSearchIndex;
+import com.caa.services.ProgramExportService;
+import com.caa.services.RenderedReportCache;
+import com.caa.services.ReportRenderingService;
+import com.caa.services.security.impl.CustomUserDetailsService;
+import com.caa.util.LruCache;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.jpa.HibernateMetrics;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+import javax.persistence.EntityManagerFactory;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.Collections;
+
+/**
+ * Meters beyond the ones micrometer-spring-legacy sets up by itself (JVM, http.server.requests):
+ * a request counter per tenant, Hibernate statistics, and gauges for the worker pools and
+ * in-memory caches. Report and image timers are recorded where the work is done, in ExportReport
+ * and ImageUtil. Everything is scraped from /prometheus on the management port, which listens on
+ * localhost only.
+ */
+@Configuration
+public class MetricsConfiguration extends WebMvcConfigurerAdapter {
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(new TenantRequestCounter(meterRegistry));
+    }
+
+    @Bean
+    public MeterBinder hibernateMetrics(EntityManagerFactory entityManagerFactory) {
+        return registry -> new HibernateMetrics(entityManagerFactory, "entityManagerFactory", Collections.emptyList())
+                .bindTo(registry);
+    }
+
+    @Bean
+    public MeterBinder executorMetrics(ReportRenderingService reportRenderingService,
+                                       ImagePipelineService imagePipelineService,
+                                       BulkImportService bulkImportService,
+                                       ProgramExportService programExportService) {
+        return registry -> {
+            new ExecutorServiceMetrics(reportRenderingService.getExecutor(), "report-renderer", Collections.emptyList())
+                    .bindTo(registry);
+            new ExecutorServiceMetrics(imagePipelineService.getExecutor(), "image-pipeline", Collections.emptyList())
+                    .bindTo(registry);
+            new ExecutorServiceMetrics(bulkImportService.getExecutor(), "bulk-import", Collections.emptyList())
+                    .bindTo(registry);
+            new ExecutorServiceMetrics(programExportService.getExecutor(), "program-export", Collections.emptyList())
+                    .bindTo(registry);
+            new ExecutorServiceMetrics(programExportService.getRenderExecutor(), "program-export-renderer",
+                    Collections.emptyList()).bindTo(registry);
+        };
+    }
+
+    @Bean
+    public MeterBinder cacheMetrics(RenderedReportCache renderedReportCache,
+                                    ExerciseCatalogCache exerciseCatalogCache,
+                                    PersonSearchIndex personSearchIndex,
+                                    MeasurementSeriesCache measurementSeriesCache) {
+        return registry -> {
+            bindCache(registry, "rendered-reports", renderedReportCache.getCache(), "entries", "bytes");
+            bindCache(registry, "exercise-catalog", exerciseCatalogCache.getCache(), "tenants", null);
+            bindCache(registry, "person-search", personSearchIndex.getCache(), "tenants", null);
+            bindCache(registry, "measurement-series", measurementSeriesCache.getCache(), "persons", null);
+        };
+    }
+
+    /**
+     * Publishes the counters the cache's getStats() reports, under the same names, each read on its
+     * own: hits, misses and evictions as counters, the entry count, weight and capacity as gauges,
+     * e.g. cache.max.tenants{cache="person-search"}.
+     * @param entries what an entry is, for the entry count gauge
+     * @param weight what the cache is bounded by when that is not the entry count, else null
+     */
+    private static void bindCache(MeterRegistry registry, String cache, LruCache<?, ?> lruCache,
+                                  String entries, String weight) {
+        Gauge.builder("cache." + entries, lruCache, LruCache::size).tag("cache", cache).register(registry);
+        if (weight != null) {
+            Gauge.builder("cache." + weight, lruCache, LruCache::getWeight).tag("cache", cache).register(registry);
+        }
+        Gauge.builder("cache.max." + (weight == null ? entries : weight), lruCache, LruCache::getMaxWeight)
+                .tag("cache", cache).register(registry);
+        FunctionCounter.builder("cache.hits", lruCache, LruCache::getHits).tag("cache", cache).register(registry);
+        FunctionCounter.builder("cache.misses", lruCache, LruCache::getMisses).tag("cache", cache).register(registry);
+        FunctionCounter.builder("cache.evictions", lruCache, LruCache::getEvictions).tag("cache", cache).register(registry);
+    }
+
+    /**
+     * Counts the requests of each tenant in tenant.requests{tenant=...}. The tenant is not a tag of
+     * the http.server.requests timers, since their histogram buckets would be repeated for every tenant.
+     */
+    private static class TenantRequestCounter extends HandlerInterceptorAdapter {
+        private final MeterRegistry registry;
+
+        TenantRequestCounter(MeterRegistry registry) {
+            this.registry = registry;
+        }
+
+        @Override
+        public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+            Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+            if (authentication != null && authentication.isAuthenticated()) {
+                try {
+                    String tenant = CustomUserDetailsService.getCurrentUserTenant();
+                    if (tenant != null) {
+                        registry.counter("tenant.requests", "tenant", tenant).increment();
+                    }
+                } catch (RuntimeException e) {
+                    // anonymous and client-credential requests have no tenant
+                }
+            }
+            return true;
+        }
+    }
+}
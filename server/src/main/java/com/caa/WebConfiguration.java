@@ -3,11 +3,30 @@ package com.caa;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.env.Environment;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
 
 @Configuration
-public class WebConfiguration {
+public class WebConfiguration extends WebMvcConfigurerAdapter {
 
     @Autowired
     private Environment env;
 
+    /**
+     * Async handlers without an executor of their own run on a bounded pool instead of Spring's
+     * default, which starts a new thread for every task. Program exports bring their own executor.
+     */
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        int threads = env.getProperty("web.async.threads", Integer.class, 4);
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(env.getProperty("web.async.queue-capacity", Integer.class, 20));
+        executor.setThreadNamePrefix("mvc-async-");
+        executor.setDaemon(true);
+        executor.initialize();
+        configurer.setTaskExecutor(executor);
+    }
 }
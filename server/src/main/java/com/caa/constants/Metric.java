@@ -0,0 +1,76 @@
+package com.caa.constants;
+
+import com.caa.modelview.MeasurementRow;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.ToDoubleFunction;
+
+import static com.caa.constants.ProgramConstants.*;
+
+/**
+ * A body measurement recorded with every program, in the row order of getPersonAllSizes.
+ */
+public enum Metric {
+    AGE("age", ROW_NAME_AGE, MeasurementRow::getPersonAge),
+    TALL("tall", ROW_NAME_TALL, MeasurementRow::getPersonTall),
+    WEIGHT("weight", ROW_NAME_WEIGHT, MeasurementRow::getPersonWeight),
+    CHEST("chest", ROW_NAME_CHEST, MeasurementRow::getPersonChest),
+    WAIST("waist", ROW_NAME_WAIST, MeasurementRow::getPersonWaist),
+    ABDOMEN("abdomen", ROW_NAME_ABDOMEN, MeasurementRow::getPersonAbdomen),
+    ARM("arm", ROW_NAME_ARM, MeasurementRow::getPersonArm),
+    FORE_ARM("foreArm", ROW_NAME_FORE_ARM, MeasurementRow::getPersonForeArm),
+    THIGH("thigh", ROW_NAME_THIGH, MeasurementRow::getPersonThigh),
+    SHIN("shin", ROW_NAME_SHIN, MeasurementRow::getPersonShin),
+    BUTT("butt", ROW_NAME_BUTT, MeasurementRow::getPersonButt),
+    FAT_PERCENTAGE("fatPercentage", ROW_NAME_FAT_PERCENTAGE, MeasurementRow::getPersonFatPercentage),
+    FAT_WEIGHT("fatWeight", ROW_NAME_FAT_WEIGHT, MeasurementRow::getPersonFatWeight),
+    MUSCLE_WEIGHT("muscleWeight", ROW_NAME_MUSCLE_WEIGHT, MeasurementRow::getPersonMuscleWeight),
+    SCORE("score", ROW_NAME_SCORE, MeasurementRow::getPersonScore);
+
+    private final String key;
+    private final String label;
+    private final ToDoubleFunction<MeasurementRow> value;
+
+    Metric(String key, String label, ToDoubleFunction<MeasurementRow> value) {
+        this.key = key;
+        this.label = label;
+        this.value = value;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public double valueOf(MeasurementRow row) {
+        return value.applyAsDouble(row);
+    }
+
+    /**
+     * @param keys comma separated metric keys, such as "weight,fatPercentage"; empty for all metrics
+     */
+    public static List<Metric> parseList(String keys) {
+        if (keys == null || keys.trim().isEmpty()) {
+            return Arrays.asList(values());
+        }
+        List<Metric> metrics = new ArrayList<>();
+        for (String key : keys.split(",")) {
+            metrics.add(fromKey(key.trim()));
+        }
+        return metrics;
+    }
+
+    public static Metric fromKey(String key) {
+        for (Metric metric : values()) {
+            if (metric.key.equalsIgnoreCase(key)) {
+                return metric;
+            }
+        }
+        throw new RuntimeException("اندازه " + key + " تعریف نشده است");
+    }
+}
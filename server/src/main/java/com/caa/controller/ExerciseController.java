@@ -4,9 +4,13 @@ import com.caa.dao.ExerciseDao;
 import com.caa.dao.ProgramExerciseItemDao;
 import com.caa.model.Exercise;
 import com.caa.model.ProgramExerciseItem;
+import com.caa.modelview.ExerciseSaveResult;
 import com.caa.modelview.ExerciseView;
+import com.caa.modelview.PageView;
+import com.caa.services.ExerciseCatalogCache;
 import com.caa.services.ExerciseService;
 import com.caa.services.security.impl.CustomUserDetailsService;
+import com.caa.util.AdminAccess;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -17,8 +21,9 @@ import org.springframework.transaction.annotation.Isolation;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.*;
 
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 @CrossOrigin(origins = "*")
 @RestController
@@ -27,6 +32,8 @@ import java.util.List;
 public class ExerciseController {
 
     private static Logger logger = LoggerFactory.getLogger(ExerciseController.class);
+
+    private static final int MAX_SEARCH_RESULTS = 100;
 	
     @Autowired
     private ExerciseDao exerciseDao;
@@ -35,6 +42,8 @@ public class ExerciseController {
     private ExerciseService exerciseService;
     @Autowired
     private ProgramExerciseItemDao programExerciseItemDao;
+    @Autowired
+    private ExerciseCatalogCache exerciseCatalogCache;
 
     @RequestMapping(method = RequestMethod.GET, value = "/getExercise/{id:[\\d]+}", produces = MediaType.APPLICATION_JSON_VALUE)
     @ResponseBody
@@ -51,54 +60,31 @@ public class ExerciseController {
     	
     	logger.info("queryAllForTenant entered...");
 		String tenant = CustomUserDetailsService.getCurrentUserTenant();
-		return exerciseDao.queryAllForTenant(tenant);
+		return exerciseCatalogCache.getExercises(tenant);
 	}
 
 	@RequestMapping(value="/saveExercise", method = RequestMethod.POST, produces = MediaType.APPLICATION_JSON_VALUE)
 	@ResponseBody
 	@Transactional
 	public Exercise saveExercise(@RequestBody Exercise exercise) {
-
-		exercise.setName(exercise.getName() == null ? "" : exercise.getName().trim());
-  	// check repeated name
-		String tenant = CustomUserDetailsService.getCurrentUserTenant();
-		List<Exercise> list = exerciseDao.queryByNameForTenant(tenant, exercise.getName());
-		long currentId = exercise.getId();
-
-		if (list != null && list.size() > 0 && list.get(0).getId() != currentId) {
-			throw new RuntimeException("نام حرکت تکراری است");
-		}
-
-		// check repeated code
-		list = exerciseDao.queryByCodeForTenant(tenant, exercise.getCode());
-		if (list != null && list.size() > 0 && list.get(0).getId() != currentId) {
-			throw new RuntimeException("کد حرکت تکراری است");
-		}
-		if (exercise.getCode() != null && exercise.getCode().length() > 0) {
-			try {
-				Integer.parseInt(exercise.getCode());
-			} catch (Exception ex) {
-				throw new RuntimeException("لطفا کد حرکت عددی وارد گردد");
-			}
-		}else {
-			exercise.setCode(exerciseService.getNewCode());
-		}
-
-		if (exercise.getLatinName() == null) {
-			exercise.setLatinName("");
-		}
-		exercise.setLatinName(exercise.getLatinName().trim());
-		// check repeated latin name
-		list = exerciseDao.queryByLatinNameForTenant(tenant, exercise.getLatinName());
-		if (exercise.getLatinName() != null && exercise.getLatinName().length() > 0 &&
-				list != null && list.size() > 0 && list.get(0).getId() != currentId) {
-			throw new RuntimeException("نام لاتین حرکت تکراری است");
+    	logger.info("saveExercise entered...");
+		ExerciseSaveResult result = exerciseService.saveExercises(Collections.singletonList(exercise)).get(0);
+		if (result.getErrors().size() > 0) {
+			throw new RuntimeException(result.getErrors().get(0));
 		}
+		return result.getExercise();
+	}
 
-		exercise.setTenantId(tenant);
-    	logger.info("saveExercise entered...");
-    	exerciseDao.save(exercise);
-		return exercise;
+	/**
+	 * Saves a batch of new and edited exercises; the ones that fail validation are not saved and
+	 * their errors are returned with their position in the batch.
+	 */
+	@RequestMapping(value="/saveExercises", method = RequestMethod.POST, produces = MediaType.APPLICATION_JSON_VALUE)
+	@ResponseBody
+	@Transactional
+	public List<ExerciseSaveResult> saveExercises(@RequestBody List<Exercise> exercises) {
+		logger.info("saveExercises entered: count= " + exercises.size());
+		return exerciseService.saveExercises(exercises);
 	}
 
 	@RequestMapping(method = RequestMethod.DELETE, value = "/deleteExercise/{id:[\\d]+}", produces = MediaType.APPLICATION_JSON_VALUE)
@@ -111,6 +97,7 @@ public class ExerciseController {
 		}
 		logger.info("delete entered: id= " + id);
 		 exerciseDao.delete(id);
+		exerciseCatalogCache.invalidateAfterCommit(CustomUserDetailsService.getCurrentUserTenant());
 	}
 
 	@RequestMapping(value="/getExerciseShortList", method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
@@ -120,15 +107,56 @@ public class ExerciseController {
 		logger.info("queryAllForTenant entered...");
 
 		String tenant = CustomUserDetailsService.getCurrentUserTenant();
-		List<Exercise> list = exerciseDao.queryAllForTenant(tenant);
-		List<ExerciseView> result = new ArrayList<>();
+		return exerciseCatalogCache.getShortList(tenant);
+	}
 
-		for (Exercise p : list) {
-			ExerciseView pv = new ExerciseView(p);
-			result.add(pv);
-		}
+	/**
+	 * Typeahead search over the tenant's exercise names, latin names, codes and involved muscles.
+	 */
+	@RequestMapping(value="/searchExercises", method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
+	@ResponseBody
+	public List<ExerciseView> searchExercises(@RequestParam(value = "q", defaultValue = "") String q,
+											  @RequestParam(value = "limit", defaultValue = "20") int limit) {
+		String tenant = CustomUserDetailsService.getCurrentUserTenant();
+		return exerciseCatalogCache.search(tenant, q, Math.min(limit, MAX_SEARCH_RESULTS));
+	}
 
-		return result;
+	/**
+	 * Paged alternative of getExercises: exercises in id order after the given cursor.
+	 */
+	@RequestMapping(value="/getExercisesPage", method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
+	@ResponseBody
+	public PageView<Exercise> getExercisesPage(@RequestParam(value = "cursor", defaultValue = "0") long cursor,
+											   @RequestParam(value = "size", required = false) Integer size,
+											   @RequestParam(value = "withTotal", defaultValue = "false") boolean withTotal) {
+		String tenant = CustomUserDetailsService.getCurrentUserTenant();
+		int pageSize = PageView.normalizeSize(size);
+		Long total = withTotal ? (long) exerciseCatalogCache.getExerciseCount(tenant) : null;
+		return PageView.of(exerciseCatalogCache.getExercisesAfter(tenant, cursor, pageSize + 1), pageSize,
+				Exercise::getId, exercise -> exercise, total);
+	}
+
+	/**
+	 * Paged alternative of getExerciseShortList.
+	 */
+	@RequestMapping(value="/getExerciseShortListPage", method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
+	@ResponseBody
+	public PageView<ExerciseView> getExerciseShortListPage(@RequestParam(value = "cursor", defaultValue = "0") long cursor,
+														   @RequestParam(value = "size", required = false) Integer size,
+														   @RequestParam(value = "withTotal", defaultValue = "false") boolean withTotal) {
+		String tenant = CustomUserDetailsService.getCurrentUserTenant();
+		int pageSize = PageView.normalizeSize(size);
+		Long total = withTotal ? (long) exerciseCatalogCache.getExerciseCount(tenant) : null;
+		return PageView.of(exerciseCatalogCache.getShortListAfter(tenant, cursor, pageSize + 1), pageSize,
+				ExerciseView::getId, exercise -> exercise, total);
+	}
+
+	@RequestMapping(value="/getExerciseCatalogCacheStats", method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
+	@ResponseBody
+	public Map<String, Long> getExerciseCatalogCacheStats() {
+		// counts over every tenant's catalog
+		AdminAccess.checkAdmin();
+		return exerciseCatalogCache.getStats();
 	}
 
 	// Convert a predefined exception to an HTTP Status code
@@ -0,0 +1,48 @@
+package com.caa.controller;
+
+import com.caa.services.ImageStoreService;
+import com.caa.services.TenantConfigurationService;
+import com.caa.services.security.impl.CustomUserDetailsService;
+import com.caa.util.FileResponseUtil;
+import com.caa.util.ImageFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.*;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Serves stored pictures by content hash. The bytes behind such a URL never change, so clients
+ * may cache them for a year without revalidating.
+ */
+@CrossOrigin(origins = "*")
+@RestController
+@RequestMapping(value = "/api", produces = MediaType.APPLICATION_JSON_VALUE)
+public class ImageController {
+
+    private static Logger logger = LoggerFactory.getLogger(ImageController.class);
+
+	@Autowired
+	ImageStoreService imageStoreService;
+
+	@Autowired
+	TenantConfigurationService tenantConfigurationService;
+
+	@RequestMapping(method = RequestMethod.GET, value = "/images/{hash:[0-9a-f]{64}}",
+			produces = {MediaType.IMAGE_JPEG_VALUE, MediaType.IMAGE_PNG_VALUE, MediaType.IMAGE_GIF_VALUE})
+	public void getImage(HttpServletRequest request, HttpServletResponse response,
+						 @PathVariable("hash") String hash) throws IOException {
+		ImageFile picture = imageStoreService.findFileByHash(tenantConfigurationService.getProjectConfigFolder(),
+				CustomUserDetailsService.getCurrentUserTenant(), hash);
+		if (picture == null) {
+			logger.info("getImage: no picture with hash " + hash);
+			response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+		FileResponseUtil.sendPicture(request, response, picture, FileResponseUtil.CACHE_IMMUTABLE, true);
+	}
+}
@@ -0,0 +1,48 @@
+package com.caa.controller;
+
+import com.caa.modelview.ImportJobView;
+import com.caa.services.BulkImportService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+
+@CrossOrigin(origins = "*")
+@RestController
+@RequestMapping(value = "/api", produces = MediaType.APPLICATION_JSON_VALUE)
+public class ImportController {
+
+	private static Logger logger = LoggerFactory.getLogger(ImportController.class);
+
+	@Autowired
+	BulkImportService bulkImportService;
+
+	/**
+	 * Starts importing the request body, either CSV (text/csv, with a header row) or JSON (an array
+	 * of objects), and returns the job to poll with getImportJob.
+	 */
+	@RequestMapping(value = "/import/{kind:persons|exercises|programs}", method = RequestMethod.POST,
+			consumes = {"text/csv", MediaType.APPLICATION_JSON_VALUE}, produces = MediaType.APPLICATION_JSON_VALUE)
+	@ResponseBody
+	public ImportJobView startImport(@PathVariable("kind") String kind, HttpServletRequest request) throws IOException {
+		logger.info("startImport entered: kind= " + kind);
+		String format = request.getContentType().toLowerCase().contains("json") ?
+				BulkImportService.FORMAT_JSON : BulkImportService.FORMAT_CSV;
+		return bulkImportService.start(kind, format, request.getInputStream());
+	}
+
+	@RequestMapping(value = "/getImportJob/{jobId}", method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
+	public ResponseEntity<ImportJobView> getImportJob(@PathVariable("jobId") String jobId) {
+		ImportJobView job = bulkImportService.getJob(jobId);
+		if (job == null) {
+			return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+		}
+		return new ResponseEntity<>(job, HttpStatus.OK);
+	}
+}
@@ -1,9 +1,18 @@
 package com.caa.controller;
 
 import com.caa.model.Person;
+import com.caa.modelview.PageView;
+import com.caa.modelview.PersonAvatar;
+import com.caa.modelview.PersonListItem;
 import com.caa.modelview.PersonView;
+import com.caa.services.ImagePipelineService;
+import com.caa.services.PersonSearchIndex;
 import com.caa.services.PersonService;
 import com.caa.services.TenantConfigurationService;
+import com.caa.util.AdminAccess;
+import com.caa.util.BlobStore;
+import com.caa.util.FileResponseUtil;
+import com.caa.util.ImageFile;
 import com.caa.util.ImageUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -13,9 +22,13 @@ import org.springframework.http.*;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 @CrossOrigin(origins = "*")
 @RestController
@@ -30,6 +43,12 @@ public class PersonController {
     @Autowired
 	TenantConfigurationService tenantConfigurationService;
 
+    @Autowired
+	ImagePipelineService imagePipelineService;
+
+    @Autowired
+	PersonSearchIndex personSearchIndex;
+
 	@RequestMapping(value="/getPersons", method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
 	@ResponseBody
 	public Iterable<Person> getPersons() {
@@ -44,24 +63,75 @@ public class PersonController {
 
     	logger.info("getPersonShortList entered...");
 
-		List<Person> list = personService.findAllForTenant();
+		List<PersonListItem> list = personService.findListItemsForTenant();
 		List<PersonView> result = new ArrayList<>();
 
-		for (Person p : list) {
-			PersonView pv = new PersonView(p);
+		for (PersonListItem p : list) {
+			PersonView pv = toView(p);
 			result.add(pv);
 		}
 
 		return result;
 	}
 
+	@RequestMapping(value="/getPersonSearchIndexStats", method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
+	@ResponseBody
+	public Map<String, Long> getPersonSearchIndexStats() {
+		AdminAccess.checkAdmin();
+		return personSearchIndex.getStats();
+	}
+
+	/**
+	 * Paged alternative of getPersons: persons in id order after the given cursor.
+	 */
+	@RequestMapping(value="/getPersonsPage", method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
+	@ResponseBody
+	public PageView<Person> getPersonsPage(@RequestParam(value = "cursor", defaultValue = "0") long cursor,
+										   @RequestParam(value = "size", required = false) Integer size,
+										   @RequestParam(value = "withTotal", defaultValue = "false") boolean withTotal) {
+		logger.info("getPersonsPage entered: cursor= " + cursor);
+		int pageSize = PageView.normalizeSize(size);
+		return PageView.of(personService.findPageForTenant(cursor, pageSize), pageSize, Person::getId,
+				person -> person, withTotal ? personService.countForTenant() : null);
+	}
+
+	/**
+	 * Paged alternative of getPersonShortList.
+	 */
+	@RequestMapping(value="/getPersonShortListPage", method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
+	@ResponseBody
+	public PageView<PersonView> getPersonShortListPage(@RequestParam(value = "cursor", defaultValue = "0") long cursor,
+													   @RequestParam(value = "size", required = false) Integer size,
+													   @RequestParam(value = "withTotal", defaultValue = "false") boolean withTotal) {
+		logger.info("getPersonShortListPage entered: cursor= " + cursor);
+		int pageSize = PageView.normalizeSize(size);
+		return PageView.of(personService.findListItemPageForTenant(cursor, pageSize), pageSize, PersonListItem::getId,
+				this::toView, withTotal ? personService.countForTenant() : null);
+	}
+
+	/**
+	 * The person's shrinked image, so lists can show avatars without embedding them.
+	 */
+	@RequestMapping(method = RequestMethod.GET, value = "/personAvatar/{id:[\\d]+}",
+			produces = {MediaType.IMAGE_JPEG_VALUE, MediaType.IMAGE_PNG_VALUE, MediaType.IMAGE_GIF_VALUE})
+	public void getPersonAvatar(HttpServletRequest request, HttpServletResponse response,
+								@PathVariable("id") long id) throws IOException {
+		PersonAvatar avatar = personService.findAvatar(id);
+		if (avatar == null) {
+			response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+		FileResponseUtil.sendBytes(request, response, avatar.getImage(), BlobStore.hash(avatar.getImage()),
+				FileResponseUtil.getContentType(avatar.getImageSuffix()), FileResponseUtil.CACHE_REVALIDATE);
+	}
+
 	@PostMapping(value = "/savePersonWithOutImage", consumes = "multipart/form-data")
 	@ResponseBody
 	public PersonView savePersonWithOutImage(@RequestPart("person") PersonView personView) {
     	
     	logger.info("savePerson entered...");
     	Person person = personService.savePerson(personView);
-		return new PersonView(person);
+		return toView(person);
 	}
 
 	@PostMapping(value = "/savePersonWithImage", consumes = "multipart/form-data")
@@ -72,7 +142,7 @@ public class PersonController {
 		Person person = personService.savePerson(personView, img,
 			ImageUtil.getImageFileSuffixTypeByContentType(picture.getContentType()));
 
-		return new PersonView(person);
+		return toView(person);
 	}
 
 	@RequestMapping(method = RequestMethod.DELETE, value = "/deletePerson/{id:[\\d]+}", produces = MediaType.APPLICATION_JSON_VALUE)
@@ -91,20 +161,41 @@ public class PersonController {
 	@ResponseBody
 	public PersonView getPerson(@PathVariable("id") long id) throws IOException {
 		Person person = personService.findOne(id);
-		PersonView personView = new PersonView(person);
+		PersonView personView = toView(person);
 		personView.setOriginalImage(loadOriginalPersonImage(person));
 		return personView;
 	}
 
+	@RequestMapping(method = RequestMethod.GET, value = "/downloadPersonPicture/{id:[\\d]+}",
+			produces = {MediaType.IMAGE_JPEG_VALUE, MediaType.IMAGE_PNG_VALUE, MediaType.IMAGE_GIF_VALUE})
+	public void downloadPersonPicture(HttpServletRequest request, HttpServletResponse response,
+									  @PathVariable("id") long id) throws IOException {
+		Person person = personService.findOneForTenant(id);
+		ImageFile picture = person == null ? null : personService.findOriginalPicture(person);
+		if (picture == null) {
+			response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+		if (picture.getHash() != null) {
+			FileResponseUtil.redirectToImage(request, response, picture.getHash());
+			return;
+		}
+		FileResponseUtil.sendPicture(request, response, picture, FileResponseUtil.CACHE_REVALIDATE, true);
+	}
+
 	//@RequestMapping(method = RequestMethod.GET, value = "/findByNameAndFamilyAndPhone/{searchStr}", produces = MediaType.APPLICATION_JSON_VALUE)
     @RequestMapping(value="/findByNameAndFamilyAndPhone/{searchStr}")
     @ResponseBody
-	public List<PersonView> findByNameFamilyPhone(@PathVariable("searchStr") String searchStr) throws IOException {
-        List<Person> persons = null;
+	public List<PersonView> findByNameFamilyPhone(@PathVariable("searchStr") String searchStr,
+												  @RequestParam(value = "limit", defaultValue = "" + Integer.MAX_VALUE) int limit) throws IOException {
+		if (limit < 0) {
+			throw new InvalidRequestException("تعداد نتایج نمی تواند منفی باشد");
+		}
+        List<PersonListItem> persons = null;
         if (searchStr == null || searchStr.length() == 0 || "EMPTY".equals(searchStr)) {
-	        persons = personService.findAllForTenant();
+	        persons = personService.findListItemsForTenant();
         }else {
-            persons = personService.findByNameAndFamiliyAndPhone(searchStr);
+            persons = personService.searchListItems(searchStr, limit);
         }
 
 		List<PersonView> resultList = new ArrayList<>();
@@ -112,16 +203,30 @@ public class PersonController {
 		    return resultList;
         }
         persons.stream().forEach(person -> {
-            PersonView personView = new PersonView(person);
+            PersonView personView = toView(person);
             resultList.add(personView);
         });
 		return resultList;
 	}
 
+	private PersonView toView(Person person) {
+		PersonView personView = new PersonView(person);
+		personView.setThumbnailStatus(imagePipelineService.getPersonThumbnailStatus(person.getId()));
+		return personView;
+	}
+
+	private PersonView toView(PersonListItem person) {
+		PersonView personView = new PersonView(person);
+		personView.setThumbnailStatus(imagePipelineService.getPersonThumbnailStatus(person.getId()));
+		return personView;
+	}
+
 	private String loadOriginalPersonImage(Person p) throws IOException {
-		String confFolder = tenantConfigurationService.getProjectConfigFolder();
-	    return ImageUtil.loadImageInEncodedString(confFolder, p.getMobileNumber(),
-                PersonService.PERSON_MAIN_PICTURE + "." + p.getImageSuffix());
+		ImageFile picture = personService.findOriginalPicture(p);
+		if (picture == null) {
+			return "";
+		}
+		return ImageUtil.encodeImage(Files.readAllBytes(picture.getFile().toPath()));
 	}
 
 	// Convert a predefined exception to an HTTP Status code
@@ -1,14 +1,30 @@
 package com.caa.controller;
 
+import com.caa.constants.Metric;
 import com.caa.model.Program;
 import com.caa.modelview.ImageView;
+import com.caa.modelview.MeasurementSeriesView;
+import com.caa.modelview.MetricStatsView;
+import com.caa.modelview.PageView;
 import com.caa.modelview.ProgramView;
+import com.caa.modelview.RenderJobView;
+import com.caa.modelview.TenantMetricStatsView;
+import com.caa.report.ProgramReportRequest;
+import com.caa.report.ReportFormat;
 import com.caa.services.ExerciseService;
+import com.caa.services.ImageStoreService;
+import com.caa.services.MeasurementSeriesCache;
 import com.caa.services.ProgramExerciseItemService;
+import com.caa.services.ProgramExportService;
 import com.caa.services.ProgramService;
+import com.caa.services.ProgressAnalyticsService;
+import com.caa.services.ReportRenderingService;
 import com.caa.services.TenantConfigurationService;
+import com.caa.services.security.impl.CustomUserDetailsService;
+import com.caa.util.AdminAccess;
+import com.caa.util.FileResponseUtil;
+import com.caa.util.ImageFile;
 import com.caa.util.ImageUtil;
-import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -18,12 +34,16 @@ import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.util.StreamUtils;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.context.request.async.WebAsyncTask;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 @CrossOrigin(origins = "*")
 @RestController
@@ -44,6 +64,21 @@ public class ProgramController {
 	@Autowired
 	TenantConfigurationService tenantConfigurationService;
 
+	@Autowired
+	ReportRenderingService reportRenderingService;
+
+	@Autowired
+	ProgramExportService programExportService;
+
+	@Autowired
+	ImageStoreService imageStoreService;
+
+	@Autowired
+	MeasurementSeriesCache measurementSeriesCache;
+
+	@Autowired
+	ProgressAnalyticsService progressAnalyticsService;
+
     @RequestMapping(method = RequestMethod.GET, value = "/getProgram/{id:[\\d]+}", produces = MediaType.APPLICATION_JSON_VALUE)
     @ResponseBody
     public Program getProgram(@PathVariable("id") long id) {
@@ -56,6 +91,18 @@ public class ProgramController {
 		return programService.getPersonsPrograms(personId);
 	}
 
+	/**
+	 * Paged alternative of getPrograms: the person's programs in id order after the given cursor.
+	 */
+	@RequestMapping(value="/getProgramsPage/{personId}", method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
+	@ResponseBody
+	public PageView<ProgramView> getPersonsProgramsPage(@PathVariable("personId") long personId,
+														@RequestParam(value = "cursor", defaultValue = "0") long cursor,
+														@RequestParam(value = "size", required = false) Integer size,
+														@RequestParam(value = "withTotal", defaultValue = "false") boolean withTotal) {
+		return programService.getPersonsProgramsPage(personId, cursor, PageView.normalizeSize(size), withTotal);
+	}
+
 	@RequestMapping(value="/saveProgram", method = RequestMethod.POST, produces = MediaType.APPLICATION_JSON_VALUE)
 	@ResponseBody
 	public ProgramView saveProgram(@RequestBody ProgramView programView) {
@@ -71,34 +118,151 @@ public class ProgramController {
 
 	@RequestMapping(method = RequestMethod.GET, value = "/getProgramExerciseImage/{id:[\\d]+}", produces = MediaType.APPLICATION_JSON_VALUE)
 	@ResponseBody
-	public ImageView getProgramexerciseImage(@PathVariable("id") long id) {
-		return programService.getProgramexerciseImage(id);
+	public ImageView getProgramexerciseImage(@PathVariable("id") long id, HttpServletResponse response,
+											 WebRequest webRequest) {
+		// the same URL also serves the raw JPEG, see getProgramExerciseImageBinary
+		response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+		if (id <= 0) {
+			return programService.getProgramexerciseImage(id);
+		}
+		ProgramReportRequest reportRequest = programService.prepareProgramReport(id, ReportFormat.JPEG);
+		if (webRequest.checkNotModified(reportRequest.getETag("json"))) {
+			return null;
+		}
+		ImageView imageView = new ImageView();
+		imageView.setContent(ImageUtil.encodeImage(reportRenderingService.render(reportRequest)));
+		return imageView;
+	}
+
+	/**
+	 * Binary alternative of getProgramExerciseImage for clients that accept image/jpeg,
+	 * so the image is not Base64 encoded into a JSON string.
+	 */
+	@RequestMapping(method = RequestMethod.GET, value = "/getProgramExerciseImage/{id:[\\d]+}", produces = MediaType.IMAGE_JPEG_VALUE)
+	public void getProgramExerciseImageBinary(HttpServletResponse response, WebRequest webRequest,
+											  @PathVariable("id") long id) throws IOException {
+		response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+		if (id <= 0) {
+			response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+			return;
+		}
+		writeReport(response, webRequest, programService.prepareProgramReport(id, ReportFormat.JPEG));
 	}
 
 	@RequestMapping(value = "/shareProgramImage/{id:[\\d]+}", method = RequestMethod.GET,
 			produces = MediaType.IMAGE_JPEG_VALUE)
-	public void getProgramExerciseListAsImage(HttpServletResponse response, @PathVariable("id") long id) throws IOException {
-		 byte[] bytes = programService.getProgramExerciseListAsImage(id);
-
-		response.setContentType(MediaType.IMAGE_JPEG_VALUE);
-		StreamUtils.copy(bytes, response.getOutputStream());
+	public void getProgramExerciseListAsImage(HttpServletResponse response, WebRequest webRequest,
+											  @PathVariable("id") long id) throws IOException {
+		writeReport(response, webRequest, programService.prepareProgramReport(id, ReportFormat.JPEG));
 	}
 
 	@RequestMapping(value = "/getProgramExercisePDF/{id:[\\d]+}", method = RequestMethod.GET,
 			produces = MediaType.APPLICATION_PDF_VALUE)
-	public ResponseEntity<byte[]>  getProgramExerciseListAsPDF(@PathVariable("id") long id) throws IOException {
-		 byte[] bytes = programService.getProgramExerciseListAsPDF(id);
+	public void getProgramExerciseListAsPDF(HttpServletResponse response, WebRequest webRequest,
+											@PathVariable("id") long id) throws IOException {
+		ProgramReportRequest reportRequest = programService.prepareProgramReport(id, ReportFormat.PDF);
 
-		HttpHeaders headers = new HttpHeaders();
-		headers.setContentType(MediaType.parseMediaType("application/pdf"));
 		// Here you have to set the actual filename of your pdf
 		String filename = "output.pdf";
-		headers.setContentDispositionFormData(filename, filename);
-		headers.setCacheControl("must-revalidate, post-check=0, pre-check=0");
-		ResponseEntity<byte[]> response = new ResponseEntity<>(bytes, headers, HttpStatus.OK);
-		return response;
+		response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"");
+		response.setHeader(HttpHeaders.CACHE_CONTROL, "must-revalidate, post-check=0, pre-check=0");
+		writeReport(response, webRequest, reportRequest);
     }
 
+	/**
+	 * Writes the rendered report to the servlet output stream, or answers 304 when the client already
+	 * has this content. The report is rendered into one byte array on the renderer pool, which is also
+	 * what the rendered report cache keeps, and written out in a single write with its length.
+	 */
+	private void writeReport(HttpServletResponse response, WebRequest webRequest,
+							 ProgramReportRequest reportRequest) throws IOException {
+		if (webRequest.checkNotModified(reportRequest.getETag())) {
+			return;
+		}
+		byte[] bytes = reportRenderingService.render(reportRequest);
+		if (bytes == null) {
+			response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+			return;
+		}
+		response.setContentType(reportRequest.getFormat().getContentType());
+		response.setContentLength(bytes.length);
+		response.getOutputStream().write(bytes);
+	}
+
+	@RequestMapping(value = "/renderProgramReport/{id:[\\d]+}/{format}", method = RequestMethod.POST,
+			produces = MediaType.APPLICATION_JSON_VALUE)
+	@ResponseBody
+	public RenderJobView renderProgramReport(@PathVariable("id") long id, @PathVariable("format") String format) {
+		ProgramReportRequest reportRequest = programService.prepareProgramReport(id, parseFormat(format));
+		return reportRenderingService.enqueue(reportRequest);
+	}
+
+	private static ReportFormat parseFormat(String format) {
+		for (ReportFormat reportFormat : ReportFormat.values()) {
+			if (reportFormat.name().equalsIgnoreCase(format)) {
+				return reportFormat;
+			}
+		}
+		throw new InvalidRequestException("قالب " + format + " پشتیبانی نمی شود");
+	}
+
+	@RequestMapping(value = "/getRenderJob/{jobId}", method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
+	public ResponseEntity<RenderJobView> getRenderJob(@PathVariable("jobId") String jobId) {
+		RenderJobView job = reportRenderingService.getJob(jobId);
+		if (job == null) {
+			return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+		}
+		return new ResponseEntity<>(job, HttpStatus.OK);
+	}
+
+	@RequestMapping(value = "/downloadRenderJob/{jobId}", method = RequestMethod.GET)
+	public ResponseEntity<byte[]> downloadRenderJob(@PathVariable("jobId") String jobId) {
+		RenderJobView job = reportRenderingService.getJob(jobId);
+		if (job == null) {
+			return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+		}
+		if (ReportRenderingService.STATUS_FAILED.equals(job.getStatus())) {
+			return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+		}
+		if (!ReportRenderingService.STATUS_DONE.equals(job.getStatus())) {
+			return new ResponseEntity<>(HttpStatus.ACCEPTED);
+		}
+		byte[] bytes = reportRenderingService.getJobResult(jobId);
+		if (bytes == null) {
+			return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+		}
+		HttpHeaders headers = new HttpHeaders();
+		headers.setContentType(MediaType.parseMediaType(reportRenderingService.getJobContentType(jobId)));
+		return new ResponseEntity<>(bytes, headers, HttpStatus.OK);
+	}
+
+	@RequestMapping(value = "/exportPersonPrograms/{personId:[\\d]+}", method = RequestMethod.GET, produces = "application/zip")
+	public WebAsyncTask<Void> exportPersonPrograms(HttpServletResponse response, @PathVariable("personId") long personId) {
+		logger.info("exportPersonPrograms entered: personId= " + personId);
+		setZipHeaders(response, "programs-" + personId + ".zip");
+		return programExportService.exportPersonPrograms(personId, response);
+	}
+
+	@RequestMapping(value = "/exportTenantPrograms", method = RequestMethod.GET, produces = "application/zip")
+	public WebAsyncTask<Void> exportTenantPrograms(HttpServletResponse response) {
+		logger.info("exportTenantPrograms entered...");
+		setZipHeaders(response, "programs.zip");
+		return programExportService.exportTenantPrograms(response);
+	}
+
+	private void setZipHeaders(HttpServletResponse response, String filename) {
+		response.setContentType("application/zip");
+		response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"");
+	}
+
+	// the export queue is full
+	@ResponseStatus(value = HttpStatus.SERVICE_UNAVAILABLE,
+			reason = "Too many exports in progress")
+	@ExceptionHandler(RejectedExecutionException.class)
+	public void exportRejected() {
+		// Nothing to do
+	}
+
 //	@RequestMapping(value = "/getProgramExercisePDF/{id:[\\d]+}", method = RequestMethod.GET,
 //			produces = MediaType.APPLICATION_PDF_VALUE)
 //	public void getProgramExerciseListAsPDF(HttpServletResponse response, @PathVariable("id") long id) throws IOException {
@@ -115,6 +279,54 @@ public class ProgramController {
 		return programService.getPersonAllSizes(id);
 	}
 
+	/**
+	 * The person's measurements over time as one number array per metric, dated in epoch days.
+	 * @param metrics comma separated metric keys, such as weight,fatPercentage; all metrics when empty
+	 * @param maxPoints longer histories are averaged down to at most this many points; 0 for all points
+	 */
+	@RequestMapping(method = RequestMethod.GET, value = "/getPersonMeasurements/{id:[\\d]+}", produces = MediaType.APPLICATION_JSON_VALUE)
+	@ResponseBody
+	public MeasurementSeriesView getPersonMeasurements(@PathVariable("id") long id,
+													   @RequestParam(value = "metrics", defaultValue = "") String metrics,
+													   @RequestParam(value = "maxPoints", defaultValue = "0") int maxPoints) {
+		return programService.getPersonMeasurements(id, Metric.parseList(metrics), maxPoints);
+	}
+
+	/**
+	 * First, last, lowest and highest value of each measurement the person has, read from the stored stats.
+	 */
+	@RequestMapping(method = RequestMethod.GET, value = "/getPersonProgress/{id:[\\d]+}", produces = MediaType.APPLICATION_JSON_VALUE)
+	@ResponseBody
+	public List<MetricStatsView> getPersonProgress(@PathVariable("id") long id) {
+		return progressAnalyticsService.getPersonProgress(CustomUserDetailsService.getCurrentUserTenant(), id);
+	}
+
+	@RequestMapping(method = RequestMethod.GET, value = "/getTenantProgress", produces = MediaType.APPLICATION_JSON_VALUE)
+	@ResponseBody
+	public List<TenantMetricStatsView> getTenantProgress() {
+		return progressAnalyticsService.getTenantProgress(CustomUserDetailsService.getCurrentUserTenant());
+	}
+
+	/**
+	 * Recomputes the tenant's progress stats from all of its programs, for data saved before the stats existed.
+	 */
+	@RequestMapping(method = RequestMethod.POST, value = "/rebuildProgressAnalytics", produces = MediaType.APPLICATION_JSON_VALUE)
+	@ResponseBody
+	public void rebuildProgressAnalytics() {
+		AdminAccess.checkAdmin();
+		String tenant = CustomUserDetailsService.getCurrentUserTenant();
+		logger.info("rebuildProgressAnalytics entered: tenant= " + tenant);
+		progressAnalyticsService.rebuildTenant(tenant);
+	}
+
+	@RequestMapping(value="/getMeasurementCacheStats", method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
+	@ResponseBody
+	public Map<String, Long> getMeasurementCacheStats() {
+		// counts over every tenant's series
+		AdminAccess.checkAdmin();
+		return measurementSeriesCache.getStats();
+	}
+
 
 	@PostMapping(value = "/uploadProgramPictures/{personMobileNumber}/{programId}/{imageName}", consumes = "multipart/form-data")
 	public void uploadProgramPictures(@PathVariable("personMobileNumber") String personMobileNumber,
@@ -127,40 +339,44 @@ public class ProgramController {
 	}
 
 	@GetMapping(value = "/downloadProgramPicturesOriginal/{personMobileNumber}/{programId}/{imageNumber}")
-	public void downloadProgramPicturesOriginal(HttpServletResponse response, @PathVariable("personMobileNumber") String personMobileNumber,
+	public void downloadProgramPicturesOriginal(HttpServletRequest request, HttpServletResponse response,
+									  @PathVariable("personMobileNumber") String personMobileNumber,
 									  @PathVariable("programId") long programId,
 									@PathVariable("imageNumber") int imageNumber) throws IOException {
 
-		byte[] img = programService.loadProgramPictureOriginal( personMobileNumber, programId, imageNumber);
-
-		if (img.length == 0) {
-			String confFolder = tenantConfigurationService.getProjectConfigFolder();
-			img = ImageUtil.loadImageInbytes(confFolder,"dummy", "dummy-body.png");
-		}
-		InputStream in = new ByteArrayInputStream(img);
-
-		response.setContentType(MediaType.IMAGE_JPEG_VALUE);
-		//org.apache.commons.io
-		IOUtils.copy(in, response.getOutputStream());
-
+		sendPicture(request, response, programService.findProgramPictureOriginal(personMobileNumber, programId, imageNumber), true);
 	}
 
 	@GetMapping(value = "/downloadProgramPicturesShrinked/{personMobileNumber}/{programId}/{imageNumber}")
-	public void downloadProgramPicturesSmall(HttpServletResponse response, @PathVariable("personMobileNumber") String personMobileNumber,
+	public void downloadProgramPicturesSmall(HttpServletRequest request, HttpServletResponse response,
+									  @PathVariable("personMobileNumber") String personMobileNumber,
 									  @PathVariable("programId") long programId,
 									@PathVariable("imageNumber") int imageNumber) throws IOException {
 
-		byte[] img = programService.loadProgramPictureShrinked( personMobileNumber, programId, imageNumber);
+		sendPicture(request, response, programService.findProgramPictureShrinked(personMobileNumber, programId, imageNumber), false);
+	}
 
-		if (img.length == 0) {
-			String confFolder = tenantConfigurationService.getProjectConfigFolder();
-			img = ImageUtil.loadImageInbytes(confFolder,"dummy", "dummy-body.png");
+	/**
+	 * The picture behind these URLs changes when it is uploaded again. Stored pictures are redirected
+	 * to /images/{hash}, which is cacheable forever; legacy files are sent here and revalidated.
+	 */
+	private void sendPicture(HttpServletRequest request, HttpServletResponse response, ImageFile picture,
+							 boolean acceptRanges) throws IOException {
+		if (picture != null && picture.getHash() != null) {
+			FileResponseUtil.redirectToImage(request, response, picture.getHash());
+			return;
 		}
-		InputStream in = new ByteArrayInputStream(img);
-
-		response.setContentType(MediaType.IMAGE_JPEG_VALUE);
-		//org.apache.commons.io
-		IOUtils.copy(in, response.getOutputStream());
-
+		if (picture != null) {
+			FileResponseUtil.sendPicture(request, response, picture, FileResponseUtil.CACHE_REVALIDATE, acceptRanges);
+			return;
+		}
+		ImageStoreService.DefaultPicture defaultPicture =
+				imageStoreService.getDefaultPicture(tenantConfigurationService.getProjectConfigFolder());
+		if (defaultPicture == null) {
+			response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+		FileResponseUtil.sendBytes(request, response, defaultPicture.getBytes(), defaultPicture.getHash(),
+				MediaType.IMAGE_PNG_VALUE, FileResponseUtil.CACHE_REVALIDATE);
 	}
-}
\ No newline at end of file
+}
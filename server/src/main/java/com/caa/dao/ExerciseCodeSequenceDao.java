@@ -0,0 +1,34 @@
+package com.caa.dao;
+
+import com.caa.model.ExerciseCodeSequence;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.rest.core.annotation.RepositoryRestResource;
+import org.springframework.stereotype.Repository;
+
+import javax.persistence.LockModeType;
+import javax.transaction.Transactional;
+import java.util.List;
+
+@Repository
+@RepositoryRestResource(exported = false)
+@Transactional
+public interface ExerciseCodeSequenceDao extends JpaRepository<ExerciseCodeSequence, String> {
+
+    /**
+     * Reads the tenant's sequence row with SELECT ... FOR UPDATE, holding it until the transaction ends.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT e FROM ExerciseCodeSequence e WHERE e.tenantId=?1")
+    public List<ExerciseCodeSequence> queryForUpdate(String tenantId);
+
+    /**
+     * Creates the tenant's sequence row; fails with a duplicate key when it exists, where a save
+     * would merge into it.
+     */
+    @Modifying
+    @Query(value = "INSERT INTO exercise_code_sequence (tenant_id, next_code) VALUES (?1, ?2)", nativeQuery = true)
+    public int insert(String tenantId, long nextCode);
+}
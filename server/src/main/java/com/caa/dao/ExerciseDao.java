@@ -7,26 +7,39 @@ import org.springframework.data.rest.core.annotation.RepositoryRestResource;
 import org.springframework.stereotype.Repository;
 
 import javax.transaction.Transactional;
+import java.util.Collection;
 import java.util.List;
 
 @Repository
-@RepositoryRestResource
+// not exported as /exercises: writes must go through ExerciseService, which invalidates ExerciseCatalogCache
+@RepositoryRestResource(exported = false)
 @Transactional
 public interface ExerciseDao extends JpaRepository<Exercise, Long> {
 
     @Query("SELECT e FROM Exercise e WHERE tenantId=?1 AND (e.name like ?2)")
     public List<Exercise> queryByNameForTenant(String tenantId, String name);
 
-    @Query("SELECT e FROM Exercise e WHERE tenantId=?1 AND (e.code=?2)")
-    public List<Exercise> queryByCodeForTenant(String tenantId, String code);
+    @Query("SELECT count(e) FROM Exercise e WHERE tenantId=?1 AND (e.codeNumber=?2)")
+    public long countByCodeNumberForTenant(String tenantId, long codeNumber);
 
     @Query("SELECT e FROM Exercise e WHERE tenantId=?1 AND (e.latinName=?2)")
     public List<Exercise> queryByLatinNameForTenant(String tenantId, String latinName);
 
-    @Query("SELECT max(ex.code) FROM Exercise ex where tenantId=?1")
-    public String queryMaxCodeForTenant(String tenantId);
+    /**
+     * Every exercise of the tenant that one of a batch being saved could clash with: the ones with
+     * any of the names, code numbers or latin names, and the stored versions of the given ids.
+     */
+    @Query("SELECT e FROM Exercise e WHERE tenantId=?1 AND (e.name IN ?2 OR e.codeNumber IN ?3 OR e.latinName IN ?4 OR e.id IN ?5)")
+    public List<Exercise> queryConflictsForTenant(String tenantId, Collection<String> names, Collection<Long> codeNumbers,
+                                                  Collection<String> latinNames, Collection<Long> ids);
+
+    @Query("SELECT max(ex.codeNumber) FROM Exercise ex where tenantId=?1")
+    public Long queryMaxCodeNumberForTenant(String tenantId);
 
     @Query("SELECT e FROM Exercise e WHERE tenantId=?1")
     public List<Exercise> queryAllForTenant(String tenantId);
 
+    @Query("SELECT e FROM Exercise e WHERE tenantId=?1 AND e.id IN ?2")
+    public List<Exercise> queryByIdsForTenant(String tenantId, Collection<Long> ids);
+
 }
\ No newline at end of file
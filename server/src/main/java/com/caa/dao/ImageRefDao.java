@@ -0,0 +1,40 @@
+package com.caa.dao;
+
+import com.caa.model.ImageRef;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.rest.core.annotation.RepositoryRestResource;
+import org.springframework.stereotype.Repository;
+
+import javax.transaction.Transactional;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+@Repository
+@RepositoryRestResource(exported = false)
+@Transactional
+public interface ImageRefDao extends JpaRepository<ImageRef, Long> {
+
+    @Query("SELECT e FROM ImageRef e WHERE tenantId=?1 AND ownerType=?2 AND ownerId=?3 AND imageName=?4 AND variant=?5 ORDER BY e.id DESC")
+    public List<ImageRef> queryForOwner(String tenantId, String ownerType, long ownerId, String imageName, String variant);
+
+    /**
+     * Inserts the picture variant's row, or points the existing one at the new blob; concurrent uploads
+     * of the same variant meet on the unique ix_image_ref_owner instead of inserting a row each.
+     */
+    @Modifying
+    @Query(value = "INSERT INTO image_ref (tenant_id, owner_type, owner_id, image_name, variant, hash, image_suffix, size, created) " +
+            "VALUES (?1, ?2, ?3, ?4, ?5, ?6, ?7, ?8, ?9) " +
+            "ON DUPLICATE KEY UPDATE hash=VALUES(hash), image_suffix=VALUES(image_suffix), size=VALUES(size), created=VALUES(created)",
+            nativeQuery = true)
+    public int upsert(String tenantId, String ownerType, long ownerId, String imageName, String variant,
+                      String hash, String imageSuffix, long size, Date created);
+
+    @Query("SELECT e FROM ImageRef e WHERE tenantId=?1 AND ownerType=?2 AND ownerId IN ?3")
+    public List<ImageRef> queryForOwners(String tenantId, String ownerType, Collection<Long> ownerIds);
+
+    @Query("SELECT e FROM ImageRef e WHERE tenantId=?1 AND hash=?2")
+    public List<ImageRef> queryByHashForTenant(String tenantId, String hash);
+}
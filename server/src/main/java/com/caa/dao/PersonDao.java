@@ -1,26 +1,75 @@
 package com.caa.dao;
 
 import com.caa.model.Person;
+import com.caa.modelview.PersonAvatar;
+import com.caa.modelview.PersonListItem;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.rest.core.annotation.RepositoryRestResource;
 import org.springframework.stereotype.Repository;
 
 import javax.transaction.Transactional;
+import java.util.Collection;
 import java.util.List;
 
 @Repository
-@RepositoryRestResource
+// not exported as /persons: writes must go through PersonService, which keeps PersonSearchIndex in step
+@RepositoryRestResource(exported = false)
 @Transactional
 public interface PersonDao extends JpaRepository<Person, Long> {
 
+    String LIST_ITEM = "SELECT new com.caa.modelview.PersonListItem(e.id, e.tenantId, e.firstName, e.lastName, e.fatherName, " +
+            "e.disability, e.mobileNumber, e.address, e.birthDate, e.imageSuffix) FROM Person e ";
+
     @Query("SELECT e FROM Person e WHERE tenantId=?1 AND (e.mobileNumber like %?2%)")
     public List<Person> queryByMobileNumberForTenant(String tenantId, String mobileNumber);
 
     @Query("SELECT e FROM Person e WHERE tenantId=?1")
     public List<Person> queryAllForTenant(String tenantId);
 
+    @Query("SELECT e FROM Person e WHERE tenantId=?1 AND e.id=?2")
+    public List<Person> queryByIdForTenant(String tenantId, long id);
+
+    /**
+     * @return {id, mobileNumber} of every person of the tenant
+     */
+    @Query("SELECT e.id, e.mobileNumber FROM Person e WHERE tenantId=?1")
+    public List<Object[]> queryIdAndMobileNumberForTenant(String tenantId);
+
+    @Query("SELECT e.mobileNumber FROM Person e WHERE tenantId=?1 AND e.mobileNumber IN ?2")
+    public List<String> queryMobileNumbersForTenant(String tenantId, Collection<String> mobileNumbers);
+
+    @Query("SELECT e FROM Person e WHERE tenantId=?1 AND e.id > ?2 ORDER BY e.id")
+    public List<Person> queryPageForTenant(String tenantId, long afterId, Pageable pageable);
+
+    @Query("SELECT count(e) FROM Person e WHERE tenantId=?1")
+    public long countForTenant(String tenantId);
+
     @Query("SELECT e FROM Person e WHERE tenantId=?1 AND (e.firstName LIKE %?2% OR e.lastName LIKE %?2% OR e.mobileNumber LIKE %?2%)")
     public List<Person> queryByNameAndFamiliyAndPhoneForTenant(String tenantId, String str);
 
+    @Query(LIST_ITEM + "WHERE tenantId=?1")
+    public List<PersonListItem> queryListItemsForTenant(String tenantId);
+
+    @Query(LIST_ITEM + "WHERE tenantId=?1 AND e.id > ?2 ORDER BY e.id")
+    public List<PersonListItem> queryListItemPageForTenant(String tenantId, long afterId, Pageable pageable);
+
+    @Query(LIST_ITEM + "WHERE tenantId=?1 AND e.id IN ?2")
+    public List<PersonListItem> queryListItemsByIdsForTenant(String tenantId, Collection<Long> ids);
+
+    @Query("SELECT new com.caa.modelview.PersonAvatar(e.shrinkedImage, e.imageSuffix) FROM Person e WHERE tenantId=?1 AND e.id=?2")
+    public List<PersonAvatar> queryAvatarForTenant(String tenantId, long id);
+
+    /**
+     * Locks the person's row until the transaction ends, without reading its blob.
+     */
+    @Query(value = "SELECT id FROM person WHERE id=?1 FOR UPDATE", nativeQuery = true)
+    public List<Object> lockById(long id);
+
+    @Modifying
+    @Query("UPDATE Person e SET e.shrinkedImage=?2 WHERE e.id=?1")
+    public int updateShrinkedImage(long id, byte[] shrinkedImage);
+
 }
\ No newline at end of file
@@ -0,0 +1,30 @@
+package com.caa.dao;
+
+import com.caa.model.PersonMetricStats;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.rest.core.annotation.RepositoryRestResource;
+import org.springframework.stereotype.Repository;
+
+import javax.transaction.Transactional;
+import java.util.List;
+
+@Repository
+@RepositoryRestResource(exported = false)
+@Transactional
+public interface PersonMetricStatsDao extends JpaRepository<PersonMetricStats, Long> {
+
+    @Query("SELECT e FROM PersonMetricStats e WHERE tenantId=?1 AND personId=?2")
+    public List<PersonMetricStats> queryForPerson(String tenantId, long personId);
+
+    /**
+     * @return {metric, person count, sum of first values, sum of last values} per metric of the tenant
+     */
+    @Query("SELECT e.metric, count(e), sum(e.firstValue), sum(e.lastValue) FROM PersonMetricStats e WHERE tenantId=?1 GROUP BY e.metric")
+    public List<Object[]> queryRollupForTenant(String tenantId);
+
+    @Query("SELECT DISTINCT e.personId FROM PersonMetricStats e WHERE tenantId=?1")
+    public List<Long> queryPersonIdsForTenant(String tenantId);
+
+    public Long deleteByTenantIdAndPersonId(String tenantId, long personId);
+}
@@ -1,16 +1,20 @@
 package com.caa.dao;
 
 import com.caa.model.Program;
+import com.caa.modelview.MeasurementRow;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.rest.core.annotation.RepositoryRestResource;
 import org.springframework.stereotype.Repository;
 
 import javax.transaction.Transactional;
+import java.util.Collection;
 import java.util.List;
 
 @Repository
-@RepositoryRestResource
+// not exported as /programs: writes must go through ProgramService, which keeps the caches and progress stats in step
+@RepositoryRestResource(exported = false)
 @Transactional
 public interface ProgramDao extends JpaRepository<Program, Long> {
 
@@ -19,4 +23,40 @@ public interface ProgramDao extends JpaRepository<Program, Long> {
 
     @Query("SELECT e FROM Program e WHERE tenantId=?1")
     public List<Program> queryAllForTenant(String tenantId);
+
+    /**
+     * @return {personId, programName, programDate} of every program of the tenant
+     */
+    @Query("SELECT e.personId, e.programName, e.programDate FROM Program e WHERE tenantId=?1")
+    public List<Object[]> queryKeysForTenant(String tenantId);
+
+    /**
+     * @return {personId, programName, programDate} of the programs of the given persons
+     */
+    @Query("SELECT e.personId, e.programName, e.programDate FROM Program e WHERE tenantId=?1 and personId IN ?2")
+    public List<Object[]> queryKeysByPersonIdsForTenant(String tenantId, Collection<Long> personIds);
+
+    @Query("SELECT e FROM Program e WHERE tenantId=?1 and personId=?2 and e.id > ?3 ORDER BY e.id")
+    public List<Program> queryPageByPersonIdForTenant(String tenantId, long personId, long afterId, Pageable pageable);
+
+    @Query("SELECT count(e) FROM Program e WHERE tenantId=?1 and personId=?2")
+    public long countByPersonIdForTenant(String tenantId, long personId);
+
+    @Query("SELECT new com.caa.modelview.MeasurementRow(e.id, e.programDate, e.personAge, e.personTall, e.personWeight, " +
+            "e.personChest, e.personWaist, e.personAbdomen, e.personArm, e.personForeArm, e.personThigh, e.personShin, " +
+            "e.personButt, e.personFatPercentage, e.personFatWeight, e.personMuscleWeight, e.personScore) " +
+            "FROM Program e WHERE tenantId=?1 and personId=?2 ORDER BY e.programDate, e.id")
+    public List<MeasurementRow> queryMeasurementsByPersonIdForTenant(String tenantId, long personId);
+
+    @Query("SELECT e.id FROM Program e WHERE tenantId=?1 and personId=?2 ORDER BY e.id")
+    public List<Long> queryIdsByPersonIdForTenant(String tenantId, long personId);
+
+    @Query("SELECT e.personId FROM Program e WHERE tenantId=?1 and e.id=?2")
+    public List<Long> queryPersonIdByIdForTenant(String tenantId, long id);
+
+    @Query("SELECT DISTINCT e.personId FROM Program e WHERE tenantId=?1")
+    public List<Long> queryPersonIdsForTenant(String tenantId);
+
+    @Query("SELECT e.id FROM Program e WHERE tenantId=?1 ORDER BY e.personId, e.id")
+    public List<Long> queryIdsForTenant(String tenantId);
 }
\ No newline at end of file
@@ -3,14 +3,17 @@ package com.caa.dao;
 import com.caa.model.Exercise;
 import com.caa.model.ProgramExerciseItem;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.rest.core.annotation.RepositoryRestResource;
 import org.springframework.stereotype.Repository;
 
 import javax.transaction.Transactional;
+import java.util.Collection;
 import java.util.List;
 
 @Repository
-@RepositoryRestResource
+// not exported as /programExerciseItems: writes must go through ProgramService, which keeps the caches and progress stats in step
+@RepositoryRestResource(exported = false)
 @Transactional
 public interface ProgramExerciseItemDao extends JpaRepository<ProgramExerciseItem, Long> {
 
@@ -19,4 +22,10 @@ public interface ProgramExerciseItemDao extends JpaRepository<ProgramExerciseIte
 
     public List<ProgramExerciseItem> findByProgramId(long id);
     public List<ProgramExerciseItem> findByExerciseId(long id);
+
+    /**
+     * Loads the items of several programs in one statement, used to avoid one query per program.
+     */
+    @Query("SELECT e FROM ProgramExerciseItem e WHERE e.programId IN ?1 ORDER BY e.programId, e.idpk")
+    public List<ProgramExerciseItem> queryByProgramIds(Collection<Long> programIds);
 }
\ No newline at end of file
@@ -0,0 +1,28 @@
+package com.caa.dao;
+
+import com.caa.model.TenantMetricStats;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.rest.core.annotation.RepositoryRestResource;
+import org.springframework.stereotype.Repository;
+
+import javax.persistence.LockModeType;
+import javax.transaction.Transactional;
+import java.util.List;
+
+@Repository
+@RepositoryRestResource(exported = false)
+@Transactional
+public interface TenantMetricStatsDao extends JpaRepository<TenantMetricStats, Long> {
+
+    @Query("SELECT e FROM TenantMetricStats e WHERE tenantId=?1")
+    public List<TenantMetricStats> queryForTenant(String tenantId);
+
+    /**
+     * Reads the tenant's rows with SELECT ... FOR UPDATE, holding them until the transaction ends.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT e FROM TenantMetricStats e WHERE tenantId=?1")
+    public List<TenantMetricStats> lockForTenant(String tenantId);
+}
@@ -8,7 +8,10 @@ import javax.persistence.*;
 @Data
 @EntityScan
 @Entity
-@Table(name = "exercise")
+@Table(name = "exercise", indexes = {
+		@Index(name = "ix_exercise_tenant_code_number", columnList = "tenant_id,code_number", unique = true),
+		@Index(name = "ix_exercise_tenant_name", columnList = "tenant_id,name"),
+		@Index(name = "ix_exercise_tenant_latin_name", columnList = "tenant_id,latin_name")})
 public class Exercise {
 
 	@Id
@@ -28,6 +31,10 @@ public class Exercise {
 	@Column(name = "code", unique = false, updatable = true, insertable = true, nullable = false)
 	private String code;
 
+	// code as a number, indexed with tenant_id; null for codes saved before codes had to be numeric
+	@Column(name = "code_number", unique = false, updatable = true, insertable = true, nullable = true)
+	private Long codeNumber;
+
 	@Column(name = "involved_muscel", unique = false, updatable = true, insertable = true, nullable = false)
 	private String involvedMuscel;
 
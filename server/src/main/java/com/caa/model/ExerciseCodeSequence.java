@@ -0,0 +1,23 @@
+package com.caa.model;
+
+import lombok.Data;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+
+import javax.persistence.*;
+
+/**
+ * The next exercise code not yet handed out to any server, one row per tenant.
+ */
+@Data
+@EntityScan
+@Entity
+@Table(name = "exercise_code_sequence")
+public class ExerciseCodeSequence {
+
+    @Id
+    @Column(name = "tenant_id", unique = true, updatable = false, nullable = false)
+    private String tenantId;
+
+    @Column(name = "next_code", unique = false, updatable = true, insertable = true, nullable = false)
+    private long nextCode;
+}
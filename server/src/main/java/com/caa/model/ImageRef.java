@@ -0,0 +1,56 @@
+package com.caa.model;
+
+import lombok.Data;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+
+import javax.persistence.*;
+import java.util.Date;
+
+/**
+ * Links a person or program picture variant to the content-addressed blob that holds its bytes.
+ */
+@Data
+@EntityScan
+@Entity
+@Table(name = "image_ref", indexes = {
+        @Index(name = "ix_image_ref_owner", columnList = "tenant_id,owner_type,owner_id,image_name,variant", unique = true),
+        @Index(name = "ix_image_ref_hash", columnList = "hash")})
+public class ImageRef {
+
+    public static final String OWNER_PERSON = "PERSON";
+    public static final String OWNER_PROGRAM = "PROGRAM";
+
+    public static final String VARIANT_ORIGINAL = "original";
+
+    @Id
+    @Column(name = "id", unique = true, updatable = false, nullable = false)
+    @GeneratedValue
+    private long id;
+
+    @Column(name = "tenant_id", unique = false, updatable = true, insertable = true, nullable = false)
+    private String tenantId;
+
+    @Column(name = "owner_type", unique = false, updatable = false, insertable = true, nullable = false)
+    private String ownerType;
+
+    @Column(name = "owner_id", unique = false, updatable = false, insertable = true, nullable = false)
+    private long ownerId;
+
+    @Column(name = "image_name", unique = false, updatable = false, insertable = true, nullable = false)
+    private String imageName;
+
+    @Column(name = "variant", unique = false, updatable = false, insertable = true, nullable = false)
+    private String variant;
+
+    @Column(name = "hash", unique = false, updatable = true, insertable = true, nullable = false)
+    private String hash;
+
+    @Column(name = "image_suffix", unique = false, updatable = true, insertable = true, nullable = false)
+    private String imageSuffix;
+
+    @Column(name = "size", unique = false, updatable = true, insertable = true, nullable = false)
+    private long size;
+
+    @Column(name = "created", unique = false, updatable = true, insertable = true, nullable = false)
+    private Date created;
+}
@@ -1,5 +1,6 @@
 package com.caa.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import lombok.Data;
 import org.springframework.boot.autoconfigure.domain.EntityScan;
 
@@ -10,7 +11,9 @@ import java.util.Date;
 @Data
 @EntityScan
 @Entity
-@Table(name = "person")
+@Table(name = "person", indexes = {
+		@Index(name = "ix_person_tenant_mobile_number", columnList = "tenant_id,mobile_number")})
+@JsonIgnoreProperties({"hibernateLazyInitializer", "handler"})
 public class Person {
 
 	@Id
@@ -45,8 +48,9 @@ public class Person {
 	private Date birthDate;
 
 
+	// written only by PersonDao.updateShrinkedImage, so saving a person never overwrites a newer avatar
 	@Lob
-	@Column(name = "shrinked_image", unique = false, updatable = true, insertable = true, nullable = true)
+	@Column(name = "shrinked_image", unique = false, updatable = false, insertable = true, nullable = true)
 	private byte[] shrinkedImage;
 
 	@Column(name = "image_suffix", unique = false, updatable = true, insertable = true, nullable = true)
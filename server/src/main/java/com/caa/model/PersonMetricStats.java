@@ -0,0 +1,56 @@
+package com.caa.model;
+
+import lombok.Data;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+
+import javax.persistence.*;
+import java.util.Date;
+
+/**
+ * Summary of one measurement over all of a person's programs, kept up to date by
+ * {@link com.caa.services.ProgressAnalyticsService} as programs are saved and deleted.
+ * Programs where the measurement is 0 (not taken) are left out.
+ */
+@Data
+@EntityScan
+@Entity
+@Table(name = "person_metric_stats", indexes = {
+        @Index(name = "ix_person_metric_stats_person", columnList = "tenant_id,person_id,metric", unique = true)})
+public class PersonMetricStats {
+
+    @Id
+    @Column(name = "id", unique = true, updatable = false, nullable = false)
+    @GeneratedValue
+    private long id;
+
+    @Column(name = "tenant_id", unique = false, updatable = false, insertable = true, nullable = false)
+    private String tenantId;
+
+    @Column(name = "person_id", unique = false, updatable = false, insertable = true, nullable = false)
+    private long personId;
+
+    // key of a com.caa.constants.Metric
+    @Column(name = "metric", unique = false, updatable = false, insertable = true, nullable = false)
+    private String metric;
+
+    @Column(name = "program_count", unique = false, updatable = true, insertable = true, nullable = false)
+    private int programCount;
+
+    @Column(name = "first_date", unique = false, updatable = true, insertable = true, nullable = false)
+    private Date firstDate;
+
+    @Column(name = "first_value", unique = false, updatable = true, insertable = true, nullable = false)
+    private double firstValue;
+
+    @Column(name = "last_date", unique = false, updatable = true, insertable = true, nullable = false)
+    private Date lastDate;
+
+    @Column(name = "last_value", unique = false, updatable = true, insertable = true, nullable = false)
+    private double lastValue;
+
+    @Column(name = "min_value", unique = false, updatable = true, insertable = true, nullable = false)
+    private double minValue;
+
+    @Column(name = "max_value", unique = false, updatable = true, insertable = true, nullable = false)
+    private double maxValue;
+}
@@ -1,6 +1,8 @@
 package com.caa.model;
 
 import lombok.Data;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
 import org.springframework.boot.autoconfigure.domain.EntityScan;
 
 import javax.persistence.*;
@@ -17,13 +19,24 @@ import java.util.List;
 public class Program {
     @Id
     @Column(name = "id", unique = true, updatable = false, nullable = false)
-    @GeneratedValue
+    // pooled like ProgramExerciseItem.idpk, so the programs of a bulk import are inserted in batches
+    @GenericGenerator(name = "program_id", strategy = "org.hibernate.id.enhanced.TableGenerator",
+            parameters = {
+                    @Parameter(name = "table_name", value = "id_generator"),
+                    @Parameter(name = "segment_column_name", value = "name"),
+                    @Parameter(name = "value_column_name", value = "next_val"),
+                    @Parameter(name = "segment_value", value = "program"),
+                    @Parameter(name = "increment_size", value = "50"),
+                    @Parameter(name = "optimizer", value = "pooled")
+            })
+    @GeneratedValue(generator = "program_id")
     private long id;
 
     @Column(name = "tenant_id", unique = true, updatable = true, insertable = true, nullable = false)
     private String tenantId;
 
-    @OneToOne()
+    // lazy, so loading programs does not drag in each person's shrinked_image blob
+    @OneToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "person_id")
     private Person person;
 
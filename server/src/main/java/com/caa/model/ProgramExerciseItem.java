@@ -1,6 +1,8 @@
 package com.caa.model;
 
 import lombok.Data;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
 import org.springframework.boot.autoconfigure.domain.EntityScan;
 
 import javax.persistence.*;
@@ -15,7 +17,18 @@ import javax.persistence.*;
 public class ProgramExerciseItem {
     @Id
     @Column(name = "idpk", unique = true, updatable = false, nullable = false)
-    @GeneratedValue
+    // ids are taken from the id_generator table in blocks of 50 instead of from AUTO_INCREMENT,
+    // so inserts need no round trip for their key and can be sent as JDBC batches
+    @GenericGenerator(name = "program_exercise_item_idpk", strategy = "org.hibernate.id.enhanced.TableGenerator",
+            parameters = {
+                    @Parameter(name = "table_name", value = "id_generator"),
+                    @Parameter(name = "segment_column_name", value = "name"),
+                    @Parameter(name = "value_column_name", value = "next_val"),
+                    @Parameter(name = "segment_value", value = "program_exercise_item"),
+                    @Parameter(name = "increment_size", value = "50"),
+                    @Parameter(name = "optimizer", value = "pooled")
+            })
+    @GeneratedValue(generator = "program_exercise_item_idpk")
     private long idpk;
 
     @Column(name = "id", unique = false, updatable = true, nullable = false)
@@ -0,0 +1,39 @@
+package com.caa.model;
+
+import lombok.Data;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+
+import javax.persistence.*;
+
+/**
+ * Sums of the first and last value of one measurement over every person of a tenant that has it,
+ * adjusted in place whenever one of those persons' {@link PersonMetricStats} changes.
+ */
+@Data
+@EntityScan
+@Entity
+@Table(name = "tenant_metric_stats", indexes = {
+        @Index(name = "ix_tenant_metric_stats_tenant", columnList = "tenant_id,metric", unique = true)})
+public class TenantMetricStats {
+
+    @Id
+    @Column(name = "id", unique = true, updatable = false, nullable = false)
+    @GeneratedValue
+    private long id;
+
+    @Column(name = "tenant_id", unique = false, updatable = false, insertable = true, nullable = false)
+    private String tenantId;
+
+    // key of a com.caa.constants.Metric
+    @Column(name = "metric", unique = false, updatable = false, insertable = true, nullable = false)
+    private String metric;
+
+    @Column(name = "person_count", unique = false, updatable = true, insertable = true, nullable = false)
+    private long personCount;
+
+    @Column(name = "sum_first_value", unique = false, updatable = true, insertable = true, nullable = false)
+    private double sumFirstValue;
+
+    @Column(name = "sum_last_value", unique = false, updatable = true, insertable = true, nullable = false)
+    private double sumLastValue;
+}
@@ -0,0 +1,26 @@
+package com.caa.modelview;
+
+import com.caa.model.Exercise;
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Outcome of one exercise of a batch save: the saved exercise, or why it was not saved.
+ */
+@Data
+public class ExerciseSaveResult {
+    // position of the exercise in the submitted batch
+    private int index;
+    private Exercise exercise;
+    private List<String> errors = new ArrayList<>();
+
+    public ExerciseSaveResult() {
+    }
+
+    public ExerciseSaveResult(int index, Exercise exercise) {
+        this.index = index;
+        this.exercise = exercise;
+    }
+}
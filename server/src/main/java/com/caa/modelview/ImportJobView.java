@@ -0,0 +1,26 @@
+package com.caa.modelview;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * Progress of an asynchronous bulk import.
+ */
+@Data
+public class ImportJobView {
+    private String jobId;
+    private String kind;
+    private String status;
+    private long fileSize;
+    private long bytesRead;
+    private long rowsRead;
+    // persons, exercises or programs written; a program spans several rows
+    private long imported;
+    private long rowsFailed;
+    private long elapsedMillis;
+    private long rowsPerSecond;
+    // the first rows that failed, up to import.max-errors
+    private List<ImportRowError> errors;
+    private String error;
+}
@@ -0,0 +1,20 @@
+package com.caa.modelview;
+
+import lombok.Data;
+
+/**
+ * A row of an import file that was not imported, numbered from 1 after the CSV header.
+ */
+@Data
+public class ImportRowError {
+    private long row;
+    private String message;
+
+    public ImportRowError() {
+    }
+
+    public ImportRowError(long row, String message) {
+        this.row = row;
+        this.message = message;
+    }
+}
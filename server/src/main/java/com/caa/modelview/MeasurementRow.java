@@ -0,0 +1,54 @@
+package com.caa.modelview;
+
+import lombok.Data;
+
+import java.util.Date;
+
+/**
+ * The body measurements recorded with one program, selected with a constructor expression instead
+ * of loading the whole program.
+ */
+@Data
+public class MeasurementRow {
+
+    public MeasurementRow(long programId, Date programDate, int personAge, int personTall, double personWeight,
+                          int personChest, int personWaist, int personAbdomen, int personArm, int personForeArm,
+                          int personThigh, int personShin, int personButt, double personFatPercentage,
+                          double personFatWeight, double personMuscleWeight, double personScore) {
+        this.programId = programId;
+        this.programDate = programDate;
+        this.personAge = personAge;
+        this.personTall = personTall;
+        this.personWeight = personWeight;
+        this.personChest = personChest;
+        this.personWaist = personWaist;
+        this.personAbdomen = personAbdomen;
+        this.personArm = personArm;
+        this.personForeArm = personForeArm;
+        this.personThigh = personThigh;
+        this.personShin = personShin;
+        this.personButt = personButt;
+        this.personFatPercentage = personFatPercentage;
+        this.personFatWeight = personFatWeight;
+        this.personMuscleWeight = personMuscleWeight;
+        this.personScore = personScore;
+    }
+
+    private long programId;
+    private Date programDate;
+    private int personAge;
+    private int personTall;
+    private double personWeight;
+    private int personChest;
+    private int personWaist;
+    private int personAbdomen;
+    private int personArm;
+    private int personForeArm;
+    private int personThigh;
+    private int personShin;
+    private int personButt;
+    private double personFatPercentage;
+    private double personFatWeight;
+    private double personMuscleWeight;
+    private double personScore;
+}
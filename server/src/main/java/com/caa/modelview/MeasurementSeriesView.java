@@ -0,0 +1,23 @@
+package com.caa.modelview;
+
+import lombok.Data;
+
+import java.util.Map;
+
+/**
+ * A person's body measurements over time, one array per metric, all aligned with epochDays.
+ */
+@Data
+public class MeasurementSeriesView {
+    private long personId;
+    // number of programs the series was built from, before any downsampling
+    private int programCount;
+    // days since 1970-01-01 of each point, ascending
+    private long[] epochDays;
+    // program of each point; null when points were averaged by downsampling
+    private long[] programIds;
+    // values by metric key, such as "weight"
+    private Map<String, double[]> metrics;
+    // display name by metric key
+    private Map<String, String> labels;
+}
@@ -0,0 +1,21 @@
+package com.caa.modelview;
+
+import lombok.Data;
+
+/**
+ * One measurement of a person from the first to the last program it was taken in; dates are epoch days.
+ */
+@Data
+public class MetricStatsView {
+    private String key;
+    private String label;
+    private int programCount;
+    private long firstEpochDay;
+    private double firstValue;
+    private long lastEpochDay;
+    private double lastValue;
+    private double minValue;
+    private double maxValue;
+    // lastValue - firstValue
+    private double change;
+}
@@ -0,0 +1,51 @@
+package com.caa.modelview;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * One page of a list ordered by id. Pass nextCursor back as the cursor to get the following page;
+ * it is null on the last page. total is only filled when the caller asks for it.
+ */
+@Data
+public class PageView<T> {
+
+    public static final int DEFAULT_SIZE = 50;
+    public static final int MAX_SIZE = 500;
+
+    private List<T> items = new ArrayList<>();
+    private Long nextCursor;
+    private Long total;
+
+    /**
+     * Builds a page from rows fetched with one row more than the page size, which tells whether
+     * another page follows.
+     */
+    public static <E, T> PageView<T> of(List<E> rows, int size, ToLongFunction<E> idOf,
+                                        Function<E, T> toItem, Long total) {
+        PageView<T> page = new PageView<>();
+        List<E> pageRows = rows.size() > size ? rows.subList(0, size) : rows;
+        for (E row : pageRows) {
+            page.items.add(toItem.apply(row));
+        }
+        if (rows.size() > size) {
+            page.nextCursor = idOf.applyAsLong(pageRows.get(pageRows.size() - 1));
+        }
+        page.total = total;
+        return page;
+    }
+
+    /**
+     * @return the requested page size, defaulted when missing and capped at {@link #MAX_SIZE}
+     */
+    public static int normalizeSize(Integer size) {
+        if (size == null || size <= 0) {
+            return DEFAULT_SIZE;
+        }
+        return Math.min(size, MAX_SIZE);
+    }
+}
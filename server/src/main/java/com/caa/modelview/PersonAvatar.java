@@ -0,0 +1,18 @@
+package com.caa.modelview;
+
+import lombok.Data;
+
+/**
+ * The shrinked image of a person, selected on its own for /personAvatar/{id}.
+ */
+@Data
+public class PersonAvatar {
+
+    public PersonAvatar(byte[] image, String imageSuffix) {
+        this.image = image;
+        this.imageSuffix = imageSuffix;
+    }
+
+    private byte[] image;
+    private String imageSuffix;
+}
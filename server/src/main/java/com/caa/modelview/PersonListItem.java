@@ -0,0 +1,58 @@
+package com.caa.modelview;
+
+import com.caa.model.Person;
+import lombok.Data;
+
+import java.util.Date;
+
+/**
+ * Person columns needed by lists and reports, selected with a constructor expression so the
+ * shrinked_image blob is never read. The avatar is fetched separately from /personAvatar/{id}.
+ */
+@Data
+public class PersonListItem {
+
+    public PersonListItem(long id, String tenantId, String firstName, String lastName, String fatherName,
+                          String disability, String mobileNumber, String address, Date birthDate,
+                          String imageSuffix) {
+        this.id = id;
+        this.tenantId = tenantId;
+        this.firstName = firstName;
+        this.lastName = lastName;
+        this.fatherName = fatherName;
+        this.disability = disability;
+        this.mobileNumber = mobileNumber;
+        this.address = address;
+        this.birthDate = birthDate;
+        this.imageSuffix = imageSuffix;
+    }
+
+    private long id;
+    private String tenantId;
+    private String firstName;
+    private String lastName;
+    private String fatherName;
+    private String disability;
+    private String mobileNumber;
+    private String address;
+    private Date birthDate;
+    private String imageSuffix;
+
+    /**
+     * @return a detached person with these columns and no image
+     */
+    public Person toPerson() {
+        Person person = new Person();
+        person.setId(id);
+        person.setTenantId(tenantId);
+        person.setFirstName(firstName);
+        person.setLastName(lastName);
+        person.setFatherName(fatherName);
+        person.setDisability(disability);
+        person.setMobileNumber(mobileNumber);
+        person.setAddress(address);
+        person.setBirthDate(birthDate);
+        person.setImageSuffix(imageSuffix);
+        return person;
+    }
+}
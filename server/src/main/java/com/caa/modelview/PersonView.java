@@ -27,6 +27,32 @@ public class PersonView {
         this.setShrinkedImage(ImageUtil.encodeImage(p.getShrinkedImage()));
         this.setOriginalImage("");
         this.setImageSuffix(p.getImageSuffix());
+        this.setAvatarUrl(avatarUrl(p.getId(), p.getImageSuffix()));
+    }
+
+    /**
+     * List variant without the Base64 avatar; clients load it from avatarUrl instead.
+     */
+    public PersonView(PersonListItem p) {
+        this.setId(p.getId());
+        this.setTenantId(p.getTenantId());
+        this.setFirstName(p.getFirstName());
+        this.setLastName(p.getLastName());
+        this.setFatherName(p.getFatherName());
+        this.setDisability(p.getDisability());
+        this.setMobileNumber(p.getMobileNumber());
+        this.setAddress(p.getAddress());
+        this.setBirthDate(p.getBirthDate() == null ? "" :
+                DateUtil.getShamsiDate(p.getBirthDate() ));
+        this.setShrinkedImage("");
+        this.setOriginalImage("");
+        this.setImageSuffix(p.getImageSuffix());
+        this.setAvatarUrl(avatarUrl(p.getId(), p.getImageSuffix()));
+    }
+
+    // a person has an avatar once a picture was uploaded, which is when imageSuffix gets set
+    private static String avatarUrl(long id, String imageSuffix) {
+        return imageSuffix == null ? null : "/api/personAvatar/" + id;
     }
     private long id;
     private String tenantId;
@@ -40,4 +66,7 @@ public class PersonView {
     private String shrinkedImage;
     private String imageSuffix;
     private String originalImage;
+    private String avatarUrl;
+    // READY, or PENDING/FAILED while the avatar of a new picture is being built
+    private String thumbnailStatus = "READY";
 }
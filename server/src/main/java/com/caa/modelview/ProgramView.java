@@ -5,7 +5,9 @@ import com.caa.model.ProgramExerciseItem;
 import lombok.Data;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Created by Reza on 05/08/2018.
@@ -49,5 +51,9 @@ public class ProgramView extends Program {
     private List<ProgramExerciseItemView> programExercise4Items = new ArrayList<>();
     private List<ProgramExerciseItemView> programExercise5Items = new ArrayList<>();
     private List<ProgramExerciseItemView> programExercise6Items = new ArrayList<>();
+    // pictures whose thumbnails are still being built (PENDING) or could not be built (FAILED), by image name
+    private Map<String, String> pictureStatus = new HashMap<>();
+    // content hash of each stored picture variant by "imageName/variant", served by /api/images/{hash}
+    private Map<String, String> pictureHashes = new HashMap<>();
 
 }
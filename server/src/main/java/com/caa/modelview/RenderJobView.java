@@ -0,0 +1,15 @@
+package com.caa.modelview;
+
+import lombok.Data;
+
+/**
+ * State of an asynchronous program report render.
+ */
+@Data
+public class RenderJobView {
+    private String jobId;
+    private long programId;
+    private String format;
+    private String status;
+    private String error;
+}
@@ -0,0 +1,16 @@
+package com.caa.modelview;
+
+import lombok.Data;
+
+/**
+ * One measurement averaged over the persons of a tenant that have it.
+ */
+@Data
+public class TenantMetricStatsView {
+    private String key;
+    private String label;
+    private long personCount;
+    private double averageFirstValue;
+    private double averageLastValue;
+    private double averageChange;
+}
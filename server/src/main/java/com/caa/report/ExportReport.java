@@ -2,11 +2,12 @@ package com.caa.report;
 
 import com.caa.model.Person;
 import com.caa.model.Program;
+import com.caa.modelview.ProgramExerciseItemView;
 import com.caa.util.DateUtil;
 import com.caa.util.ImageUtil;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
 import net.sf.jasperreports.engine.*;
-import net.sf.jasperreports.engine.data.JRBeanCollectionDataSource;
-import net.sf.jasperreports.engine.util.JRLoader;
 
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
@@ -20,105 +21,109 @@ import java.util.Map;
  */
 public class ExportReport {
 
+    private static final JasperTemplateRegistry TEMPLATES = new JasperTemplateRegistry();
+
+    private static final String IMAGE_EXTENSION = "jpg";
+    private static final float IMAGE_ZOOM = 2f;
+
+    /**
+     * @see JasperTemplateRegistry#getResourceVersion
+     */
+    public static String getResourceVersion(String confFolder) {
+        return TEMPLATES.getResourceVersion(confFolder);
+    }
+
     /**
      *
      * @param exerciseItems
      * @return BASE64 encoded string
      */
     public static String getProgramExerciseAsImage(String confFolder, String coachName,
-            List<ProgramExercisesReportDTO> exerciseItems,
+            List<ProgramExerciseItemView> exerciseItems,
                                                    Program program, Person person) {
-        ByteArrayOutputStream out = getImageStream(confFolder, coachName, exerciseItems, program, person);
-        String imageString = ImageUtil.encodeImage(out);
-        return imageString;
+        return ImageUtil.encodeImage(getProgramExerciseAsImageInBytes(confFolder, coachName, exerciseItems, program, person));
     }
 
-    public static byte[] getProgramExerciseAsImageInBytes(String coachName, String tenantDesc,
-            List<ProgramExercisesReportDTO> exerciseItems,
-            Program program, Person person) {
-        ByteArrayOutputStream out = getImageStream(coachName,tenantDesc,  exerciseItems, program, person);
-        return out.toByteArray();
-    }
-
-    public static byte[] getProgramExerciseAsPDFInBytes(String confFolder,String coachName,
-            List<ProgramExercisesReportDTO> exerciseItems,
+    public static byte[] getProgramExerciseAsImageInBytes(String confFolder, String coachName,
+            List<ProgramExerciseItemView> exerciseItems,
             Program program, Person person) {
         try {
-            if (exerciseItems.size() == 0) {
-                return null;
+            ByteArrayOutputStream out = new ByteArrayOutputStream(256 * 1024);
+            if (writeProgramExerciseAsImage(confFolder, coachName, exerciseItems, program, person, out)) {
+                return out.toByteArray();
             }
-
-            JasperPrint jasperPrint = prepareJasperPrint(confFolder, coachName, exerciseItems, program, person);
-            if (jasperPrint.getPages().size() == 0) {
-                return null;
-            }
-
-            byte [] pdfBytes = JasperExportManager.exportReportToPdf(jasperPrint);
-            return pdfBytes;
         } catch (Exception e) {
             e.printStackTrace();
         }
         return null;
     }
 
-    private static ByteArrayOutputStream getImageStream(String confFolder, String coachName,
-            List<ProgramExercisesReportDTO> exerciseItems, Program program, Person person) {
+    public static byte[] getProgramExerciseAsPDFInBytes(String confFolder,String coachName,
+            List<ProgramExerciseItemView> exerciseItems,
+            Program program, Person person) {
         try {
-            if (exerciseItems.size() == 0) {
-                return null;
-            }
-
-            final String extension = "jpg";
-            final float zoom = 2f;
-
-            JasperPrint jasperPrint = prepareJasperPrint(confFolder, coachName, exerciseItems, program, person);
-            if (jasperPrint.getPages().size() == 0) {
-                return null;
-            }
-
-            try(ByteArrayOutputStream out = new ByteArrayOutputStream()){
-                BufferedImage image = (BufferedImage) JasperPrintManager.printPageToImage(jasperPrint, 0,zoom);
-                ImageIO.write(image, extension, out);
-
-                return out;
-            } catch (IOException e) {
-                e.printStackTrace();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
+            if (writeProgramExerciseAsPDF(confFolder, coachName, exerciseItems, program, person, out)) {
+                return out.toByteArray();
             }
-
         } catch (Exception e) {
             e.printStackTrace();
         }
         return null;
     }
 
-    private static JasperPrint prepareJasperPrint(String confFolder, String coachName,
-            List<ProgramExercisesReportDTO> exerciseItems, Program program, Person person) throws Exception{
-        /**
-         * Recognize sub-program count
-         */
-        int subProgramCount = 0;
-        if (exerciseItems.get(0).getProgram6Id() != null && exerciseItems.get(0).getProgram6Id()  >0) {
-            subProgramCount = 6;
-        }else if (exerciseItems.get(0).getProgram5Id() != null && exerciseItems.get(0).getProgram5Id()  >0) {
-            subProgramCount = 5;
-        }else if (exerciseItems.get(0).getProgram4Id() != null && exerciseItems.get(0).getProgram4Id()  >0) {
-            subProgramCount = 4;
-        }else if (exerciseItems.get(0).getProgram3Id() != null && exerciseItems.get(0).getProgram3Id()  >0) {
-            subProgramCount = 3;
-        }else if (exerciseItems.get(0).getProgram2Id() != null && exerciseItems.get(0).getProgram2Id()  >0) {
-            subProgramCount = 2;
-        }else {
-            subProgramCount = 1;
+    /**
+     * Exports the report as PDF straight into the given stream.
+     * @return false when there was nothing to render and nothing was written
+     */
+    public static boolean writeProgramExerciseAsPDF(String confFolder, String coachName,
+            List<ProgramExerciseItemView> exerciseItems,
+            Program program, Person person, OutputStream out) throws JRException {
+        ProgramReportDataSource dataSource = ProgramReportDataSource.fromItems(exerciseItems);
+        if (dataSource.getRowCount() == 0) {
+            return false;
         }
+        JasperPrint jasperPrint = prepareJasperPrint(confFolder, coachName, dataSource, program, person);
+        if (jasperPrint.getPages().size() == 0) {
+            return false;
+        }
+        Timer.Sample export = Timer.start(Metrics.globalRegistry);
+        try {
+            JasperExportManager.exportReportToPdfStream(jasperPrint, out);
+        } finally {
+            export.stop(Metrics.timer("report.export", "format", "pdf"));
+        }
+        return true;
+    }
 
-//        String confFolder = PublicUtil.getProjectConfigFolder();
-        String reportPath = confFolder + "/" + "report/PersonProgramExercises" + subProgramCount + "Session.jasper";
-
-//        InputStream inputStream = new FileInputStream(new java.io.File(reportPath));
-//        JasperDesign jasperDesign = JRXmlLoader.load(inputStream);
-//        JasperReport jasperReport = JasperCompileManager.compileReport(jasperDesign);
+    /**
+     * Exports the first page of the report as JPEG straight into the given stream.
+     * @return false when there was nothing to render and nothing was written
+     */
+    public static boolean writeProgramExerciseAsImage(String confFolder, String coachName,
+            List<ProgramExerciseItemView> exerciseItems,
+            Program program, Person person, OutputStream out) throws JRException, IOException {
+        ProgramReportDataSource dataSource = ProgramReportDataSource.fromItems(exerciseItems);
+        if (dataSource.getRowCount() == 0) {
+            return false;
+        }
+        JasperPrint jasperPrint = prepareJasperPrint(confFolder, coachName, dataSource, program, person);
+        if (jasperPrint.getPages().size() == 0) {
+            return false;
+        }
+        Timer.Sample export = Timer.start(Metrics.globalRegistry);
+        try {
+            BufferedImage image = (BufferedImage) JasperPrintManager.printPageToImage(jasperPrint, 0, IMAGE_ZOOM);
+            ImageIO.write(image, IMAGE_EXTENSION, out);
+        } finally {
+            export.stop(Metrics.timer("report.export", "format", "jpeg"));
+        }
+        return true;
+    }
 
-        JasperReport jasperReport  = (JasperReport) JRLoader.loadObject(new java.io.File(reportPath));
+    private static JasperPrint prepareJasperPrint(String confFolder, String coachName,
+            ProgramReportDataSource dataSource, Program program, Person person) throws JRException {
+        JasperReport jasperReport = TEMPLATES.getSessionTemplate(confFolder, dataSource.getSessionCount());
 
         Map<String, Object> parameters = new HashMap();
         parameters.put("coachName", coachName);
@@ -140,8 +145,11 @@ public class ExportReport {
         parameters.put("muscleWeight", program.getPersonMuscleWeight());
         parameters.put("score", program.getPersonScore());
 
-        JasperPrint jasperPrint = JasperFillManager.fillReport(jasperReport, parameters,
-                new JRBeanCollectionDataSource(exerciseItems));
-        return jasperPrint;
+        Timer.Sample fill = Timer.start(Metrics.globalRegistry);
+        try {
+            return JasperFillManager.fillReport(jasperReport, parameters, dataSource);
+        } finally {
+            fill.stop(Metrics.timer("report.fill", "sessions", String.valueOf(dataSource.getSessionCount())));
+        }
     }
 }
@@ -0,0 +1,198 @@
+package com.caa.report;
+
+import net.sf.jasperreports.engine.JRException;
+import net.sf.jasperreports.engine.JasperReport;
+import net.sf.jasperreports.engine.util.JRLoader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Keeps compiled report templates in memory. A template under confFolder/report is loaded once and
+ * reloaded only when the file's modification time changes; when the config folder has no copy, the
+ * template compiled into the server jar (classpath /report) is used.
+ */
+public class JasperTemplateRegistry {
+
+    private static final String REPORT_FOLDER = "report";
+    private static final String TEMPLATE_SUFFIX = ".jasper";
+    /**
+     * How long a computed resource version is used before the folder is walked again.
+     */
+    private static final long RESOURCE_VERSION_TTL_MILLIS = 10000;
+
+    private final Map<String, LoadedTemplate> fileTemplates = new ConcurrentHashMap<>();
+    private final Map<String, JasperReport> classpathTemplates = new ConcurrentHashMap<>();
+    private volatile String classpathVersion;
+    private final Map<String, ResourceVersion> resourceVersions = new ConcurrentHashMap<>();
+
+    public JasperReport getSessionTemplate(String confFolder, int sessionCount) throws JRException {
+        return getTemplate(confFolder, "PersonProgramExercises" + sessionCount + "Session");
+    }
+
+    public JasperReport getTemplate(String confFolder, String templateName) throws JRException {
+        File file = new File(confFolder + "/" + REPORT_FOLDER + "/" + templateName + TEMPLATE_SUFFIX);
+        if (!file.exists()) {
+            return getClasspathTemplate(templateName);
+        }
+
+        String key = file.getAbsolutePath();
+        long lastModified = file.lastModified();
+        LoadedTemplate template = fileTemplates.get(key);
+        if (template != null && template.lastModified == lastModified) {
+            return template.report;
+        }
+        synchronized (this) {
+            template = fileTemplates.get(key);
+            if (template == null || template.lastModified != lastModified) {
+                template = new LoadedTemplate(lastModified, (JasperReport) JRLoader.loadObject(file));
+                fileTemplates.put(key, template);
+            }
+            return template.report;
+        }
+    }
+
+    /**
+     * Identifies the report resources a render depends on as they are now: the path, size and
+     * modification time of every file under confFolder/report (templates, and the logos and fonts
+     * next to them) and the content of the templates compiled into the jar. Changes whenever one
+     * of them is replaced, so it can be part of the key of a rendered report.
+     *
+     * The folder is walked at most once per RESOURCE_VERSION_TTL_MILLIS for each config folder, not
+     * on every report request, so a replaced file shows in the version up to that much later.
+     */
+    public String getResourceVersion(String confFolder) {
+        long now = System.currentTimeMillis();
+        ResourceVersion version = resourceVersions.get(confFolder);
+        if (version == null || now - version.computedAt >= RESOURCE_VERSION_TTL_MILLIS) {
+            version = new ResourceVersion(now, computeResourceVersion(confFolder));
+            resourceVersions.put(confFolder, version);
+        }
+        return version.value;
+    }
+
+    private String computeResourceVersion(String confFolder) {
+        MessageDigest digest = sha256();
+        digest.update(getClasspathVersion().getBytes(StandardCharsets.UTF_8));
+        File folder = new File(confFolder + "/" + REPORT_FOLDER);
+        if (folder.isDirectory()) {
+            try (Stream<Path> files = Files.walk(folder.toPath())) {
+                files.sorted().forEach(path -> {
+                    try {
+                        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                        if (attributes.isRegularFile()) {
+                            digest.update((path + "|" + attributes.size() + "|"
+                                    + attributes.lastModifiedTime().toMillis() + "\n").getBytes(StandardCharsets.UTF_8));
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (IOException | UncheckedIOException e) {
+                // unreadable folder: use a value no earlier render can have used
+                digest.update(String.valueOf(System.nanoTime()).getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Forgets every loaded template so the next request reads them again.
+     */
+    public void clear() {
+        fileTemplates.clear();
+        classpathTemplates.clear();
+        resourceVersions.clear();
+    }
+
+    private JasperReport getClasspathTemplate(String templateName) throws JRException {
+        JasperReport report = classpathTemplates.get(templateName);
+        if (report != null) {
+            return report;
+        }
+        synchronized (this) {
+            report = classpathTemplates.get(templateName);
+            if (report == null) {
+                String resource = "/" + REPORT_FOLDER + "/" + templateName + TEMPLATE_SUFFIX;
+                InputStream in = JasperTemplateRegistry.class.getResourceAsStream(resource);
+                if (in == null) {
+                    throw new JRException("Report template not found: " + templateName + TEMPLATE_SUFFIX);
+                }
+                report = (JasperReport) JRLoader.loadObject(in);
+                classpathTemplates.put(templateName, report);
+            }
+            return report;
+        }
+    }
+
+    private String getClasspathVersion() {
+        String version = classpathVersion;
+        if (version == null) {
+            MessageDigest digest = sha256();
+            byte[] buffer = new byte[8192];
+            for (int session = 1; session <= ProgramReportRowsBuilder.DTO_SESSIONS; session++) {
+                String resource = "/" + REPORT_FOLDER + "/PersonProgramExercises" + session + "Session" + TEMPLATE_SUFFIX;
+                try (InputStream in = JasperTemplateRegistry.class.getResourceAsStream(resource)) {
+                    if (in == null) {
+                        continue;
+                    }
+                    for (int n; (n = in.read(buffer)) > 0; ) {
+                        digest.update(buffer, 0, n);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            version = toHex(digest.digest());
+            classpathVersion = version;
+        }
+        return version;
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    private static class LoadedTemplate {
+        private final long lastModified;
+        private final JasperReport report;
+
+        LoadedTemplate(long lastModified, JasperReport report) {
+            this.lastModified = lastModified;
+            this.report = report;
+        }
+    }
+
+    private static class ResourceVersion {
+        private final long computedAt;
+        private final String value;
+
+        ResourceVersion(long computedAt, String value) {
+            this.computedAt = computedAt;
+            this.value = value;
+        }
+    }
+}
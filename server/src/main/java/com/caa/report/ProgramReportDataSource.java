@@ -0,0 +1,109 @@
+package com.caa.report;
+
+import com.caa.modelview.ProgramExerciseItemView;
+import net.sf.jasperreports.engine.JRException;
+import net.sf.jasperreports.engine.JRField;
+import net.sf.jasperreports.engine.JRRewindableDataSource;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Feeds the session report templates straight from the program items. Serves the same fields as
+ * {@link ProgramExercisesReportDTO} (program1Id ... program6ExerciseDscription) with the same
+ * values, but from one flat array looked up through a fixed field name to column table, instead of
+ * a bean property lookup for every field of every row.
+ */
+public class ProgramReportDataSource implements JRRewindableDataSource {
+
+    private static final String[] SESSION_FIELDS = {"Id", "Exercise", "ExerciseRepeatSet", "ExerciseDscription"};
+    private static final int ID = 0;
+    private static final int EXERCISE = 1;
+    private static final int REPEAT_SET = 2;
+    private static final int COLUMNS = ProgramReportRowsBuilder.DTO_SESSIONS * SESSION_FIELDS.length;
+
+    private static final Map<String, Integer> FIELD_COLUMNS = new HashMap<>();
+
+    static {
+        for (int session = 1; session <= ProgramReportRowsBuilder.DTO_SESSIONS; session++) {
+            for (int field = 0; field < SESSION_FIELDS.length; field++) {
+                FIELD_COLUMNS.put("program" + session + SESSION_FIELDS[field], column(session, field));
+            }
+        }
+    }
+
+    // values[row * COLUMNS + column]
+    private final Object[] values;
+    private final int rowCount;
+    private int row = -1;
+
+    private ProgramReportDataSource(ProgramReportRowsBuilder.Cell[][] rows) {
+        rowCount = rows.length;
+        values = new Object[rowCount * COLUMNS];
+        for (int r = 0; r < rowCount; r++) {
+            ProgramReportRowsBuilder.Cell[] cells = rows[r];
+            for (int session = 1; session <= ProgramReportRowsBuilder.DTO_SESSIONS; session++) {
+                ProgramReportRowsBuilder.Cell cell = session <= cells.length ? cells[session - 1] : null;
+                int offset = r * COLUMNS;
+                if (cell == null) {
+                    values[offset + column(session, EXERCISE)] = "";
+                } else {
+                    values[offset + column(session, ID)] = cell.getId();
+                    values[offset + column(session, EXERCISE)] = cell.getExercise();
+                    values[offset + column(session, REPEAT_SET)] = cell.getRepeatSet();
+                }
+            }
+        }
+    }
+
+    /**
+     * Sessions after the sixth are left out, as the report templates go up to six sessions.
+     */
+    public static ProgramReportDataSource fromItems(List<ProgramExerciseItemView> items) {
+        return new ProgramReportDataSource(new ProgramReportRowsBuilder().addAll(items).buildReportRows());
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @return the template to use: the highest session with a positive id in the first row, at least 1
+     */
+    public int getSessionCount() {
+        for (int session = ProgramReportRowsBuilder.DTO_SESSIONS; session > 1; session--) {
+            Long id = rowCount == 0 ? null : (Long) values[column(session, ID)];
+            if (id != null && id > 0) {
+                return session;
+            }
+        }
+        return 1;
+    }
+
+    @Override
+    public boolean next() {
+        if (row < rowCount) {
+            row++;
+        }
+        return row < rowCount;
+    }
+
+    @Override
+    public Object getFieldValue(JRField field) throws JRException {
+        Integer column = FIELD_COLUMNS.get(field.getName());
+        if (column == null) {
+            throw new JRException("Unknown field " + field.getName() + " in program report");
+        }
+        return values[row * COLUMNS + column];
+    }
+
+    @Override
+    public void moveFirst() {
+        row = -1;
+    }
+
+    private static int column(int session, int field) {
+        return (session - 1) * SESSION_FIELDS.length + field;
+    }
+}
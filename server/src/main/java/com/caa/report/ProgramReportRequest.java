@@ -0,0 +1,159 @@
+package com.caa.report;
+
+import com.caa.model.Person;
+import com.caa.model.Program;
+import com.caa.modelview.ProgramExerciseItemView;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+/**
+ * Everything needed to render one program report, loaded up front so rendering does not touch the
+ * database. The content hash covers every value that ends up in the output, and the version of the
+ * templates and resources it is rendered with, and is used as the cache key and the HTTP entity tag.
+ */
+public class ProgramReportRequest {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final String confFolder;
+    private final String coachName;
+    private final Program program;
+    private final Person person;
+    private final List<ProgramExerciseItemView> items;
+    private final ReportFormat format;
+    private String contentHash;
+
+    public ProgramReportRequest(String confFolder, String coachName, Program program, Person person,
+                                List<ProgramExerciseItemView> items, ReportFormat format) {
+        this.confFolder = confFolder;
+        this.coachName = coachName;
+        this.program = program;
+        this.person = person;
+        this.items = items;
+        this.format = format;
+    }
+
+    public String getConfFolder() {
+        return confFolder;
+    }
+
+    public String getCoachName() {
+        return coachName;
+    }
+
+    public Program getProgram() {
+        return program;
+    }
+
+    public Person getPerson() {
+        return person;
+    }
+
+    public List<ProgramExerciseItemView> getItems() {
+        return items;
+    }
+
+    public ReportFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * @return strong entity tag for the rendered output
+     */
+    public String getETag() {
+        return "\"" + getContentHash() + "\"";
+    }
+
+    /**
+     * @return strong entity tag for another representation of the rendered output, e.g. "json"
+     * for the Base64 encoded image, so it is never confused with the raw bytes
+     */
+    public String getETag(String representation) {
+        return "\"" + getContentHash() + "-" + representation + "\"";
+    }
+
+    public String getContentHash() {
+        if (contentHash == null) {
+            contentHash = computeContentHash();
+        }
+        return contentHash;
+    }
+
+    private String computeContentHash() {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        update(digest, format.name());
+        update(digest, ExportReport.getResourceVersion(confFolder));
+        update(digest, coachName);
+        update(digest, person.getFirstName());
+        update(digest, person.getLastName());
+
+        update(digest, program.getId());
+        update(digest, program.getTenantId());
+        update(digest, program.getProgramDate() == null ? 0 : program.getProgramDate().getTime());
+        update(digest, program.getProgramName());
+        update(digest, program.getDescription());
+        update(digest, program.getPersonAge());
+        update(digest, program.getPersonTall());
+        update(digest, program.getPersonWeight());
+        update(digest, program.getPersonChest());
+        update(digest, program.getPersonWaist());
+        update(digest, program.getPersonAbdomen());
+        update(digest, program.getPersonArm());
+        update(digest, program.getPersonForeArm());
+        update(digest, program.getPersonThigh());
+        update(digest, program.getPersonShin());
+        update(digest, program.getPersonButt());
+        update(digest, program.getPersonFatPercentage());
+        update(digest, program.getPersonFatWeight());
+        update(digest, program.getPersonMuscleWeight());
+        update(digest, program.getPersonScore());
+
+        update(digest, items.size());
+        for (ProgramExerciseItemView item : items) {
+            update(digest, item.getId());
+            update(digest, item.getSubExerciseId());
+            update(digest, item.getExerciseId());
+            update(digest, item.getExerciseName());
+            update(digest, item.getExerciseSet());
+            update(digest, item.getExerciseRepeat());
+            update(digest, item.getExerciseRepeatType());
+            update(digest, item.getDescription());
+        }
+
+        byte[] hash = digest.digest();
+        char[] hex = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            hex[i * 2] = HEX[(hash[i] >> 4) & 0xF];
+            hex[i * 2 + 1] = HEX[hash[i] & 0xF];
+        }
+        return new String(hex);
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        if (value == null) {
+            update(digest, -1L);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        update(digest, (long) bytes.length);
+        digest.update(bytes);
+    }
+
+    private static void update(MessageDigest digest, double value) {
+        update(digest, Double.doubleToLongBits(value));
+    }
+
+    private static void update(MessageDigest digest, long value) {
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            digest.update((byte) (value >>> shift));
+        }
+    }
+}
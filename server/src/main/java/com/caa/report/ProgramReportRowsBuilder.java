@@ -0,0 +1,344 @@
+package com.caa.report;
+
+import com.caa.model.ProgramExerciseItem;
+import com.caa.modelview.ProgramExerciseItemView;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Lays out the exercise items of a program as report rows: one column per session (subExerciseId),
+ * and in each column one cell per exercise number (id), in id order. Items sharing a session and
+ * an id, as in a superset, go into one cell: "id - name + name" and "set. repeat + repeat".
+ *
+ * Items are grouped in one pass over the list; each cell keeps the chain of its items, and the
+ * cell texts are only built once the rows are asked for, with one shared StringBuilder.
+ */
+public class ProgramReportRowsBuilder {
+
+    private static final String REPEAT_TYPE_SECOND = "S";
+    private static final String REPEAT_TYPE_MINUTE = "M";
+
+    /**
+     * Sessions of {@link ProgramExercisesReportDTO}, which has one set of fields per session.
+     */
+    public static final int DTO_SESSIONS = 6;
+
+    private final List<ProgramExerciseItemView> items = new ArrayList<>();
+    // nextItem[i] is the index of the next item in the cell of item i, or -1
+    private int[] nextItem = new int[16];
+    // sessions[s - 1] holds the cells of session s; null while the session has none
+    private Session[] sessions = new Session[DTO_SESSIONS];
+    private int sessionCount;
+
+    /**
+     * Items with a subExerciseId below 1 belong to no session and are left out.
+     */
+    public ProgramReportRowsBuilder add(ProgramExerciseItemView item) {
+        int sub = item.getSubExerciseId();
+        if (sub < 1) {
+            return this;
+        }
+        int index = items.size();
+        items.add(item);
+        if (index == nextItem.length) {
+            nextItem = Arrays.copyOf(nextItem, index * 2);
+        }
+        nextItem[index] = -1;
+
+        if (sub > sessions.length) {
+            sessions = Arrays.copyOf(sessions, Math.max(sub, sessions.length * 2));
+        }
+        Session session = sessions[sub - 1];
+        if (session == null) {
+            session = new Session();
+            sessions[sub - 1] = session;
+        }
+        sessionCount = Math.max(sessionCount, sub);
+        session.add(item.getId(), index, nextItem);
+        return this;
+    }
+
+    public ProgramReportRowsBuilder addAll(List<ProgramExerciseItemView> list) {
+        for (ProgramExerciseItemView item : list) {
+            add(item);
+        }
+        return this;
+    }
+
+    /**
+     * @return the highest session that has an item
+     */
+    public int getSessionCount() {
+        return sessionCount;
+    }
+
+    /**
+     * @return rows[r][s - 1] is the cell of session s in row r, or null when the session has fewer than r + 1 cells
+     */
+    public Cell[][] build() {
+        return build(false);
+    }
+
+    /**
+     * @param hideOverwrittenCells leave out the cells {@link Session#hiddenCell()} finds, as the
+     *                             DTO conversion did
+     */
+    private Cell[][] build(boolean hideOverwrittenCells) {
+        int rowCount = 0;
+        int[] hiddenCells = new int[sessionCount];
+        for (int s = 0; s < sessionCount; s++) {
+            hiddenCells[s] = -1;
+            Session session = sessions[s];
+            if (session != null) {
+                session.sortById();
+                if (hideOverwrittenCells) {
+                    hiddenCells[s] = session.hiddenCell();
+                }
+                rowCount = Math.max(rowCount, session.size - (hiddenCells[s] < 0 ? 0 : 1));
+            }
+        }
+        Cell[][] rows = new Cell[rowCount][sessionCount];
+        StringBuilder sb = new StringBuilder(64);
+        for (int s = 0; s < sessionCount; s++) {
+            Session session = sessions[s];
+            if (session == null) {
+                continue;
+            }
+            int r = 0;
+            for (int cell = 0; cell < session.size; cell++) {
+                if (cell != hiddenCells[s]) {
+                    rows[r++][s] = buildCell(session.ids[cell], session.firstItems[cell], sb);
+                }
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * The rows as the report prints them: laid out as the conversion this replaced did, including its
+     * handling of id 0 (see {@link Session#hiddenCell()}).
+     */
+    public Cell[][] buildReportRows() {
+        return build(true);
+    }
+
+    /**
+     * The rows of {@link #buildReportRows()} in the fields of {@link ProgramExercisesReportDTO}.
+     * Sessions after the sixth have no fields there and are left out; the report templates go up to
+     * six sessions.
+     */
+    public List<ProgramExercisesReportDTO> buildReportDTOs() {
+        Cell[][] rows = buildReportRows();
+        List<ProgramExercisesReportDTO> dtos = new ArrayList<>(rows.length);
+        for (Cell[] row : rows) {
+            ProgramExercisesReportDTO dto = new ProgramExercisesReportDTO();
+            dto.setProgram1Exercise("");
+            dto.setProgram2Exercise("");
+            dto.setProgram3Exercise("");
+            dto.setProgram4Exercise("");
+            dto.setProgram5Exercise("");
+            dto.setProgram6Exercise("");
+            for (int s = 0; s < Math.min(row.length, DTO_SESSIONS); s++) {
+                if (row[s] != null) {
+                    setSession(dto, s + 1, row[s]);
+                }
+            }
+            dtos.add(dto);
+        }
+        return dtos;
+    }
+
+    private Cell buildCell(long id, int firstItem, StringBuilder sb) {
+        ProgramExerciseItemView first = items.get(firstItem);
+
+        sb.setLength(0);
+        sb.append(id).append(" - ").append(first.getExerciseName());
+        for (int i = nextItem[firstItem]; i >= 0; i = nextItem[i]) {
+            sb.append(" + ").append(items.get(i).getExerciseName());
+        }
+        String exercise = sb.toString();
+
+        sb.setLength(0);
+        sb.append(first.getExerciseSet()).append(". ");
+        appendRepeat(sb, first);
+        for (int i = nextItem[firstItem]; i >= 0; i = nextItem[i]) {
+            sb.append(" + ");
+            appendRepeat(sb, items.get(i));
+        }
+        return new Cell(id, exercise, sb.toString());
+    }
+
+    private static void appendRepeat(StringBuilder sb, ProgramExerciseItem item) {
+        sb.append(item.getExerciseRepeat());
+        String type = item.getExerciseRepeatType();
+        if (REPEAT_TYPE_SECOND.equals(type)) {
+            sb.append('"');
+        } else if (REPEAT_TYPE_MINUTE.equals(type)) {
+            sb.append('\'');
+        }
+    }
+
+    private static void setSession(ProgramExercisesReportDTO dto, int session, Cell cell) {
+        switch (session) {
+            case 1 :
+                dto.setProgram1Id(cell.getId());
+                dto.setProgram1Exercise(cell.getExercise());
+                dto.setProgram1ExerciseRepeatSet(cell.getRepeatSet());
+                break;
+            case 2 :
+                dto.setProgram2Id(cell.getId());
+                dto.setProgram2Exercise(cell.getExercise());
+                dto.setProgram2ExerciseRepeatSet(cell.getRepeatSet());
+                break;
+            case 3 :
+                dto.setProgram3Id(cell.getId());
+                dto.setProgram3Exercise(cell.getExercise());
+                dto.setProgram3ExerciseRepeatSet(cell.getRepeatSet());
+                break;
+            case 4 :
+                dto.setProgram4Id(cell.getId());
+                dto.setProgram4Exercise(cell.getExercise());
+                dto.setProgram4ExerciseRepeatSet(cell.getRepeatSet());
+                break;
+            case 5 :
+                dto.setProgram5Id(cell.getId());
+                dto.setProgram5Exercise(cell.getExercise());
+                dto.setProgram5ExerciseRepeatSet(cell.getRepeatSet());
+                break;
+            case 6 :
+                dto.setProgram6Id(cell.getId());
+                dto.setProgram6Exercise(cell.getExercise());
+                dto.setProgram6ExerciseRepeatSet(cell.getRepeatSet());
+                break;
+        }
+    }
+
+    public static class Cell {
+        private final long id;
+        private final String exercise;
+        private final String repeatSet;
+
+        Cell(long id, String exercise, String repeatSet) {
+            this.id = id;
+            this.exercise = exercise;
+            this.repeatSet = repeatSet;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public String getExercise() {
+            return exercise;
+        }
+
+        public String getRepeatSet() {
+            return repeatSet;
+        }
+    }
+
+    /**
+     * The cells of one session in the order their ids first appeared, found by id through an
+     * open-addressing table of cell positions.
+     */
+    private static class Session {
+        private long[] ids = new long[8];
+        private int[] firstItems = new int[8];
+        private int[] lastItems = new int[8];
+        private int size;
+        // slot -> cell position + 1, 0 for an empty slot; length is a power of two kept at least twice size
+        private int[] table = new int[16];
+
+        void add(long id, int item, int[] nextItem) {
+            int mask = table.length - 1;
+            int slot = hash(id) & mask;
+            while (table[slot] != 0) {
+                int cell = table[slot] - 1;
+                if (ids[cell] == id) {
+                    nextItem[lastItems[cell]] = item;
+                    lastItems[cell] = item;
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                firstItems = Arrays.copyOf(firstItems, size * 2);
+                lastItems = Arrays.copyOf(lastItems, size * 2);
+            }
+            ids[size] = id;
+            firstItems[size] = item;
+            lastItems[size] = item;
+            size++;
+            table[slot] = size;
+            if (size * 2 > table.length) {
+                rehash(table.length * 2);
+            }
+        }
+
+        /**
+         * Puts the cells in id order. Items usually come in id order already, which is checked first.
+         */
+        void sortById() {
+            boolean sorted = true;
+            for (int i = 1; i < size && sorted; i++) {
+                sorted = ids[i - 1] < ids[i];
+            }
+            if (sorted) {
+                return;
+            }
+            Integer[] positions = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                positions[i] = i;
+            }
+            long[] sortedIds = ids;
+            Arrays.sort(positions, (a, b) -> Long.compare(sortedIds[a], sortedIds[b]));
+            long[] newIds = new long[ids.length];
+            int[] newFirst = new int[ids.length];
+            int[] newLast = new int[ids.length];
+            for (int i = 0; i < size; i++) {
+                newIds[i] = ids[positions[i]];
+                newFirst[i] = firstItems[positions[i]];
+                newLast[i] = lastItems[positions[i]];
+            }
+            ids = newIds;
+            firstItems = newFirst;
+            lastItems = newLast;
+            rehash(table.length);
+        }
+
+        /**
+         * The DTO rows used to be filled by looking for the first row whose slot of the session
+         * had no id or id 0, so the cell of id 0 was overwritten by the next cell of the session.
+         * @return the position of that cell when some cell follows it, else -1
+         */
+        int hiddenCell() {
+            for (int cell = 0; cell < size - 1; cell++) {
+                if (ids[cell] == 0) {
+                    return cell;
+                }
+            }
+            return -1;
+        }
+
+        private void rehash(int length) {
+            int[] newTable = new int[length];
+            int mask = newTable.length - 1;
+            for (int cell = 0; cell < size; cell++) {
+                int slot = hash(ids[cell]) & mask;
+                while (newTable[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                newTable[slot] = cell + 1;
+            }
+            table = newTable;
+        }
+
+        private static int hash(long id) {
+            long h = id * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+}
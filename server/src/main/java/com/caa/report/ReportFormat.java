@@ -0,0 +1,25 @@
+package com.caa.report;
+
+/**
+ * Output formats a program report can be rendered to.
+ */
+public enum ReportFormat {
+    PDF("application/pdf", "pdf"),
+    JPEG("image/jpeg", "jpg");
+
+    private final String contentType;
+    private final String extension;
+
+    ReportFormat(String contentType, String extension) {
+        this.contentType = contentType;
+        this.extension = extension;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+}
@@ -0,0 +1,974 @@
+package com.caa.services;
+
+import com.caa.dao.ExerciseDao;
+import com.caa.dao.PersonDao;
+import com.caa.dao.ProgramDao;
+import com.caa.dao.ProgramExerciseItemDao;
+import com.caa.model.Exercise;
+import com.caa.model.Person;
+import com.caa.model.Program;
+import com.caa.model.ProgramExerciseItem;
+import com.caa.modelview.ImportJobView;
+import com.caa.modelview.ImportRowError;
+import com.caa.services.security.impl.CustomUserDetailsService;
+import com.caa.util.CsvReader;
+import com.caa.util.DateUtil;
+import com.caa.util.TextNormalizer;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.commons.io.input.CountingInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.NestedRuntimeException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Imports persons, exercises or programs from a CSV or JSON file in the background. The upload is
+ * spooled to a temporary file and read back one row at a time. Rows are checked for duplicates
+ * against the tenant's keys, loaded once when the job starts, and written in chunks of one
+ * transaction each; a chunk that fails is written again row by row so that only the offending rows
+ * are reported. Each chunk's transaction checks its keys against the database again before writing,
+ * so rows saved since the job started are not imported twice, and caches the chunk makes stale are
+ * dropped once it commits.
+ */
+@Repository
+public class BulkImportService {
+
+    private static Logger logger = LoggerFactory.getLogger(BulkImportService.class);
+
+    public static final String KIND_PERSONS = "persons";
+    public static final String KIND_EXERCISES = "exercises";
+    public static final String KIND_PROGRAMS = "programs";
+
+    public static final String FORMAT_CSV = "csv";
+    public static final String FORMAT_JSON = "json";
+
+    public static final String STATUS_QUEUED = "QUEUED";
+    public static final String STATUS_RUNNING = "RUNNING";
+    public static final String STATUS_DONE = "DONE";
+    public static final String STATUS_FAILED = "FAILED";
+
+    @Autowired
+    PersonDao personDao;
+
+    @Autowired
+    ExerciseDao exerciseDao;
+
+    @Autowired
+    ProgramDao programDao;
+
+    @Autowired
+    ProgramExerciseItemDao programExerciseItemDao;
+
+    @Autowired
+    ExerciseCatalogCache exerciseCatalogCache;
+
+    @Autowired
+    ExerciseCodeAllocator exerciseCodeAllocator;
+
+    @Autowired
+    PersonSearchIndex personSearchIndex;
+
+    @Autowired
+    MeasurementSeriesCache measurementSeriesCache;
+
+    @Autowired
+    ProgressAnalyticsService progressAnalyticsService;
+
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    @Value("${import.threads:1}")
+    private int threads;
+
+    @Value("${import.queue-capacity:10}")
+    private int queueCapacity;
+
+    @Value("${import.chunk-size:500}")
+    private int chunkSize;
+
+    @Value("${import.max-errors:1000}")
+    private int maxErrors;
+
+    @Value("${import.max-file-size-mb:200}")
+    private long maxFileSizeMb;
+
+    @Value("${import.job-ttl-minutes:60}")
+    private long jobTtlMinutes;
+
+    private ThreadPoolExecutor executor;
+    private TransactionTemplate transactionTemplate;
+
+    private final Map<String, ImportJob> jobs = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "bulk-import-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), threadFactory, new ThreadPoolExecutor.AbortPolicy());
+
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.setIsolationLevel(TransactionDefinition.ISOLATION_READ_COMMITTED);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    public ThreadPoolExecutor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Spools the input to a temporary file and queues its import for the current tenant.
+     * @param kind one of persons, exercises or programs
+     * @param format csv, with a header row naming the columns, or json, an array of objects
+     */
+    public ImportJobView start(String kind, String format, InputStream in) throws IOException {
+        String tenant = CustomUserDetailsService.getCurrentUserTenant();
+        RowImporter<?> importer = newImporter(kind, tenant);
+        File file = spool(in, format);
+
+        ImportJob job = new ImportJob(UUID.randomUUID().toString(), tenant, kind, file.length());
+        jobs.put(job.jobId, job);
+        try {
+            executor.execute(() -> run(job, importer, file, format));
+        } catch (RejectedExecutionException e) {
+            jobs.remove(job.jobId);
+            file.delete();
+            throw new RuntimeException("صف ورود اطلاعات پر است، لطفا بعدا دوباره تلاش کنید", e);
+        }
+        return job.toView();
+    }
+
+    /**
+     * @return the import job of the current tenant with the given id, or null when it is unknown or expired
+     */
+    public ImportJobView getJob(String jobId) {
+        ImportJob job = jobs.get(jobId);
+        if (job == null || !job.tenant.equals(CustomUserDetailsService.getCurrentUserTenant())) {
+            return null;
+        }
+        return job.toView();
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    private RowImporter<?> newImporter(String kind, String tenant) {
+        switch (kind) {
+            case KIND_PERSONS:
+                return new PersonImporter(tenant);
+            case KIND_EXERCISES:
+                return new ExerciseImporter(tenant);
+            case KIND_PROGRAMS:
+                return new ProgramImporter(tenant);
+        }
+        throw new RuntimeException("نوع اطلاعات ورودی نامعتبر است");
+    }
+
+    private File spool(InputStream in, String format) throws IOException {
+        long maxBytes = maxFileSizeMb * 1024 * 1024;
+        File file = File.createTempFile("import-", "." + format);
+        try (OutputStream out = new FileOutputStream(file)) {
+            byte[] buffer = new byte[64 * 1024];
+            long total = 0;
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                total += n;
+                if (total > maxBytes) {
+                    throw new RuntimeException("حجم فایل بیش از " + maxFileSizeMb + " مگابایت است");
+                }
+                out.write(buffer, 0, n);
+            }
+        } catch (IOException | RuntimeException e) {
+            file.delete();
+            throw e;
+        }
+        return file;
+    }
+
+    private <T> void run(ImportJob job, RowImporter<T> importer, File file, String format) {
+        job.status = STATUS_RUNNING;
+        job.startedAt = System.currentTimeMillis();
+        try (CountingInputStream counter = new CountingInputStream(new FileInputStream(file));
+             RowReader rows = openRows(new BufferedInputStream(counter), format)) {
+            job.counter = counter;
+            importer.preload();
+
+            List<T> chunk = new ArrayList<>();
+            Map<String, String> row;
+            while ((row = rows.next()) != null) {
+                long rowNumber = ++job.rowsRead;
+                T record;
+                try {
+                    record = importer.parse(row, rowNumber);
+                } catch (RuntimeException e) {
+                    job.addError(rowNumber, e.getMessage());
+                    continue;
+                }
+                if (record != null) {
+                    // a record is only complete once the next one starts, so the chunk is written then
+                    if (chunk.size() >= chunkSize) {
+                        write(job, importer, chunk);
+                        chunk = new ArrayList<>();
+                    }
+                    chunk.add(record);
+                }
+            }
+            write(job, importer, chunk);
+            job.status = STATUS_DONE;
+        } catch (Exception e) {
+            logger.error("import job " + job.jobId + " failed at row " + job.rowsRead, e);
+            job.error = e.getMessage();
+            job.status = STATUS_FAILED;
+        } finally {
+            importer.finish();
+            job.finishedAt = System.currentTimeMillis();
+            file.delete();
+        }
+    }
+
+    private <T> void write(ImportJob job, RowImporter<T> importer, List<T> chunk) {
+        chunk.removeIf(importer::isRejected);
+        if (chunk.isEmpty()) {
+            return;
+        }
+        try {
+            Map<T, String> conflicts = writeInTransaction(importer, chunk);
+            conflicts.forEach((record, message) -> job.addError(importer.rowOf(record), message));
+            job.imported += chunk.size() - conflicts.size();
+        } catch (RuntimeException e) {
+            logger.warn("import job " + job.jobId + ": chunk of " + chunk.size() + " failed, writing it row by row", e);
+            for (T record : chunk) {
+                try {
+                    Map<T, String> conflicts = writeInTransaction(importer, Collections.singletonList(record));
+                    if (conflicts.isEmpty()) {
+                        job.imported++;
+                    } else {
+                        job.addError(importer.rowOf(record), conflicts.get(record));
+                    }
+                } catch (RuntimeException recordException) {
+                    // constraint violations come wrapped in Spring and Hibernate exceptions
+                    Throwable cause = recordException instanceof NestedRuntimeException
+                            ? ((NestedRuntimeException) recordException).getMostSpecificCause() : recordException;
+                    job.addError(importer.rowOf(record), cause.getMessage());
+                }
+            }
+        }
+        importer.afterWrite();
+    }
+
+    /**
+     * Writes the records that do not clash with rows stored since the job started, in one transaction.
+     * @return the records left out, with the message to report for each
+     */
+    private <T> Map<T, String> writeInTransaction(RowImporter<T> importer, List<T> records) {
+        return transactionTemplate.execute(status -> {
+            Map<T, String> conflicts = importer.findConflicts(records);
+            List<T> rest = new ArrayList<>(records.size());
+            for (T record : records) {
+                if (!conflicts.containsKey(record)) {
+                    rest.add(record);
+                }
+            }
+            if (rest.size() > 0) {
+                importer.write(rest);
+            }
+            return conflicts;
+        });
+    }
+
+    private static RowReader openRows(InputStream in, String format) throws IOException {
+        if (FORMAT_JSON.equals(format)) {
+            MappingIterator<Map<String, Object>> values = new ObjectMapper().readerFor(Map.class).readValues(in);
+            return new RowReader() {
+                @Override
+                public Map<String, String> next() throws IOException {
+                    if (!values.hasNextValue()) {
+                        return null;
+                    }
+                    Map<String, String> row = new HashMap<>();
+                    values.nextValue().forEach((key, value) ->
+                            row.put(key.trim().toLowerCase(), value == null ? null : String.valueOf(value)));
+                    return row;
+                }
+
+                @Override
+                public void close() throws IOException {
+                    values.close();
+                }
+            };
+        }
+
+        CsvReader csv = new CsvReader(new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)));
+        List<String> header = csv.readRecord();
+        List<String> columns = new ArrayList<>();
+        if (header != null) {
+            header.forEach(column -> columns.add(column.trim().toLowerCase()));
+        }
+        return new RowReader() {
+            @Override
+            public Map<String, String> next() throws IOException {
+                List<String> fields = csv.readRecord();
+                while (fields != null && isBlank(fields)) {
+                    fields = csv.readRecord();
+                }
+                if (fields == null) {
+                    return null;
+                }
+                Map<String, String> row = new HashMap<>();
+                for (int i = 0; i < columns.size() && i < fields.size(); i++) {
+                    row.put(columns.get(i), fields.get(i));
+                }
+                return row;
+            }
+
+            @Override
+            public void close() throws IOException {
+                csv.close();
+            }
+        };
+    }
+
+    private static boolean isBlank(List<String> fields) {
+        for (String field : fields) {
+            if (field.trim().length() > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the trimmed value of the column, or "" when it is missing; column names are not case sensitive
+     */
+    private static String value(Map<String, String> row, String column) {
+        String value = row.get(column.toLowerCase());
+        return value == null ? "" : value.trim();
+    }
+
+    private static int intValue(Map<String, String> row, String column, String message) {
+        String value = TextNormalizer.normalize(value(row, column));
+        if (value.isEmpty()) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new RuntimeException(message);
+        }
+    }
+
+    /**
+     * Parses a shamsi date such as 1397/5/20; an empty value is read as DateUtil does.
+     */
+    private static Date dateValue(Map<String, String> row, String column, String message) {
+        String value = TextNormalizer.normalize(value(row, column));
+        try {
+            return DateUtil.getGregorianDate(value);
+        } catch (RuntimeException e) {
+            throw new RuntimeException(message);
+        }
+    }
+
+    /**
+     * Mobile numbers and program names compare the way the search box does, ignoring case and
+     * Arabic/Persian letter and digit forms; exercise names compare as {@link ExerciseService#nameKey} does.
+     */
+    private static String key(String value) {
+        return TextNormalizer.normalize(value);
+    }
+
+    /**
+     * Drops jobs finished more than the job ttl ago. Runs every minute, so finished jobs and their
+     * errors do not stay in memory when no new job is started.
+     */
+    @Scheduled(fixedDelay = 60000)
+    public void purgeExpiredJobs() {
+        long expiredBefore = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(jobTtlMinutes);
+        Iterator<ImportJob> it = jobs.values().iterator();
+        while (it.hasNext()) {
+            ImportJob job = it.next();
+            if (job.finishedAt > 0 && job.finishedAt < expiredBefore) {
+                it.remove();
+            }
+        }
+    }
+
+    private interface RowReader extends Closeable {
+        /**
+         * @return the next row by lower case column name, or null at the end of the file
+         */
+        Map<String, String> next() throws IOException;
+    }
+
+    /**
+     * Turns rows into records of one kind and writes them.
+     */
+    private abstract static class RowImporter<T> {
+
+        /**
+         * Loads the tenant's keys the rows are checked against.
+         */
+        abstract void preload();
+
+        /**
+         * @return the record the row starts, or null when the row adds to the previous record
+         * @throws RuntimeException with the message to report when the row is invalid
+         */
+        abstract T parse(Map<String, String> row, long rowNumber);
+
+        /**
+         * Checks the records against the rows stored since the keys were loaded; runs inside the
+         * transaction that writes them.
+         * @return the records that clash with a stored row, with the message to report for each
+         */
+        abstract Map<T, String> findConflicts(List<T> records);
+
+        /**
+         * Writes the records; runs inside a transaction.
+         */
+        abstract void write(List<T> records);
+
+        abstract long rowOf(T record);
+
+        /**
+         * @return true when a row added to the record after it was started turned out to be invalid
+         */
+        boolean isRejected(T record) {
+            return false;
+        }
+
+        /**
+         * Drops cached data a committed chunk has made stale.
+         */
+        void afterWrite() {
+        }
+
+        /**
+         * Runs once the whole file has been read, whether or not the import succeeded.
+         */
+        void finish() {
+        }
+    }
+
+    private static class Imported<E> {
+        private final long row;
+        private final E entity;
+
+        Imported(long row, E entity) {
+            this.row = row;
+            this.entity = entity;
+        }
+    }
+
+    /**
+     * Columns: firstName, lastName, fatherName, mobileNumber, address, birthDate, disability.
+     */
+    private class PersonImporter extends RowImporter<Imported<Person>> {
+        private final String tenant;
+        private final Set<String> mobileNumbers = new HashSet<>();
+
+        PersonImporter(String tenant) {
+            this.tenant = tenant;
+        }
+
+        @Override
+        void preload() {
+            personDao.queryIdAndMobileNumberForTenant(tenant).forEach(row -> mobileNumbers.add(key((String) row[1])));
+        }
+
+        @Override
+        Imported<Person> parse(Map<String, String> row, long rowNumber) {
+            String mobileNumber = value(row, "mobileNumber");
+            if (mobileNumber.isEmpty()) {
+                throw new RuntimeException("شماره موبایل اجباری است");
+            }
+            if (value(row, "firstName").isEmpty() || value(row, "lastName").isEmpty()) {
+                throw new RuntimeException("نام و نام خانوادگی اجباری است");
+            }
+            Person person = new Person();
+            person.setTenantId(tenant);
+            person.setFirstName(value(row, "firstName"));
+            person.setLastName(value(row, "lastName"));
+            person.setFatherName(value(row, "fatherName"));
+            person.setMobileNumber(mobileNumber);
+            person.setAddress(value(row, "address"));
+            person.setDisability(value(row, "disability"));
+            person.setBirthDate(dateValue(row, "birthDate", "تاریخ تولد نامعتبر است"));
+            if (!mobileNumbers.add(key(mobileNumber))) {
+                throw new RuntimeException("شماره موبایل نمی تواند تکراری باشد");
+            }
+            return new Imported<>(rowNumber, person);
+        }
+
+        @Override
+        Map<Imported<Person>, String> findConflicts(List<Imported<Person>> records) {
+            List<String> mobileNumbers = new ArrayList<>(records.size());
+            records.forEach(record -> mobileNumbers.add(record.entity.getMobileNumber()));
+            Set<String> stored = new HashSet<>();
+            personDao.queryMobileNumbersForTenant(tenant, mobileNumbers).forEach(mobileNumber -> stored.add(key(mobileNumber)));
+
+            Map<Imported<Person>, String> conflicts = new IdentityHashMap<>();
+            for (Imported<Person> record : records) {
+                if (stored.contains(key(record.entity.getMobileNumber()))) {
+                    conflicts.put(record, "شماره موبایل نمی تواند تکراری باشد");
+                }
+            }
+            return conflicts;
+        }
+
+        @Override
+        void write(List<Imported<Person>> records) {
+            List<Person> persons = new ArrayList<>(records.size());
+            for (Imported<Person> record : records) {
+                // a chunk that was rolled back leaves its generated ids behind
+                record.entity.setId(0);
+                persons.add(record.entity);
+            }
+            personDao.save(persons);
+        }
+
+        @Override
+        long rowOf(Imported<Person> record) {
+            return record.row;
+        }
+
+        @Override
+        void afterWrite() {
+            personSearchIndex.invalidate(tenant);
+        }
+    }
+
+    /**
+     * Columns: name, latinName, code, involvedMuscel. Exercises without a code get one from
+     * {@link ExerciseCodeAllocator}.
+     */
+    private class ExerciseImporter extends RowImporter<Imported<Exercise>> {
+        private final String tenant;
+        private final Set<String> names = new HashSet<>();
+        private final Set<String> latinNames = new HashSet<>();
+        private final Set<Long> codes = new HashSet<>();
+
+        ExerciseImporter(String tenant) {
+            this.tenant = tenant;
+        }
+
+        @Override
+        void preload() {
+            for (Exercise exercise : exerciseCatalogCache.getExercises(tenant)) {
+                names.add(ExerciseService.nameKey(exercise.getName()));
+                latinNames.add(ExerciseService.nameKey(exercise.getLatinName()));
+                if (exercise.getCodeNumber() != null) {
+                    codes.add(exercise.getCodeNumber());
+                }
+            }
+        }
+
+        @Override
+        Imported<Exercise> parse(Map<String, String> row, long rowNumber) {
+            String name = value(row, "name");
+            String latinName = value(row, "latinName");
+            String code = TextNormalizer.normalize(value(row, "code"));
+            if (name.isEmpty()) {
+                throw new RuntimeException("نام حرکت اجباری است");
+            }
+            if (names.contains(ExerciseService.nameKey(name))) {
+                throw new RuntimeException("نام حرکت تکراری است");
+            }
+            if (latinName.length() > 0 && latinNames.contains(ExerciseService.nameKey(latinName))) {
+                throw new RuntimeException("نام لاتین حرکت تکراری است");
+            }
+            long codeNumber;
+            if (code.isEmpty()) {
+                do {
+                    codeNumber = exerciseCodeAllocator.next(tenant);
+                } while (codes.contains(codeNumber));
+                code = String.valueOf(codeNumber);
+            } else {
+                try {
+                    codeNumber = Long.parseLong(code);
+                } catch (NumberFormatException e) {
+                    throw new RuntimeException("لطفا کد حرکت عددی وارد گردد");
+                }
+                if (codes.contains(codeNumber)) {
+                    throw new RuntimeException("کد حرکت تکراری است");
+                }
+            }
+            names.add(ExerciseService.nameKey(name));
+            if (latinName.length() > 0) {
+                latinNames.add(ExerciseService.nameKey(latinName));
+            }
+            codes.add(codeNumber);
+
+            Exercise exercise = new Exercise();
+            exercise.setTenantId(tenant);
+            exercise.setName(name);
+            exercise.setLatinName(latinName);
+            exercise.setCode(code);
+            exercise.setCodeNumber(codeNumber);
+            exercise.setInvolvedMuscel(value(row, "involvedMuscel"));
+            return new Imported<>(rowNumber, exercise);
+        }
+
+        @Override
+        Map<Imported<Exercise>, String> findConflicts(List<Imported<Exercise>> records) {
+            Set<String> recordNames = new HashSet<>();
+            Set<Long> recordCodes = new HashSet<>();
+            Set<String> recordLatinNames = new HashSet<>();
+            for (Imported<Exercise> record : records) {
+                recordNames.add(record.entity.getName());
+                recordCodes.add(record.entity.getCodeNumber());
+                if (record.entity.getLatinName().length() > 0) {
+                    recordLatinNames.add(record.entity.getLatinName());
+                }
+            }
+            if (recordLatinNames.isEmpty()) {
+                // IN () is not valid SQL, so an empty list is given a value no exercise has
+                recordLatinNames.add("\u0000");
+            }
+            Set<String> storedNames = new HashSet<>();
+            Set<Long> storedCodes = new HashSet<>();
+            Set<String> storedLatinNames = new HashSet<>();
+            for (Exercise exercise : exerciseDao.queryConflictsForTenant(tenant, recordNames, recordCodes,
+                    recordLatinNames, Collections.singleton(-1L))) {
+                storedNames.add(ExerciseService.nameKey(exercise.getName()));
+                if (exercise.getCodeNumber() != null) {
+                    storedCodes.add(exercise.getCodeNumber());
+                }
+                if (exercise.getLatinName() != null && exercise.getLatinName().trim().length() > 0) {
+                    storedLatinNames.add(ExerciseService.nameKey(exercise.getLatinName()));
+                }
+            }
+
+            Map<Imported<Exercise>, String> conflicts = new IdentityHashMap<>();
+            for (Imported<Exercise> record : records) {
+                Exercise exercise = record.entity;
+                if (storedNames.contains(ExerciseService.nameKey(exercise.getName()))) {
+                    conflicts.put(record, "نام حرکت تکراری است");
+                } else if (storedCodes.contains(exercise.getCodeNumber())) {
+                    conflicts.put(record, "کد حرکت تکراری است");
+                } else if (exercise.getLatinName().length() > 0
+                        && storedLatinNames.contains(ExerciseService.nameKey(exercise.getLatinName()))) {
+                    conflicts.put(record, "نام لاتین حرکت تکراری است");
+                }
+            }
+            return conflicts;
+        }
+
+        @Override
+        void write(List<Imported<Exercise>> records) {
+            List<Exercise> exercises = new ArrayList<>(records.size());
+            for (Imported<Exercise> record : records) {
+                // a chunk that was rolled back leaves its generated ids behind
+                record.entity.setId(0);
+                exercises.add(record.entity);
+            }
+            exerciseDao.save(exercises);
+        }
+
+        @Override
+        long rowOf(Imported<Exercise> record) {
+            return record.row;
+        }
+
+        @Override
+        void afterWrite() {
+            exerciseCatalogCache.invalidate(tenant);
+        }
+    }
+
+    private static class ProgramRecord {
+        private final long row;
+        // mobile number, name and date as written in the file; consecutive rows sharing it form one program
+        private final String fileKey;
+        private long personId;
+        private Program program;
+        private final List<ProgramExerciseItem> items = new ArrayList<>();
+        private final Map<Integer, Long> lastIds = new HashMap<>();
+        private boolean rejected;
+
+        ProgramRecord(long row, String fileKey) {
+            this.row = row;
+            this.fileKey = fileKey;
+        }
+    }
+
+    /**
+     * One row per program exercise item; consecutive rows with the same mobileNumber, programName and
+     * programDate form one program. Columns: mobileNumber, programName, programDate, programDescription,
+     * subExerciseId (1 to 6), id (defaults to the previous row's id + 1), exerciseCode or exerciseName,
+     * exerciseSet, exerciseRepeat, exerciseRepeatType (T, S or M, defaults to T), description.
+     * A program with an invalid row is not imported.
+     */
+    private class ProgramImporter extends RowImporter<ProgramRecord> {
+        private final String tenant;
+        private final Map<String, Long> personIds = new HashMap<>();
+        private final Map<String, Long> exerciseIdsByCode = new HashMap<>();
+        private final Map<String, Long> exerciseIdsByName = new HashMap<>();
+        private final Set<String> programKeys = new HashSet<>();
+        private ProgramRecord current;
+
+        ProgramImporter(String tenant) {
+            this.tenant = tenant;
+        }
+
+        @Override
+        void preload() {
+            personDao.queryIdAndMobileNumberForTenant(tenant).forEach(row -> personIds.put(key((String) row[1]), (Long) row[0]));
+            for (Exercise exercise : exerciseCatalogCache.getExercises(tenant)) {
+                exerciseIdsByCode.put(key(exercise.getCode()), exercise.getId());
+                exerciseIdsByName.put(ExerciseService.nameKey(exercise.getName()), exercise.getId());
+            }
+            programDao.queryKeysForTenant(tenant).forEach(row ->
+                    programKeys.add(programKey((Long) row[0], (String) row[1], (Date) row[2])));
+        }
+
+        @Override
+        ProgramRecord parse(Map<String, String> row, long rowNumber) {
+            String fileKey = key(value(row, "mobileNumber")) + "/" + value(row, "programName") + "/" + value(row, "programDate");
+            if (current != null && current.fileKey.equals(fileKey)) {
+                if (!current.rejected) {
+                    addItem(current, row);
+                }
+                return null;
+            }
+
+            ProgramRecord record = new ProgramRecord(rowNumber, fileKey);
+            current = record;
+            Long personId = personIds.get(key(value(row, "mobileNumber")));
+            if (personId == null) {
+                record.rejected = true;
+                throw new RuntimeException("شخصی با این شماره موبایل ثبت نشده است");
+            }
+            String programName = value(row, "programName");
+            if (programName.isEmpty() || value(row, "programDate").isEmpty()) {
+                record.rejected = true;
+                throw new RuntimeException("نام و تاریخ برنامه اجباری است");
+            }
+            Date programDate;
+            try {
+                programDate = dateValue(row, "programDate", "تاریخ برنامه نامعتبر است");
+            } catch (RuntimeException e) {
+                record.rejected = true;
+                throw e;
+            }
+            if (programKeys.contains(programKey(personId, programName, programDate))) {
+                record.rejected = true;
+                throw new RuntimeException("برنامه تکراری است");
+            }
+
+            Program program = new Program();
+            program.setTenantId(tenant);
+            program.setProgramName(programName);
+            program.setProgramDate(programDate);
+            program.setDescription(value(row, "programDescription"));
+            record.personId = personId;
+            record.program = program;
+            addItem(record, row);
+            programKeys.add(programKey(personId, programName, programDate));
+            return record;
+        }
+
+        private void addItem(ProgramRecord record, Map<String, String> row) {
+            try {
+                int subExerciseId = intValue(row, "subExerciseId", "شماره جلسه باید عددی باشد");
+                if (subExerciseId < 1 || subExerciseId > 6) {
+                    throw new RuntimeException("شماره جلسه باید بین ۱ تا ۶ باشد");
+                }
+                String id = TextNormalizer.normalize(value(row, "id"));
+                long itemId;
+                try {
+                    itemId = id.isEmpty() ? record.lastIds.getOrDefault(subExerciseId, 0L) + 1 : Long.parseLong(id);
+                } catch (NumberFormatException e) {
+                    throw new RuntimeException("ردیف حرکت باید عددی باشد");
+                }
+                Long exerciseId = exerciseIdsByCode.get(key(value(row, "exerciseCode")));
+                if (exerciseId == null) {
+                    exerciseId = exerciseIdsByName.get(ExerciseService.nameKey(value(row, "exerciseName")));
+                }
+                if (exerciseId == null) {
+                    throw new RuntimeException("حرکتی با این کد یا نام ثبت نشده است");
+                }
+                String repeatType = value(row, "exerciseRepeatType").toUpperCase();
+                if (repeatType.isEmpty()) {
+                    repeatType = "T";
+                } else if (!repeatType.equals("T") && !repeatType.equals("S") && !repeatType.equals("M")) {
+                    throw new RuntimeException("نوع تکرار باید T، S یا M باشد");
+                }
+
+                ProgramExerciseItem item = new ProgramExerciseItem();
+                item.setId(itemId);
+                item.setExerciseId(exerciseId);
+                item.setSubExerciseId(subExerciseId);
+                item.setExerciseSet(intValue(row, "exerciseSet", "تعداد ست باید عددی باشد"));
+                item.setExerciseRepeat(intValue(row, "exerciseRepeat", "تعداد تکرار باید عددی باشد"));
+                item.setExerciseRepeatType(repeatType);
+                item.setDescription(value(row, "description"));
+                record.items.add(item);
+                record.lastIds.put(subExerciseId, itemId);
+            } catch (RuntimeException e) {
+                record.rejected = true;
+                throw new RuntimeException(e.getMessage() + "؛ برنامه وارد نشد");
+            }
+        }
+
+        @Override
+        Map<ProgramRecord, String> findConflicts(List<ProgramRecord> records) {
+            Set<Long> personIds = new HashSet<>();
+            records.forEach(record -> personIds.add(record.personId));
+            Set<String> stored = new HashSet<>();
+            programDao.queryKeysByPersonIdsForTenant(tenant, personIds).forEach(row ->
+                    stored.add(programKey((Long) row[0], (String) row[1], (Date) row[2])));
+
+            Map<ProgramRecord, String> conflicts = new IdentityHashMap<>();
+            for (ProgramRecord record : records) {
+                Program program = record.program;
+                if (stored.contains(programKey(record.personId, program.getProgramName(), program.getProgramDate()))) {
+                    conflicts.put(record, "برنامه تکراری است");
+                }
+            }
+            return conflicts;
+        }
+
+        @Override
+        void write(List<ProgramRecord> records) {
+            List<ProgramExerciseItem> items = new ArrayList<>();
+            for (ProgramRecord record : records) {
+                Program program = record.program;
+                // a chunk that was rolled back leaves its generated ids behind
+                program.setId(0);
+                program.setPerson(personDao.getOne(record.personId));
+                programDao.save(program);
+                for (ProgramExerciseItem item : record.items) {
+                    item.setIdpk(0);
+                    item.setProgramId(program.getId());
+                    items.add(item);
+                }
+            }
+            programExerciseItemDao.save(items);
+        }
+
+        @Override
+        long rowOf(ProgramRecord record) {
+            return record.row;
+        }
+
+        @Override
+        boolean isRejected(ProgramRecord record) {
+            return record.rejected;
+        }
+
+        @Override
+        void afterWrite() {
+            measurementSeriesCache.invalidateTenant(tenant);
+        }
+
+        @Override
+        void finish() {
+            progressAnalyticsService.rebuildTenant(tenant);
+        }
+
+        private String programKey(long personId, String programName, Date programDate) {
+            return personId + "/" + key(programName) + "/" + DateUtil.getShamsiDate(programDate);
+        }
+    }
+
+    private class ImportJob {
+        private final String jobId;
+        private final String tenant;
+        private final String kind;
+        private final long fileSize;
+        private final List<ImportRowError> errors = new ArrayList<>();
+        private volatile String status = STATUS_QUEUED;
+        private volatile CountingInputStream counter;
+        // written only by the import thread
+        private volatile long rowsRead;
+        private volatile long imported;
+        private volatile long rowsFailed;
+        private volatile long startedAt;
+        private volatile long finishedAt;
+        private volatile String error;
+
+        ImportJob(String jobId, String tenant, String kind, long fileSize) {
+            this.jobId = jobId;
+            this.tenant = tenant;
+            this.kind = kind;
+            this.fileSize = fileSize;
+        }
+
+        synchronized void addError(long row, String message) {
+            rowsFailed++;
+            if (errors.size() < maxErrors) {
+                errors.add(new ImportRowError(row, message));
+            }
+        }
+
+        ImportJobView toView() {
+            ImportJobView view = new ImportJobView();
+            view.setJobId(jobId);
+            view.setKind(kind);
+            view.setStatus(status);
+            view.setFileSize(fileSize);
+            CountingInputStream counter = this.counter;
+            view.setBytesRead(finishedAt > 0 ? fileSize : counter == null ? 0 : Math.min(fileSize, counter.getByteCount()));
+            view.setRowsRead(rowsRead);
+            view.setImported(imported);
+            view.setRowsFailed(rowsFailed);
+            long elapsed = startedAt == 0 ? 0 : (finishedAt > 0 ? finishedAt : System.currentTimeMillis()) - startedAt;
+            view.setElapsedMillis(elapsed);
+            view.setRowsPerSecond(elapsed == 0 ? 0 : rowsRead * 1000 / elapsed);
+            synchronized (this) {
+                view.setErrors(new ArrayList<>(errors));
+            }
+            view.setError(error);
+            return view;
+        }
+    }
+}
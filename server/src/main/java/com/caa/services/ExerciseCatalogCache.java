@@ -0,0 +1,231 @@
+package com.caa.services;
+
+import com.caa.dao.ExerciseDao;
+import com.caa.model.Exercise;
+import com.caa.modelview.ExerciseView;
+import com.caa.util.LruCache;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process exercise catalog, partitioned by tenant. Each tenant's catalog is loaded with one query
+ * and kept until an exercise of that tenant is saved or deleted.
+ *
+ * The catalog is shared by every request of the tenant, so it only ever hands out copies of its
+ * exercises; a caller changing what it got cannot change what the next caller sees.
+ */
+@Repository
+public class ExerciseCatalogCache {
+
+    @Autowired
+    private ExerciseDao exerciseDao;
+
+    @Value("${exercise.catalog.cache.max-tenants:200}")
+    private int maxTenants;
+
+    private LruCache<String, TenantCatalog> catalogs;
+
+    /**
+     * Bumped on every invalidation so a load that raced with a save does not store a stale catalog.
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        catalogs = new LruCache<>(maxTenants);
+    }
+
+    public List<Exercise> getExercises(String tenant) {
+        return copies(getCatalog(tenant).exercises);
+    }
+
+    public int getExerciseCount(String tenant) {
+        return getCatalog(tenant).exercises.size();
+    }
+
+    public List<ExerciseView> getShortList(String tenant) {
+        return views(getCatalog(tenant).exercises);
+    }
+
+    /**
+     * @return up to limit exercises with an id greater than afterId, in id order
+     */
+    public List<Exercise> getExercisesAfter(String tenant, long afterId, int limit) {
+        TenantCatalog catalog = getCatalog(tenant);
+        return copies(page(catalog.exercises, catalog.firstIndexAfter(afterId), limit));
+    }
+
+    /**
+     * @return up to limit short list entries with an id greater than afterId, in id order
+     */
+    public List<ExerciseView> getShortListAfter(String tenant, long afterId, int limit) {
+        TenantCatalog catalog = getCatalog(tenant);
+        return views(page(catalog.exercises, catalog.firstIndexAfter(afterId), limit));
+    }
+
+    /**
+     * @return at most limit exercises matching the query, best first; see {@link ExerciseSearchIndex}
+     */
+    public List<ExerciseView> search(String tenant, String query, int limit) {
+        List<ExerciseView> result = new ArrayList<>();
+        getCatalog(tenant).searchIndex.search(query, limit).forEach(e -> result.add(new ExerciseView(e)));
+        return result;
+    }
+
+    /**
+     * Resolves the given exercise ids among the tenant's exercises, falling back to one IN-list query
+     * for ids missing from the catalog, as an exercise saved while the catalog was loaded would be.
+     * Ids the query does not find either, such as those of deleted exercises, are remembered by the
+     * catalog and not queried again until it is invalidated.
+     */
+    public Map<Long, Exercise> getExercises(String tenant, Collection<Long> ids) {
+        TenantCatalog catalog = getCatalog(tenant);
+        Map<Long, Exercise> result = new HashMap<>();
+        Set<Long> missing = new HashSet<>();
+        for (Long id : ids) {
+            Exercise exercise = catalog.byId.get(id);
+            if (exercise != null) {
+                result.put(id, copyOf(exercise));
+            } else if (!catalog.unknownIds.contains(id)) {
+                missing.add(id);
+            }
+        }
+        if (missing.size() > 0) {
+            for (Exercise exercise : exerciseDao.queryByIdsForTenant(tenant, missing)) {
+                result.put(exercise.getId(), exercise);
+                missing.remove(exercise.getId());
+            }
+            catalog.unknownIds.addAll(missing);
+        }
+        return result;
+    }
+
+    public void invalidate(String tenant) {
+        generation.incrementAndGet();
+        catalogs.remove(tenant);
+    }
+
+    /**
+     * Drops the tenant's catalog once the current transaction commits, or right away when there is none.
+     */
+    public void invalidateAfterCommit(String tenant) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            invalidate(tenant);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                invalidate(tenant);
+            }
+        });
+    }
+
+    /**
+     * The cache itself, whose counters MetricsConfiguration reads one at a time.
+     */
+    public LruCache<?, ?> getCache() {
+        return catalogs;
+    }
+
+    public Map<String, Long> getStats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("tenants", (long) catalogs.size());
+        stats.put("maxTenants", catalogs.getMaxWeight());
+        stats.put("hits", catalogs.getHits());
+        stats.put("misses", catalogs.getMisses());
+        stats.put("evictions", catalogs.getEvictions());
+        return stats;
+    }
+
+    private TenantCatalog getCatalog(String tenant) {
+        TenantCatalog catalog = catalogs.get(tenant);
+        if (catalog != null) {
+            return catalog;
+        }
+        long loadGeneration = generation.get();
+        catalog = new TenantCatalog(exerciseDao.queryAllForTenant(tenant));
+        if (generation.get() == loadGeneration) {
+            catalogs.put(tenant, catalog);
+        }
+        return catalog;
+    }
+
+    private static <T> List<T> page(List<T> list, int from, int limit) {
+        return list.subList(from, Math.min(list.size(), from + limit));
+    }
+
+    private static List<Exercise> copies(List<Exercise> exercises) {
+        List<Exercise> result = new ArrayList<>(exercises.size());
+        exercises.forEach(e -> result.add(copyOf(e)));
+        return result;
+    }
+
+    private static List<ExerciseView> views(List<Exercise> exercises) {
+        List<ExerciseView> result = new ArrayList<>(exercises.size());
+        exercises.forEach(e -> result.add(new ExerciseView(e)));
+        return result;
+    }
+
+    private static Exercise copyOf(Exercise exercise) {
+        Exercise copy = new Exercise();
+        copy.setId(exercise.getId());
+        copy.setTenantId(exercise.getTenantId());
+        copy.setName(exercise.getName());
+        copy.setLatinName(exercise.getLatinName());
+        copy.setCode(exercise.getCode());
+        copy.setCodeNumber(exercise.getCodeNumber());
+        copy.setInvolvedMuscel(exercise.getInvolvedMuscel());
+        return copy;
+    }
+
+    private static class TenantCatalog {
+        // both are ordered by id, so pages can be cut with a binary search; the exercises are
+        // detached copies, not the entities of the persistence context they were loaded in
+        private final List<Exercise> exercises;
+        private final long[] ids;
+        private final Map<Long, Exercise> byId;
+        private final ExerciseSearchIndex searchIndex;
+        // ids looked up by getExercises that are not exercises of the tenant
+        private final Set<Long> unknownIds = ConcurrentHashMap.newKeySet();
+
+        TenantCatalog(List<Exercise> list) {
+            list = copies(list);
+            list.sort(Comparator.comparingLong(Exercise::getId));
+            long[] sortedIds = new long[list.size()];
+            Map<Long, Exercise> map = new HashMap<>(list.size() * 2);
+            for (int i = 0; i < list.size(); i++) {
+                Exercise e = list.get(i);
+                sortedIds[i] = e.getId();
+                map.put(e.getId(), e);
+            }
+            this.exercises = Collections.unmodifiableList(list);
+            this.ids = sortedIds;
+            this.byId = map;
+            this.searchIndex = new ExerciseSearchIndex(this.exercises);
+        }
+
+        int firstIndexAfter(long afterId) {
+            int index = Arrays.binarySearch(ids, afterId);
+            return index >= 0 ? index + 1 : -index - 1;
+        }
+    }
+}
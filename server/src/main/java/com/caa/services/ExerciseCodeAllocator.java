@@ -0,0 +1,124 @@
+package com.caa.services;
+
+import com.caa.dao.ExerciseCodeSequenceDao;
+import com.caa.dao.ExerciseDao;
+import com.caa.model.ExerciseCodeSequence;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Hands out new exercise codes per tenant. Codes are reserved from the tenant's row in
+ * exercise_code_sequence a block at a time, in a transaction of their own that holds the row lock
+ * only for the reservation, and then handed out from memory with an atomic increment. Codes of a
+ * block still unused when the server stops are skipped.
+ */
+@Repository
+public class ExerciseCodeAllocator {
+
+    /**
+     * First code of a tenant without exercises; codes used to be numbered after 1000.
+     */
+    public static final long FIRST_CODE = 1001;
+
+    @Autowired
+    private ExerciseCodeSequenceDao exerciseCodeSequenceDao;
+
+    @Autowired
+    private ExerciseDao exerciseDao;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Value("${exercise.code.block-size:20}")
+    private int blockSize;
+
+    private TransactionTemplate requiresNew;
+
+    private final Map<String, AtomicReference<Block>> blocks = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        requiresNew = new TransactionTemplate(transactionManager);
+        requiresNew.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    /**
+     * @return a code of the tenant never handed out before
+     */
+    public long next(String tenant) {
+        AtomicReference<Block> current = blocks.computeIfAbsent(tenant, t -> new AtomicReference<>(Block.EMPTY));
+        while (true) {
+            Block block = current.get();
+            long code = block.take();
+            if (code >= 0) {
+                return code;
+            }
+            // only the thread that finds the block used up reserves the next one; the others wait for it
+            synchronized (current) {
+                if (current.get() == block) {
+                    current.set(reserve(tenant));
+                }
+            }
+        }
+    }
+
+    private Block reserve(String tenant) {
+        try {
+            return requiresNew.execute(status -> reserveBlock(tenant));
+        } catch (DataIntegrityViolationException e) {
+            // another server created the tenant's row first; it exists now, so lock it and retry
+            return requiresNew.execute(status -> reserveBlock(tenant));
+        }
+    }
+
+    private Block reserveBlock(String tenant) {
+        List<ExerciseCodeSequence> rows = exerciseCodeSequenceDao.queryForUpdate(tenant);
+        if (rows.isEmpty()) {
+            Long max = exerciseDao.queryMaxCodeNumberForTenant(tenant);
+            long first = max == null ? FIRST_CODE : Math.max(FIRST_CODE, max + 1);
+            // a row another server created since the query above must fail the insert, not be overwritten
+            exerciseCodeSequenceDao.insert(tenant, first + blockSize);
+            return new Block(first, first + blockSize);
+        }
+        ExerciseCodeSequence sequence = rows.get(0);
+        long first = sequence.getNextCode();
+        sequence.setNextCode(first + blockSize);
+        exerciseCodeSequenceDao.saveAndFlush(sequence);
+        return new Block(first, first + blockSize);
+    }
+
+    /**
+     * Codes [next, end) reserved for this server.
+     */
+    private static class Block {
+        private static final Block EMPTY = new Block(0, 0);
+
+        private final AtomicLong next;
+        private final long end;
+
+        Block(long first, long end) {
+            this.next = new AtomicLong(first);
+            this.end = end;
+        }
+
+        /**
+         * @return the next code of the block, or -1 when it is used up
+         */
+        long take() {
+            long code = next.getAndIncrement();
+            return code < end ? code : -1;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.caa.services;
+
+import com.caa.model.Exercise;
+import com.caa.util.TextNormalizer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Prefix index over the name, latin name, code and involved muscles of one tenant's exercises.
+ * Every normalized word of those fields, and each whole field, is kept in one sorted term array,
+ * so the terms starting with a prefix are a contiguous run found by binary search. The index is
+ * immutable and rebuilt with the catalog that owns it.
+ */
+public class ExerciseSearchIndex {
+
+    // how much a prefix match on each field counts; a match of the whole term doubles it
+    private static final int WEIGHT_CODE = 8;
+    private static final int WEIGHT_NAME = 6;
+    private static final int WEIGHT_LATIN_NAME = 4;
+    private static final int WEIGHT_MUSCLE = 1;
+    // a query matching the start of the whole field ranks above one matching a later word
+    private static final int FIELD_START_BONUS = 1;
+
+    private final List<Exercise> exercises;
+    private final String[] terms;
+    private final int[] termExercise;
+    private final int[] termWeight;
+    private final boolean[] termIsFieldStart;
+
+    private static class Term {
+        private final String text;
+        private final int exercise;
+        private final int weight;
+        private final boolean fieldStart;
+
+        Term(String text, int exercise, int weight, boolean fieldStart) {
+            this.text = text;
+            this.exercise = exercise;
+            this.weight = weight;
+            this.fieldStart = fieldStart;
+        }
+    }
+
+    public ExerciseSearchIndex(List<Exercise> exercises) {
+        this.exercises = exercises;
+        List<Term> list = new ArrayList<>();
+        for (int i = 0; i < exercises.size(); i++) {
+            Exercise e = exercises.get(i);
+            addTerms(list, e.getCode(), i, WEIGHT_CODE);
+            addTerms(list, e.getName(), i, WEIGHT_NAME);
+            addTerms(list, e.getLatinName(), i, WEIGHT_LATIN_NAME);
+            addTerms(list, e.getInvolvedMuscel(), i, WEIGHT_MUSCLE);
+        }
+        list.sort(Comparator.comparing(t -> t.text));
+
+        terms = new String[list.size()];
+        termExercise = new int[list.size()];
+        termWeight = new int[list.size()];
+        termIsFieldStart = new boolean[list.size()];
+        for (int i = 0; i < list.size(); i++) {
+            Term t = list.get(i);
+            terms[i] = t.text;
+            termExercise[i] = t.exercise;
+            termWeight[i] = t.weight;
+            termIsFieldStart[i] = t.fieldStart;
+        }
+    }
+
+    /**
+     * Each word of the query has to be a prefix of some word of the exercise; exercises are ranked by
+     * which fields matched and how fully, then by shorter name.
+     * @return at most limit exercises, best first
+     */
+    public List<Exercise> search(String query, int limit) {
+        String q = TextNormalizer.normalize(query);
+        if (q.isEmpty() || limit <= 0) {
+            return new ArrayList<>();
+        }
+
+        Map<Integer, Integer> scores = null;
+        for (String word : q.split(" ")) {
+            Map<Integer, Integer> wordScores = scorePrefix(word);
+            if (scores == null) {
+                scores = wordScores;
+            } else {
+                Map<Integer, Integer> both = new HashMap<>();
+                for (Map.Entry<Integer, Integer> entry : scores.entrySet()) {
+                    Integer score = wordScores.get(entry.getKey());
+                    if (score != null) {
+                        both.put(entry.getKey(), entry.getValue() + score);
+                    }
+                }
+                scores = both;
+            }
+            if (scores.isEmpty()) {
+                return new ArrayList<>();
+            }
+        }
+        Map<Integer, Integer> ranked = scores;
+        // the whole query as one term, so "leg press" also ranks an exercise named exactly that first
+        if (q.indexOf(' ') > 0) {
+            scorePrefix(q).forEach((exercise, score) -> ranked.computeIfPresent(exercise, (k, v) -> v + score));
+        }
+
+        List<Integer> candidates = new ArrayList<>(ranked.keySet());
+        candidates.sort(Comparator.<Integer>comparingInt(i -> -ranked.get(i))
+                .thenComparingInt(i -> length(exercises.get(i).getName()))
+                .thenComparingLong(i -> exercises.get(i).getId()));
+
+        List<Exercise> result = new ArrayList<>(Math.min(limit, candidates.size()));
+        for (int i = 0; i < candidates.size() && i < limit; i++) {
+            result.add(exercises.get(candidates.get(i)));
+        }
+        return result;
+    }
+
+    /**
+     * @return best score of every exercise with a term starting with the prefix, by exercise index
+     */
+    private Map<Integer, Integer> scorePrefix(String prefix) {
+        Map<Integer, Integer> scores = new HashMap<>();
+        int from = Arrays.binarySearch(terms, prefix);
+        if (from < 0) {
+            from = -from - 1;
+        } else {
+            // equal terms can repeat; step back to the first one
+            while (from > 0 && terms[from - 1].equals(prefix)) {
+                from--;
+            }
+        }
+        for (int i = from; i < terms.length && terms[i].startsWith(prefix); i++) {
+            int score = termWeight[i] * (terms[i].length() == prefix.length() ? 2 : 1)
+                    + (termIsFieldStart[i] ? FIELD_START_BONUS : 0);
+            scores.merge(termExercise[i], score, Math::max);
+        }
+        return scores;
+    }
+
+    private static void addTerms(List<Term> list, String field, int exercise, int weight) {
+        String text = TextNormalizer.normalize(field);
+        if (text.isEmpty()) {
+            return;
+        }
+        String[] words = text.split(" ");
+        for (int i = 0; i < words.length; i++) {
+            list.add(new Term(words[i], exercise, weight, i == 0));
+        }
+        if (words.length > 1) {
+            list.add(new Term(text, exercise, weight, true));
+        }
+    }
+
+    private static int length(String s) {
+        return s == null ? 0 : s.length();
+    }
+}
@@ -1,17 +1,22 @@
 package com.caa.services;
 
 import com.caa.dao.ExerciseDao;
-import com.caa.modelview.ProgramExerciseItemView;
-import com.caa.report.ProgramExercisesReportDTO;
+import com.caa.model.Exercise;
+import com.caa.modelview.ExerciseSaveResult;
 import com.caa.services.security.impl.CustomUserDetailsService;
-import org.apache.commons.collections.map.HashedMap;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
+import java.util.Set;
 
 /**
  * Created by Reza on 27/08/2018.
@@ -19,179 +24,212 @@ import java.util.TreeMap;
 @Repository
 public class ExerciseService {
 
-    private static final String REPEAT_TYPE_SECOND = "S";
-    private static final String REPEAT_TYPE_MINUTE = "M";
-    private static final String REPEAT_TYPE_REPEAT = "T";
+    private static final String NO_NAME = "\u0000";
+    private static final long NO_ID = -1;
 
     @Autowired
     private ExerciseDao exerciseDao;
 
-    public List<ProgramExercisesReportDTO> convertProgramExerciseToReportDTO(List<ProgramExerciseItemView> list) {
-        Map<Integer, Map<Long, String>> exerciseNameMapList = new HashedMap();
-        Map<Integer, Map<Long, String>> exerciseRepeatSetMapList = new HashedMap();
-//        Map<Integer, Map<Long, String>> mapDescList = new HashedMap();
-
-        list.forEach(programExerciseItemView -> {
-            String exerciseName = "";
-            exerciseName = programExerciseItemView.getExerciseName();
-            String set = programExerciseItemView.getExerciseSet() + "";
-            String repeat = programExerciseItemView.getExerciseRepeat() +
-                    getExerciseRepeatTypeSymbol(programExerciseItemView.getExerciseRepeatType());
-            int subExerciseId = programExerciseItemView.getSubExerciseId();
-            long id = programExerciseItemView.getId();
-            String desc = programExerciseItemView.getDescription();
-            // exercise name string
-            if (exerciseNameMapList.get(subExerciseId) == null) {
-                exerciseNameMapList.put(subExerciseId, new HashedMap());
-            }
-            if (exerciseNameMapList.get(subExerciseId).get(id) == null) {
-                exerciseNameMapList.get(subExerciseId).put(id, id + " - " + exerciseName);
-            }else {
-                exerciseNameMapList.get(subExerciseId).replace(id, exerciseNameMapList.get(subExerciseId).get(id) + " + " +  exerciseName);
-            }
-            //exercise repeat set String
-            if (exerciseRepeatSetMapList.get(subExerciseId) == null) {
-                exerciseRepeatSetMapList.put(subExerciseId, new HashedMap());
-            }
-            if (exerciseRepeatSetMapList.get(subExerciseId).get(id) == null) {
-                exerciseRepeatSetMapList.get(subExerciseId).put(id, set + ". " + repeat);
-            }else {
-                exerciseRepeatSetMapList.get(subExerciseId).replace(id, exerciseRepeatSetMapList.get(subExerciseId).get(id) + " + " +  repeat);
-            }
-
-        });
-        List<ProgramExercisesReportDTO> dtos = new ArrayList<>();
+    @Autowired
+    private ExerciseCodeAllocator exerciseCodeAllocator;
 
-        Map<Integer, TreeMap<Long, String>> sortedList = sortList(exerciseNameMapList);
+    @Autowired
+    private ExerciseCatalogCache exerciseCatalogCache;
 
-        for (Integer key : sortedList.keySet()) {
-            TreeMap<Long, String> tmap = sortedList.get(key);
-            Map<Long, String> exerciseRepeatSetMapItemMap = exerciseRepeatSetMapList.get(key);
-            if (tmap.size() > 0) {
-                for (Long subKey: tmap.keySet()) {
-                    addToPrintDtoList(dtos, key, subKey, tmap.get(subKey), exerciseRepeatSetMapItemMap.get(subKey));
+    /**
+     * Validates and saves a batch of new or edited exercises of the current tenant. Names, codes and
+     * latin names are checked against the stored exercises with one query for the whole batch, and
+     * against the other exercises of the batch; exercises that fail are left out and reported. An
+     * empty name is saved as before, and clashes only with another exercise without a name.
+     * @return one result per exercise, in the order given
+     */
+    @Transactional
+    public List<ExerciseSaveResult> saveExercises(List<Exercise> exercises) {
+        String tenant = CustomUserDetailsService.getCurrentUserTenant();
+        List<ExerciseSaveResult> results = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+        Set<Long> codeNumbers = new HashSet<>();
+        Set<String> latinNames = new HashSet<>();
+        Set<Long> ids = new HashSet<>();
+        for (int i = 0; i < exercises.size(); i++) {
+            Exercise exercise = exercises.get(i);
+            ExerciseSaveResult result = new ExerciseSaveResult(i, exercise);
+            results.add(result);
+            exercise.setName(trim(exercise.getName()));
+            exercise.setLatinName(trim(exercise.getLatinName()));
+            exercise.setCode(trim(exercise.getCode()));
+            exercise.setCodeNumber(null);
+            if (exercise.getCode().length() > 0) {
+                try {
+                    exercise.setCodeNumber(Long.parseLong(exercise.getCode()));
+                    codeNumbers.add(exercise.getCodeNumber());
+                } catch (NumberFormatException e) {
+                    result.getErrors().add("لطفا کد حرکت عددی وارد گردد");
                 }
             }
+            names.add(exercise.getName());
+            if (exercise.getLatinName().length() > 0) {
+                latinNames.add(exercise.getLatinName());
+            }
+            if (exercise.getId() > 0) {
+                ids.add(exercise.getId());
+            }
         }
-        return  dtos;
-    }
 
-    private void addToPrintDtoList( List<ProgramExercisesReportDTO> dtos,
-                                    Integer subListIndex, Long id, String exercise, String repeatSet ) {
-        boolean found = false;
-        for (ProgramExercisesReportDTO item: dtos) {
-            if (subListIndex == 1 && (item.getProgram1Id() == null || item.getProgram1Id() == 0)){
-                addItem(item, subListIndex, id, exercise, repeatSet);
-                found = true;
-                break;
-            }else
-            if (subListIndex == 2 && (item.getProgram2Id() == null || item.getProgram2Id() == 0)){
-                addItem(item, subListIndex, id, exercise, repeatSet);
-                found = true;
-                break;
-            }else
-            if (subListIndex == 3 && (item.getProgram3Id() == null || item.getProgram3Id() == 0)){
-                addItem(item, subListIndex, id, exercise, repeatSet);
-                found = true;
-                break;
-            }else
-            if (subListIndex == 4 && (item.getProgram4Id() == null || item.getProgram4Id() == 0)){
-                addItem(item, subListIndex, id, exercise, repeatSet);
-                found = true;
-                break;
-            }else
-            if (subListIndex == 5 && (item.getProgram5Id() == null || item.getProgram5Id() == 0)){
-                addItem(item, subListIndex, id, exercise, repeatSet);
-                found = true;
-                break;
-            }else
-            if (subListIndex == 6 && (item.getProgram6Id() == null || item.getProgram6Id() == 0)){
-                addItem(item, subListIndex, id, exercise, repeatSet);
-                found = true;
+        List<Exercise> stored = exerciseDao.queryConflictsForTenant(tenant, orNone(names, NO_NAME),
+                orNone(codeNumbers, NO_ID), orNone(latinNames, NO_NAME), orNone(ids, NO_ID));
+        Set<Long> storedIds = new HashSet<>();
+        stored.forEach(exercise -> storedIds.add(exercise.getId()));
+
+        // a stored exercise gives up its name, code and latin name to the batch only when its edit is
+        // saved; each edit found invalid keeps the stored values claimed and the batch is checked again
+        Set<Long> released = new HashSet<>();
+        results.forEach(result -> {
+            if (result.getErrors().isEmpty() && result.getExercise().getId() > 0) {
+                released.add(result.getExercise().getId());
+            }
+        });
+        Claims claims;
+        Map<Integer, List<String>> conflicts;
+        while (true) {
+            claims = new Claims();
+            conflicts = new HashMap<>();
+            for (Exercise exercise : stored) {
+                if (!released.contains(exercise.getId())) {
+                    claims.claim(exercise, "s" + exercise.getId());
+                }
+            }
+            for (ExerciseSaveResult result : results) {
+                if (result.getErrors().size() > 0) {
+                    continue;
+                }
+                List<String> errors = claims.check(result, storedIds);
+                if (errors.isEmpty()) {
+                    claims.claim(result.getExercise(), "b" + result.getIndex());
+                } else {
+                    conflicts.put(result.getIndex(), errors);
+                }
+            }
+            boolean restored = false;
+            for (Integer index : conflicts.keySet()) {
+                restored |= released.remove(results.get(index).getExercise().getId());
+            }
+            if (!restored) {
                 break;
             }
         }
 
-        if (!found) {
-            ProgramExercisesReportDTO newItem  = new ProgramExercisesReportDTO();
-            dtos.add(newItem);
-            newItem.setProgram1Exercise("");
-            newItem.setProgram2Exercise("");
-            newItem.setProgram3Exercise("");
-            newItem.setProgram4Exercise("");
-            newItem.setProgram5Exercise("");
-            newItem.setProgram6Exercise("");
-            addItem(newItem, subListIndex, id, exercise, repeatSet);
+        List<ExerciseSaveResult> valid = new ArrayList<>();
+        List<Exercise> toSave = new ArrayList<>();
+        for (ExerciseSaveResult result : results) {
+            if (result.getErrors().size() > 0) {
+                continue;
+            }
+            if (conflicts.containsKey(result.getIndex())) {
+                result.getErrors().addAll(conflicts.get(result.getIndex()));
+                continue;
+            }
+            Exercise exercise = result.getExercise();
+            exercise.setTenantId(tenant);
+            if (exercise.getCodeNumber() == null) {
+                long code;
+                do {
+                    code = Long.parseLong(getNewCode());
+                } while (claims.codeOwners.containsKey(code));
+                claims.codeOwners.put(code, "b" + result.getIndex());
+                exercise.setCode(String.valueOf(code));
+                exercise.setCodeNumber(code);
+            }
+            valid.add(result);
+            toSave.add(exercise);
+        }
+        if (toSave.size() > 0) {
+            List<Exercise> saved = exerciseDao.save(toSave);
+            for (int i = 0; i < valid.size(); i++) {
+                valid.get(i).setExercise(saved.get(i));
+            }
+            exerciseCatalogCache.invalidateAfterCommit(tenant);
         }
+        return results;
     }
 
-    private void addItem(ProgramExercisesReportDTO reportDTOItem,
-            Integer subListIndex, Long id, String exercise, String repeatSet) {
-        switch (subListIndex) {
-            case 1 :
-                reportDTOItem.setProgram1Id(id);
-                reportDTOItem.setProgram1Exercise(exercise);
-                reportDTOItem.setProgram1ExerciseRepeatSet(repeatSet);
-                break;
-            case 2 :
-                reportDTOItem.setProgram2Id(id);
-                reportDTOItem.setProgram2Exercise(exercise);
-                reportDTOItem.setProgram2ExerciseRepeatSet(repeatSet);
-                break;
-            case 3 :
-                reportDTOItem.setProgram3Id(id);
-                reportDTOItem.setProgram3Exercise(exercise);
-                reportDTOItem.setProgram3ExerciseRepeatSet(repeatSet);
-                break;
-            case 4 :
-                reportDTOItem.setProgram4Id(id);
-                reportDTOItem.setProgram4Exercise(exercise);
-                reportDTOItem.setProgram4ExerciseRepeatSet(repeatSet);
-                break;
-            case 5 :
-                reportDTOItem.setProgram5Id(id);
-                reportDTOItem.setProgram5Exercise(exercise);
-                reportDTOItem.setProgram5ExerciseRepeatSet(repeatSet);
-                break;
-            case 6 :
-                reportDTOItem.setProgram6Id(id);
-                reportDTOItem.setProgram6Exercise(exercise);
-                reportDTOItem.setProgram6ExerciseRepeatSet(repeatSet);
-                break;
+    /**
+     * Who holds each name, code and latin name once the batch is saved: "s" + id for a stored
+     * exercise the batch leaves alone, "b" + index for an exercise of the batch.
+     */
+    private static class Claims {
+        private final Map<String, String> nameOwners = new HashMap<>();
+        private final Map<Long, String> codeOwners = new HashMap<>();
+        private final Map<String, String> latinNameOwners = new HashMap<>();
+
+        void claim(Exercise exercise, String owner) {
+            nameOwners.put(nameKey(exercise.getName()), owner);
+            if (exercise.getCodeNumber() != null) {
+                codeOwners.put(exercise.getCodeNumber(), owner);
+            }
+            if (exercise.getLatinName() != null && exercise.getLatinName().trim().length() > 0) {
+                latinNameOwners.put(nameKey(exercise.getLatinName()), owner);
+            }
+        }
+
+        /**
+         * @return why the exercise of the batch cannot be saved next to the current claims
+         */
+        List<String> check(ExerciseSaveResult result, Set<Long> storedIds) {
+            Exercise exercise = result.getExercise();
+            // an edit does not clash with its own stored values, released or not
+            Set<String> owners = new HashSet<>(Arrays.asList("b" + result.getIndex(), "s" + exercise.getId()));
+            List<String> errors = new ArrayList<>();
+            if (exercise.getId() > 0 && !storedIds.contains(exercise.getId())) {
+                errors.add("حرکت مورد نظر یافت نشد");
+            }
+            if (isClaimed(nameOwners, nameKey(exercise.getName()), owners)) {
+                errors.add("نام حرکت تکراری است");
+            }
+            if (exercise.getCodeNumber() != null && isClaimed(codeOwners, exercise.getCodeNumber(), owners)) {
+                errors.add("کد حرکت تکراری است");
+            }
+            if (exercise.getLatinName().length() > 0 && isClaimed(latinNameOwners, nameKey(exercise.getLatinName()), owners)) {
+                errors.add("نام لاتین حرکت تکراری است");
+            }
+            return errors;
+        }
+
+        private static <K> boolean isClaimed(Map<K, String> claims, K key, Set<String> owners) {
+            String current = claims.get(key);
+            return current != null && !owners.contains(current);
         }
     }
+
     /**
-     * Sort by converting to TreeMap
-     * @param map
-     * @return treeMap structure
+     * Names compare like the database collation does, ignoring case and surrounding spaces; the
+     * duplicate checks of {@link BulkImportService} use the same rule.
      */
-    private Map<Integer, TreeMap<Long, String>> sortList(Map<Integer, Map<Long, String>> map) {
-        Map<Integer, TreeMap<Long, String>> newMap = new HashedMap();
-        for (Integer key : map.keySet()) {
-//            for (Map.Entry entry : map.entrySet()) {
-            TreeMap<Long, String> treeMap = new TreeMap<Long, String>(map.get(key));
-            newMap.put(key, treeMap);
-        }
-        return newMap;
+    public static String nameKey(String name) {
+        return name == null ? "" : name.trim().toLowerCase();
     }
 
-    private String getExerciseRepeatTypeSymbol(String type) {
-        switch (type) {
-            case REPEAT_TYPE_SECOND : return "\"";
-            case REPEAT_TYPE_MINUTE : return "'";
-            case REPEAT_TYPE_REPEAT : return "";
-        }
-        return "";
+    private static String trim(String s) {
+        return s == null ? "" : s.trim();
     }
 
+    /**
+     * IN () is not valid SQL, so an empty list of keys is given a value no exercise has.
+     */
+    private static <T> Collection<T> orNone(Collection<T> keys, T none) {
+        return keys.isEmpty() ? Collections.singleton(none) : keys;
+    }
+
+    /**
+     * @return the next free code of the current tenant's exercises
+     */
     public String getNewCode() {
-        String code = "1000";
         String tenant = CustomUserDetailsService.getCurrentUserTenant();
-        String c = exerciseDao.queryMaxCodeForTenant(tenant);
-        if (c != null) {
-            code = c;
+        long code = exerciseCodeAllocator.next(tenant);
+        // codes typed in by hand can be ahead of the sequence
+        while (exerciseDao.countByCodeNumberForTenant(tenant, code) > 0) {
+            code = exerciseCodeAllocator.next(tenant);
         }
-        code = (Integer.parseInt(code) + 1) + "";
-        return code;
+        return String.valueOf(code);
     }
 }
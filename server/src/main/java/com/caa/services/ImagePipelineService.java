@@ -0,0 +1,260 @@
+package com.caa.services;
+
+import com.caa.dao.PersonDao;
+import com.caa.model.ImageRef;
+import com.caa.util.ImageUtil;
+import com.caa.util.ThumbnailSpec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Builds thumbnails of uploaded pictures on a dedicated executor, so uploads return as soon as the
+ * original is stored. From the commit of the upload until its job finishes, the picture reports
+ * PENDING through {@link #getPersonThumbnailStatus} and {@link #getProgramPictureStatus}; a failed
+ * job, or one the executor rejected on shutdown, reports FAILED for
+ * image.pipeline.failed-status-ttl-minutes, or until the picture is uploaded again. An upload that
+ * rolls back leaves no status behind.
+ */
+@Repository
+public class ImagePipelineService {
+
+    private static Logger logger = LoggerFactory.getLogger(ImagePipelineService.class);
+
+    public static final String SMALL = "small";
+
+    public static final String STATUS_PENDING = "PENDING";
+    public static final String STATUS_READY = "READY";
+    public static final String STATUS_FAILED = "FAILED";
+
+    @Autowired
+    PersonDao personDao;
+
+    @Autowired
+    TenantConfigurationService tenantConfigurationService;
+
+    @Autowired
+    ImageStoreService imageStoreService;
+
+    @Value("${image.pipeline.threads:2}")
+    private int threads;
+
+    @Value("${image.pipeline.queue-capacity:100}")
+    private int queueCapacity;
+
+    @Value("${image.pipeline.failed-status-ttl-minutes:60}")
+    private long failedStatusTtlMinutes;
+
+    /**
+     * Extra program picture variants besides "small", e.g. "medium:800x800,large:1600x1600".
+     */
+    @Value("${image.thumbnail.extra-sizes:}")
+    private String extraSizes;
+
+    private ThreadPoolExecutor executor;
+    private final List<ThumbnailSpec> extraSpecs = new ArrayList<>();
+
+    private final Map<Long, Status> personStatus = new ConcurrentHashMap<>();
+    private final Map<Long, Map<String, Status>> programPictureStatus = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "image-pipeline-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        // when the queue is full the uploading thread builds the thumbnail itself instead of losing it;
+        // after shutdown the job is rejected, unlike with CallerRunsPolicy which drops it silently
+        RejectedExecutionHandler callerRuns = (job, pool) -> {
+            if (pool.isShutdown()) {
+                throw new RejectedExecutionException("image pipeline is shut down");
+            }
+            job.run();
+        };
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), threadFactory, callerRuns);
+
+        for (String spec : extraSizes.split(",")) {
+            if (spec.trim().length() > 0) {
+                extraSpecs.add(ThumbnailSpec.parse(spec));
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    public ThreadPoolExecutor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Builds the person's avatar once the current transaction has committed and stores it in
+     * person.shrinked_image.
+     */
+    public void submitPersonThumbnail(long personId, byte[] original, String imageSuffix) {
+        ThumbnailSpec small = smallSpec();
+        afterCommit(() -> {
+            Status pending = new Status(STATUS_PENDING);
+            personStatus.put(personId, pending);
+            Runnable failed = () -> personStatus.replace(personId, pending, new Status(STATUS_FAILED));
+            execute(() -> {
+                try {
+                    byte[] thumbnail = ImageUtil.shrinkImage(small.getMaxWidth(), small.getMaxHeight(), original, imageSuffix);
+                    personDao.updateShrinkedImage(personId, thumbnail);
+                    personStatus.remove(personId, pending);
+                } catch (Exception e) {
+                    logger.error("thumbnail of person " + personId + " failed", e);
+                    failed.run();
+                }
+            }, failed);
+        });
+    }
+
+    /**
+     * Stores every thumbnail variant of a program picture ("small" and the configured extra sizes)
+     * in the image store, once the current transaction has committed.
+     */
+    public void submitProgramThumbnails(String confFolder, String tenant, long programId,
+                                        String imageName, String type, byte[] original) {
+        List<ThumbnailSpec> specs = new ArrayList<>();
+        specs.add(smallSpec());
+        specs.addAll(extraSpecs);
+
+        afterCommit(() -> {
+            Status pending = new Status(STATUS_PENDING);
+            programPictureStatus.compute(programId, (id, pictures) -> {
+                Map<String, Status> statusByName = pictures == null ? new ConcurrentHashMap<>() : pictures;
+                statusByName.put(imageName, pending);
+                return statusByName;
+            });
+            Runnable failed = () -> {
+                Map<String, Status> pictures = programPictureStatus.get(programId);
+                if (pictures != null) {
+                    pictures.replace(imageName, pending, new Status(STATUS_FAILED));
+                }
+            };
+            execute(() -> {
+                try {
+                    for (ThumbnailSpec spec : specs) {
+                        byte[] thumbnail = ImageUtil.shrinkImage(spec.getMaxWidth(), spec.getMaxHeight(), original, type);
+                        imageStoreService.store(confFolder, tenant, ImageRef.OWNER_PROGRAM, programId,
+                                imageName, spec.getName(), type, thumbnail);
+                    }
+                    removeProgramPictureStatus(programId, imageName, pending);
+                } catch (Exception e) {
+                    logger.error("thumbnail of program " + programId + " picture " + imageName + " failed", e);
+                    failed.run();
+                }
+            }, failed);
+        });
+    }
+
+    public String getPersonThumbnailStatus(long personId) {
+        Status status = personStatus.get(personId);
+        return status == null ? STATUS_READY : status.value;
+    }
+
+    /**
+     * @return status of the program's pictures that are not ready yet, by image name; empty when all are ready
+     */
+    public Map<String, String> getProgramPictureStatus(long programId) {
+        Map<String, String> statusByName = new HashMap<>();
+        Map<String, Status> pictures = programPictureStatus.get(programId);
+        if (pictures != null) {
+            pictures.forEach((imageName, status) -> statusByName.put(imageName, status.value));
+        }
+        return statusByName;
+    }
+
+    /**
+     * Forgets failures older than the failed status ttl, so the status maps do not keep an entry
+     * for every picture that ever failed.
+     */
+    @Scheduled(fixedDelay = 60000)
+    public void purgeFailedStatus() {
+        long expiredBefore = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(failedStatusTtlMinutes);
+        personStatus.values().removeIf(status -> status.isFailedBefore(expiredBefore));
+        for (Long programId : programPictureStatus.keySet()) {
+            programPictureStatus.computeIfPresent(programId, (id, pictures) -> {
+                pictures.values().removeIf(status -> status.isFailedBefore(expiredBefore));
+                return pictures.isEmpty() ? null : pictures;
+            });
+        }
+    }
+
+    /**
+     * Runs the job on the executor, or the rejected callback when the executor is shut down.
+     */
+    private void execute(Runnable job, Runnable rejected) {
+        try {
+            executor.execute(job);
+        } catch (RejectedExecutionException e) {
+            logger.error("thumbnail job rejected", e);
+            rejected.run();
+        }
+    }
+
+    private void removeProgramPictureStatus(long programId, String imageName, Status status) {
+        // atomic per program, so a picture submitted meanwhile is not put into a map that is dropped
+        programPictureStatus.computeIfPresent(programId, (id, pictures) -> {
+            pictures.remove(imageName, status);
+            return pictures.isEmpty() ? null : pictures;
+        });
+    }
+
+    private ThumbnailSpec smallSpec() {
+        return new ThumbnailSpec(SMALL, tenantConfigurationService.getShrinkedImageWidth(),
+                tenantConfigurationService.getShrinkedImageHeight());
+    }
+
+    private static class Status {
+        private final String value;
+        private final long since = System.currentTimeMillis();
+
+        Status(String value) {
+            this.value = value;
+        }
+
+        boolean isFailedBefore(long time) {
+            return STATUS_FAILED.equals(value) && since < time;
+        }
+    }
+
+    private static void afterCommit(Runnable task) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            task.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                task.run();
+            }
+        });
+    }
+}
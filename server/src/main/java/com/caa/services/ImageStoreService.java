@@ -0,0 +1,142 @@
+package com.caa.services;
+
+import com.caa.dao.ImageRefDao;
+import com.caa.model.ImageRef;
+import com.caa.util.BlobStore;
+import com.caa.util.ImageFile;
+import com.caa.util.ImageUtil;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Isolation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Stores person and program pictures in the content-addressed {@link BlobStore} and keeps the
+ * image_ref rows that link each picture variant to its blob. Pictures are found by owner id, so
+ * they no longer depend on the person's mobile number, and identical uploads share one file.
+ */
+@Repository
+@Transactional(isolation= Isolation.READ_COMMITTED)
+public class ImageStoreService {
+
+    private static final String DEFAULT_PICTURE_FOLDER = "dummy";
+    private static final String DEFAULT_PICTURE_NAME = "dummy-body.png";
+
+    @Autowired
+    ImageRefDao imageRefDao;
+
+    /**
+     * dummy-body.png of each config folder, read once and served from memory.
+     */
+    private final Map<String, DefaultPicture> defaultPictures = new ConcurrentHashMap<>();
+
+    /**
+     * Stores the bytes and points the picture variant at them, replacing what it pointed at before.
+     * @return content hash of the stored bytes
+     */
+    public String store(String confFolder, String tenant, String ownerType, long ownerId,
+                        String imageName, String variant, String imageSuffix, byte[] bytes) throws IOException {
+        String hash = BlobStore.put(confFolder, bytes);
+        imageRefDao.upsert(tenant, ownerType, ownerId, imageName, variant, hash, imageSuffix, bytes.length, new Date());
+        return hash;
+    }
+
+    /**
+     * @return the reference of the picture variant, or null when it was never stored or its blob is missing
+     */
+    public ImageRef find(String confFolder, String tenant, String ownerType, long ownerId,
+                         String imageName, String variant) {
+        List<ImageRef> refs = imageRefDao.queryForOwner(tenant, ownerType, ownerId, imageName, variant);
+        if (refs.size() == 0 || !getFile(confFolder, refs.get(0)).exists()) {
+            return null;
+        }
+        return refs.get(0);
+    }
+
+    /**
+     * @return the picture variant's blob, or null when it is not in the store
+     */
+    public ImageFile findFile(String confFolder, String tenant, String ownerType, long ownerId,
+                              String imageName, String variant) {
+        ImageRef ref = find(confFolder, tenant, ownerType, ownerId, imageName, variant);
+        return ref == null ? null : new ImageFile(getFile(confFolder, ref), ref.getImageSuffix(), ref.getHash());
+    }
+
+    /**
+     * @return the blob with the given hash if one of the tenant's pictures uses it, otherwise null
+     */
+    public ImageFile findFileByHash(String confFolder, String tenant, String hash) {
+        if (!BlobStore.isHash(hash)) {
+            return null;
+        }
+        List<ImageRef> refs = imageRefDao.queryByHashForTenant(tenant, hash);
+        if (refs.size() == 0) {
+            return null;
+        }
+        File file = BlobStore.getFile(confFolder, hash);
+        return file.exists() ? new ImageFile(file, refs.get(0).getImageSuffix(), hash) : null;
+    }
+
+    /**
+     * @return content hash of every stored picture variant of the given owners, by owner id and
+     * "imageName/variant"
+     */
+    public Map<Long, Map<String, String>> findHashes(String tenant, String ownerType, Collection<Long> ownerIds) {
+        Map<Long, Map<String, String>> result = new HashMap<>();
+        if (ownerIds.size() == 0) {
+            return result;
+        }
+        for (ImageRef ref : imageRefDao.queryForOwners(tenant, ownerType, ownerIds)) {
+            result.computeIfAbsent(ref.getOwnerId(), id -> new HashMap<>())
+                    .put(ref.getImageName() + "/" + ref.getVariant(), ref.getHash());
+        }
+        return result;
+    }
+
+    public File getFile(String confFolder, ImageRef ref) {
+        return BlobStore.getFile(confFolder, ref.getHash());
+    }
+
+    /**
+     * @return the placeholder shown for missing pictures, or null when the config folder has none
+     */
+    public DefaultPicture getDefaultPicture(String confFolder) throws IOException {
+        DefaultPicture picture = defaultPictures.get(confFolder);
+        if (picture == null) {
+            byte[] bytes = ImageUtil.loadImageInbytes(confFolder, DEFAULT_PICTURE_FOLDER, DEFAULT_PICTURE_NAME);
+            if (bytes.length == 0) {
+                return null;
+            }
+            picture = new DefaultPicture(bytes, BlobStore.hash(bytes));
+            defaultPictures.put(confFolder, picture);
+        }
+        return picture;
+    }
+
+    public static class DefaultPicture {
+        private final byte[] bytes;
+        private final String hash;
+
+        DefaultPicture(byte[] bytes, String hash) {
+            this.bytes = bytes;
+            this.hash = hash;
+        }
+
+        public byte[] getBytes() {
+            return bytes;
+        }
+
+        public String getHash() {
+            return hash;
+        }
+    }
+}
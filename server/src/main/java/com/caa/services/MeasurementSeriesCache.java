@@ -0,0 +1,208 @@
+package com.caa.services;
+
+import com.caa.constants.Metric;
+import com.caa.dao.ProgramDao;
+import com.caa.modelview.MeasurementRow;
+import com.caa.modelview.MeasurementSeriesView;
+import com.caa.util.LruCache;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Each person's measurement history in columnar form, loaded with one narrow query and kept until
+ * one of the person's programs is saved or deleted.
+ */
+@Repository
+public class MeasurementSeriesCache {
+
+    @Autowired
+    private ProgramDao programDao;
+
+    @Value("${measurement.cache.max-persons:2000}")
+    private int maxPersons;
+
+    private LruCache<String, Series> series;
+
+    /**
+     * Bumped on every invalidation so a load that raced with a save does not store a stale series.
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        series = new LruCache<>(maxPersons);
+    }
+
+    /**
+     * @param maxPoints when the person has more programs than this, programs falling in the same
+     *                  1/maxPoints of the covered period are averaged into one point; 0 for no limit
+     */
+    public MeasurementSeriesView getSeries(String tenant, long personId, List<Metric> metrics, int maxPoints) {
+        Series full = getFullSeries(tenant, personId);
+        Series shown = maxPoints > 0 && full.epochDays.length > maxPoints ? full.downsample(maxPoints) : full;
+
+        MeasurementSeriesView view = new MeasurementSeriesView();
+        view.setPersonId(personId);
+        view.setProgramCount(full.epochDays.length);
+        view.setEpochDays(shown.epochDays.clone());
+        view.setProgramIds(shown.programIds == null ? null : shown.programIds.clone());
+        Map<String, double[]> values = new LinkedHashMap<>();
+        Map<String, String> labels = new LinkedHashMap<>();
+        for (Metric metric : metrics) {
+            values.put(metric.getKey(), shown.values[metric.ordinal()].clone());
+            labels.put(metric.getKey(), metric.getLabel());
+        }
+        view.setMetrics(values);
+        view.setLabels(labels);
+        return view;
+    }
+
+    public void invalidatePerson(String tenant, long personId) {
+        generation.incrementAndGet();
+        series.remove(key(tenant, personId));
+    }
+
+    /**
+     * Drops the person's series once the current transaction commits, or right away when there is none.
+     */
+    public void invalidatePersonAfterCommit(String tenant, long personId) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            invalidatePerson(tenant, personId);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                invalidatePerson(tenant, personId);
+            }
+        });
+    }
+
+    public void invalidateTenant(String tenant) {
+        generation.incrementAndGet();
+        series.removeIf(key -> key.startsWith(tenant + "/"));
+    }
+
+    /**
+     * The cache itself, whose counters MetricsConfiguration reads one at a time.
+     */
+    public LruCache<?, ?> getCache() {
+        return series;
+    }
+
+    public Map<String, Long> getStats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("persons", (long) series.size());
+        stats.put("maxPersons", series.getMaxWeight());
+        stats.put("hits", series.getHits());
+        stats.put("misses", series.getMisses());
+        stats.put("evictions", series.getEvictions());
+        return stats;
+    }
+
+    private Series getFullSeries(String tenant, long personId) {
+        String key = key(tenant, personId);
+        Series cached = series.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        long loadGeneration = generation.get();
+        Series loaded = new Series(programDao.queryMeasurementsByPersonIdForTenant(tenant, personId));
+        if (generation.get() == loadGeneration) {
+            series.put(key, loaded);
+        }
+        return loaded;
+    }
+
+    private static String key(String tenant, long personId) {
+        return tenant + "/" + personId;
+    }
+
+    /**
+     * Points in date order; values[metric.ordinal()][i] is the metric's value at point i.
+     */
+    private static class Series {
+        private final long[] epochDays;
+        private final long[] programIds;
+        private final double[][] values;
+
+        Series(List<MeasurementRow> rows) {
+            Metric[] metrics = Metric.values();
+            epochDays = new long[rows.size()];
+            programIds = new long[rows.size()];
+            values = new double[metrics.length][rows.size()];
+            for (int i = 0; i < rows.size(); i++) {
+                MeasurementRow row = rows.get(i);
+                // java.sql.Date does not support toInstant, so go through the epoch millis
+                epochDays[i] = Instant.ofEpochMilli(row.getProgramDate().getTime())
+                        .atZone(ZoneId.systemDefault()).toLocalDate().toEpochDay();
+                programIds[i] = row.getProgramId();
+                for (Metric metric : metrics) {
+                    values[metric.ordinal()][i] = metric.valueOf(row);
+                }
+            }
+        }
+
+        private Series(long[] epochDays, double[][] values) {
+            this.epochDays = epochDays;
+            this.programIds = null;
+            this.values = values;
+        }
+
+        /**
+         * Splits the covered days into maxPoints equal buckets and averages the points of each
+         * non-empty bucket, dated at their mean day.
+         */
+        Series downsample(int maxPoints) {
+            int n = epochDays.length;
+            long first = epochDays[0];
+            double bucketDays = (epochDays[n - 1] - first + 1) / (double) maxPoints;
+
+            long[] days = new long[maxPoints];
+            double[][] sums = new double[values.length][maxPoints];
+            int points = 0;
+            int bucket = -1;
+            long daySum = 0;
+            int count = 0;
+            for (int i = 0; i <= n; i++) {
+                int next = i == n ? -1 : (int) Math.min(maxPoints - 1, (long) ((epochDays[i] - first) / bucketDays));
+                if (next != bucket && count > 0) {
+                    days[points] = Math.round(daySum / (double) count);
+                    for (double[] metricSums : sums) {
+                        metricSums[points] /= count;
+                    }
+                    points++;
+                    daySum = 0;
+                    count = 0;
+                }
+                if (i == n) {
+                    break;
+                }
+                bucket = next;
+                daySum += epochDays[i];
+                count++;
+                for (int m = 0; m < values.length; m++) {
+                    sums[m][points] += values[m][i];
+                }
+            }
+
+            double[][] averaged = new double[values.length][];
+            for (int m = 0; m < values.length; m++) {
+                averaged[m] = Arrays.copyOf(sums[m], points);
+            }
+            return new Series(Arrays.copyOf(days, points), averaged);
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package com.caa.services;
+
+import com.caa.dao.PersonDao;
+import com.caa.model.Person;
+import com.caa.modelview.PersonListItem;
+import com.caa.util.LruCache;
+import com.caa.util.TextNormalizer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory trigram index over person names and mobile numbers, one per tenant, for the person
+ * search box. A tenant's index is loaded with one query on its first search and then kept in step
+ * with saves and deletes.
+ */
+@Repository
+public class PersonSearchIndex {
+
+    private static final int SCORE_EXACT = 100;
+    private static final int SCORE_PREFIX = 60;
+    private static final int SCORE_WORD_PREFIX = 40;
+    private static final int SCORE_CONTAINS = 10;
+
+    @Autowired
+    private PersonDao personDao;
+
+    @Value("${person.search.cache.max-tenants:200}")
+    private int maxTenants;
+
+    private LruCache<String, TenantIndex> indexes;
+
+    /**
+     * Bumped on every change so a load that raced with a save does not store a stale index.
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * Held while a change is applied and while a loaded index is stored, so a change either reaches
+     * the stored index or keeps a load that missed it from being stored.
+     */
+    private final Object changeLock = new Object();
+
+    @PostConstruct
+    public void init() {
+        indexes = new LruCache<>(maxTenants);
+    }
+
+    /**
+     * @return persons whose name, family or mobile number contain the query, best matches first
+     */
+    public List<PersonListItem> search(String tenant, String query, int limit) {
+        String q = TextNormalizer.normalize(query);
+        if (q.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return getIndex(tenant).search(q, limit);
+    }
+
+    public void upsertAfterCommit(String tenant, Person person) {
+        PersonListItem item = new PersonListItem(person.getId(), person.getTenantId(), person.getFirstName(),
+                person.getLastName(), person.getFatherName(), person.getDisability(), person.getMobileNumber(),
+                person.getAddress(), person.getBirthDate(), person.getImageSuffix());
+        afterCommit(() -> {
+            synchronized (changeLock) {
+                generation.incrementAndGet();
+                TenantIndex index = indexes.get(tenant);
+                if (index != null) {
+                    index.put(item);
+                }
+            }
+        });
+    }
+
+    public void removeAfterCommit(String tenant, long personId) {
+        afterCommit(() -> {
+            synchronized (changeLock) {
+                generation.incrementAndGet();
+                TenantIndex index = indexes.get(tenant);
+                if (index != null) {
+                    index.remove(personId);
+                }
+            }
+        });
+    }
+
+    /**
+     * Drops the tenant's index, to be reloaded on its next search; used after bulk changes.
+     */
+    public void invalidate(String tenant) {
+        synchronized (changeLock) {
+            generation.incrementAndGet();
+            indexes.remove(tenant);
+        }
+    }
+
+    /**
+     * The cache itself, whose counters MetricsConfiguration reads one at a time.
+     */
+    public LruCache<?, ?> getCache() {
+        return indexes;
+    }
+
+    public Map<String, Long> getStats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("tenants", (long) indexes.size());
+        stats.put("maxTenants", indexes.getMaxWeight());
+        stats.put("hits", indexes.getHits());
+        stats.put("misses", indexes.getMisses());
+        stats.put("evictions", indexes.getEvictions());
+        return stats;
+    }
+
+    private TenantIndex getIndex(String tenant) {
+        TenantIndex index = indexes.get(tenant);
+        if (index != null) {
+            return index;
+        }
+        long loadGeneration = generation.get();
+        index = new TenantIndex(personDao.queryListItemsForTenant(tenant));
+        // the query runs outside the lock; only the check and the put are atomic with changes
+        synchronized (changeLock) {
+            if (generation.get() == loadGeneration) {
+                indexes.put(tenant, index);
+            }
+        }
+        return index;
+    }
+
+    private static void afterCommit(Runnable task) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            task.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                task.run();
+            }
+        });
+    }
+
+    private static class Entry {
+        private final PersonListItem person;
+        // normalized "first last" and mobile number
+        private final String name;
+        private final String mobile;
+
+        Entry(PersonListItem person) {
+            this.person = person;
+            this.name = TextNormalizer.normalize(nullToEmpty(person.getFirstName()) + " " + nullToEmpty(person.getLastName()));
+            this.mobile = TextNormalizer.normalize(person.getMobileNumber());
+        }
+
+        Set<String> trigrams() {
+            Set<String> trigrams = TextNormalizer.trigrams(name);
+            trigrams.addAll(TextNormalizer.trigrams(mobile));
+            return trigrams;
+        }
+
+        /**
+         * @return how well the normalized query matches, or 0 when it does not
+         */
+        int score(String q) {
+            return Math.max(score(name, q), score(mobile, q));
+        }
+
+        private static int score(String field, String q) {
+            int at = field.indexOf(q);
+            if (at < 0) {
+                return 0;
+            }
+            if (field.length() == q.length()) {
+                return SCORE_EXACT;
+            }
+            if (at == 0) {
+                return SCORE_PREFIX;
+            }
+            for (int i = at; i > 0; i = field.indexOf(q, i + 1)) {
+                if (field.charAt(i - 1) == ' ') {
+                    return SCORE_WORD_PREFIX;
+                }
+            }
+            return SCORE_CONTAINS;
+        }
+
+        private static String nullToEmpty(String s) {
+            return s == null ? "" : s;
+        }
+    }
+
+    private static class Match {
+        private final Entry entry;
+        private final int score;
+
+        Match(Entry entry, int score) {
+            this.entry = entry;
+            this.score = score;
+        }
+    }
+
+    private static final Comparator<Match> BEST_FIRST = Comparator.<Match>comparingInt(m -> -m.score)
+            .thenComparingInt(m -> m.entry.name.length())
+            .thenComparingLong(m -> m.entry.person.getId());
+
+    private static class TenantIndex {
+        private final Map<Long, Entry> entries = new HashMap<>();
+        private final Map<String, Set<Long>> postings = new HashMap<>();
+
+        TenantIndex(List<PersonListItem> persons) {
+            persons.forEach(this::put);
+        }
+
+        synchronized void put(PersonListItem person) {
+            remove(person.getId());
+            Entry entry = new Entry(person);
+            entries.put(person.getId(), entry);
+            for (String trigram : entry.trigrams()) {
+                postings.computeIfAbsent(trigram, t -> new HashSet<>()).add(person.getId());
+            }
+        }
+
+        synchronized void remove(long personId) {
+            Entry entry = entries.remove(personId);
+            if (entry == null) {
+                return;
+            }
+            for (String trigram : entry.trigrams()) {
+                Set<Long> ids = postings.get(trigram);
+                if (ids != null) {
+                    ids.remove(personId);
+                    if (ids.isEmpty()) {
+                        postings.remove(trigram);
+                    }
+                }
+            }
+        }
+
+        synchronized List<PersonListItem> search(String q, int limit) {
+            List<Match> matches = new ArrayList<>();
+            for (Entry entry : candidates(q)) {
+                int score = entry.score(q);
+                if (score > 0) {
+                    matches.add(new Match(entry, score));
+                }
+            }
+            matches.sort(BEST_FIRST);
+            List<PersonListItem> result = new ArrayList<>(Math.min(limit, matches.size()));
+            for (int i = 0; i < matches.size() && i < limit; i++) {
+                result.add(matches.get(i).entry.person);
+            }
+            return result;
+        }
+
+        /**
+         * Persons holding every trigram of the query, smallest posting list first; queries under three
+         * characters have no trigram and are checked against every person.
+         */
+        private Collection<Entry> candidates(String q) {
+            Set<String> trigrams = TextNormalizer.trigrams(q);
+            if (trigrams.isEmpty()) {
+                return entries.values();
+            }
+            List<Set<Long>> lists = new ArrayList<>(trigrams.size());
+            for (String trigram : trigrams) {
+                Set<Long> ids = postings.get(trigram);
+                if (ids == null) {
+                    return new ArrayList<>();
+                }
+                lists.add(ids);
+            }
+            lists.sort(Comparator.comparingInt(Set::size));
+            List<Entry> result = new ArrayList<>();
+            for (Long id : lists.get(0)) {
+                boolean inAll = true;
+                for (int i = 1; i < lists.size() && inAll; i++) {
+                    inAll = lists.get(i).contains(id);
+                }
+                if (inAll) {
+                    result.add(entries.get(id));
+                }
+            }
+            return result;
+        }
+    }
+}
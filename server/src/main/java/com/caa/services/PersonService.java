@@ -1,19 +1,28 @@
 package com.caa.services;
 
 import com.caa.dao.PersonDao;
+import com.caa.model.ImageRef;
 import com.caa.model.Person;
+import com.caa.modelview.PersonAvatar;
+import com.caa.modelview.PersonListItem;
 import com.caa.modelview.PersonView;
 import com.caa.services.security.impl.CustomUserDetailsService;
 import com.caa.util.DateUtil;
-import com.caa.util.ImageUtil;
+import com.caa.util.ImageFile;
 import org.apache.commons.lang.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Isolation;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Created by Reza on 13/09/2018.
@@ -30,44 +39,146 @@ public class PersonService {
     @Autowired
     TenantConfigurationService tenantConfigurationService;
 
+    @Autowired
+    ImagePipelineService imagePipelineService;
+
+    @Autowired
+    ImageStoreService imageStoreService;
+
+    @Autowired
+    PersonSearchIndex personSearchIndex;
+
+    @Autowired
+    ProgressAnalyticsService progressAnalyticsService;
+
     public Person findOne(long id) {
       return personDao.findOne(id);
     }
 
+    /**
+     * @return the person if it belongs to the current tenant, otherwise null
+     */
+    public Person findOneForTenant(long id) {
+        List<Person> persons = personDao.queryByIdForTenant(CustomUserDetailsService.getCurrentUserTenant(), id);
+        return persons.size() > 0 ? persons.get(0) : null;
+    }
+
+    /**
+     * @return the person's original picture from the image store, or from the legacy mobileNumber folder
+     * written before the store existed; null when there is none
+     */
+    public ImageFile findOriginalPicture(Person person) {
+        String confFolder = tenantConfigurationService.getProjectConfigFolder();
+        ImageFile stored = imageStoreService.findFile(confFolder, CustomUserDetailsService.getCurrentUserTenant(),
+                ImageRef.OWNER_PERSON, person.getId(), PERSON_MAIN_PICTURE, ImageRef.VARIANT_ORIGINAL);
+        if (stored != null) {
+            return stored;
+        }
+        File file = new File(confFolder + "/" + person.getMobileNumber() + "/"
+                + PERSON_MAIN_PICTURE + "." + person.getImageSuffix());
+        return file.exists() ? ImageFile.legacy(file) : null;
+    }
+
     public List<Person> findAllForTenant() {
         String tenantId = CustomUserDetailsService.getCurrentUserTenant();
         return personDao.queryAllForTenant(tenantId);
     }
 
+    public List<PersonListItem> findListItemsForTenant() {
+        String tenantId = CustomUserDetailsService.getCurrentUserTenant();
+        return personDao.queryListItemsForTenant(tenantId);
+    }
+
+    /**
+     * Searches the tenant's in-memory person index; see {@link PersonSearchIndex}.
+     */
+    public List<PersonListItem> searchListItems(String str, int limit) {
+        String tenantId = CustomUserDetailsService.getCurrentUserTenant();
+        return personSearchIndex.search(tenantId, str, limit);
+    }
+
+    /**
+     * Same as {@link #findPageForTenant} without the persons' images.
+     */
+    public List<PersonListItem> findListItemPageForTenant(long afterId, int size) {
+        String tenantId = CustomUserDetailsService.getCurrentUserTenant();
+        return personDao.queryListItemPageForTenant(tenantId, afterId, new PageRequest(0, size + 1));
+    }
+
+    public PersonListItem findListItem(long id) {
+        return findListItems(Collections.singleton(id)).get(id);
+    }
+
+    /**
+     * @return the given persons of the current tenant without their images, by id
+     */
+    public Map<Long, PersonListItem> findListItems(Collection<Long> ids) {
+        Map<Long, PersonListItem> result = new HashMap<>();
+        if (ids.size() == 0) {
+            return result;
+        }
+        String tenantId = CustomUserDetailsService.getCurrentUserTenant();
+        personDao.queryListItemsByIdsForTenant(tenantId, ids).forEach(item -> result.put(item.getId(), item));
+        return result;
+    }
+
+    /**
+     * @return the person's avatar, or null when the person has none
+     */
+    public PersonAvatar findAvatar(long id) {
+        String tenantId = CustomUserDetailsService.getCurrentUserTenant();
+        List<PersonAvatar> rows = personDao.queryAvatarForTenant(tenantId, id);
+        if (rows.size() == 0 || rows.get(0).getImage() == null || rows.get(0).getImage().length == 0) {
+            return null;
+        }
+        return rows.get(0);
+    }
+
+    /**
+     * @return up to size+1 persons of the current tenant with an id greater than afterId, in id order;
+     * the extra row tells whether another page follows
+     */
+    public List<Person> findPageForTenant(long afterId, int size) {
+        String tenantId = CustomUserDetailsService.getCurrentUserTenant();
+        return personDao.queryPageForTenant(tenantId, afterId, new PageRequest(0, size + 1));
+    }
+
+    public long countForTenant() {
+        return personDao.countForTenant(CustomUserDetailsService.getCurrentUserTenant());
+    }
+
     public List<Person> findByNameAndFamiliyAndPhone(String str) {
         String tenantId = CustomUserDetailsService.getCurrentUserTenant();
         return personDao.queryByNameAndFamiliyAndPhoneForTenant(tenantId, str);
     }
+    /**
+     * Stores the original picture and returns right away; the avatar stored in the person row is
+     * built in the background by {@link ImagePipelineService}.
+     */
     @Transactional
     public Person savePerson(PersonView personView, byte[] picture, String imageSuffix) throws IOException {
         String confFolder = tenantConfigurationService.getProjectConfigFolder();
-        int w = tenantConfigurationService.getShrinkedImageWidth();
-        int h = tenantConfigurationService.getShrinkedImageHeight();
 
-        byte[] shrinkedImage = ImageUtil.shrinkImage(w, h, picture, imageSuffix);
         validatePerson(personView);
-        if (picture.length > 0) {
-            ImageUtil.saveToFileSystem(confFolder,
-                    personView.getMobileNumber(),
-                    PERSON_MAIN_PICTURE,
-                    imageSuffix,
-                    picture);
-        }
-
         Person person = null;
         if (personView.getId() > 0) {
             person = personDao.getOne(personView.getId());
         }else {
             person = new Person();
         }
-        Person saveCandidate = toEntity(personView, person, shrinkedImage, imageSuffix);
+        Person saveCandidate = toEntity(personView, person);
+        if (picture.length > 0) {
+            saveCandidate.setImageSuffix(imageSuffix);
+        }
         personDao.save(saveCandidate);
+        personSearchIndex.upsertAfterCommit(saveCandidate.getTenantId(), saveCandidate);
 
+        if (picture.length > 0) {
+            imageStoreService.store(confFolder, CustomUserDetailsService.getCurrentUserTenant(),
+                    ImageRef.OWNER_PERSON, saveCandidate.getId(), PERSON_MAIN_PICTURE,
+                    ImageRef.VARIANT_ORIGINAL, imageSuffix, picture);
+            imagePipelineService.submitPersonThumbnail(saveCandidate.getId(), picture, imageSuffix);
+        }
         return saveCandidate;
     }
 
@@ -85,6 +196,7 @@ public class PersonService {
 
         Person saveCandidate = toEntity(personView, person);
          personDao.save(saveCandidate);
+         personSearchIndex.upsertAfterCommit(saveCandidate.getTenantId(), saveCandidate);
          return saveCandidate;
     }
 
@@ -107,16 +219,15 @@ public class PersonService {
         }
     }
 
-    @Transactional
+    @Transactional(isolation = Isolation.READ_COMMITTED)
     public void delete(long id) {
+        String tenant = CustomUserDetailsService.getCurrentUserTenant();
         personDao.delete(id);
+        progressAnalyticsService.removePerson(tenant, id);
+        personSearchIndex.removeAfterCommit(tenant, id);
     }
 
     private Person toEntity(PersonView personView, Person person) {
-        return  toEntity(personView, person, new byte[0], "");
-    }
-
-    private Person toEntity(PersonView personView,Person person, byte[] picture, String imageSuffix) {
         person.setTenantId(CustomUserDetailsService.getCurrentUserTenant());
 
         person.setId(personView.getId());
@@ -127,10 +238,6 @@ public class PersonService {
         person.setMobileNumber(personView.getMobileNumber());
         person.setAddress(personView.getAddress());
         person.setBirthDate(DateUtil.getGregorianDate(personView.getBirthDate()));
-        if (picture.length > 0) {
-            person.setShrinkedImage(picture);
-            person.setImageSuffix(imageSuffix);
-        }
         return person;
     }
 }
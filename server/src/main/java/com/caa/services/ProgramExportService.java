@@ -0,0 +1,210 @@
+package com.caa.services;
+
+import com.caa.model.Person;
+import com.caa.model.Program;
+import com.caa.report.ProgramReportRequest;
+import com.caa.report.ReportFormat;
+import com.caa.util.DateUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ConcurrentTaskExecutor;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Repository;
+import org.springframework.web.context.request.async.WebAsyncTask;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Streams the PDFs of many programs into one ZIP archive. Exports have pools of their own, one that
+ * writes the archives and one that renders their programs, so they neither wait on nor fill the
+ * report renderer pool used by interactive requests. Only a small window of programs of an archive is
+ * rendered ahead, and each PDF is written to the response as soon as it is its turn, so memory does
+ * not grow with the number of programs.
+ */
+@Repository
+public class ProgramExportService {
+
+    private static Logger logger = LoggerFactory.getLogger(ProgramExportService.class);
+
+    @Autowired
+    ProgramService programService;
+
+    // archives are not cut off by the async request timeout; each program's render has its own timeout
+    private static final long NO_TIMEOUT = 0L;
+
+    @Value("${report.export.window:4}")
+    private int window;
+
+    @Value("${report.export.threads:2}")
+    private int threads;
+
+    @Value("${report.export.queue-capacity:4}")
+    private int queueCapacity;
+
+    @Value("${report.export.render-threads:2}")
+    private int renderThreads;
+
+    @Value("${report.render.timeout-seconds:60}")
+    private long timeoutSeconds;
+
+    private ThreadPoolExecutor executor;
+
+    private ThreadPoolExecutor renderExecutor;
+
+    @PostConstruct
+    public void init() {
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), threadFactory("program-export-"),
+                new ThreadPoolExecutor.AbortPolicy());
+        // every running archive has at most window renders pending, so this queue never overflows
+        renderExecutor = new ThreadPoolExecutor(renderThreads, renderThreads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(threads * window), threadFactory("program-export-renderer-"),
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+        renderExecutor.shutdownNow();
+    }
+
+    public ThreadPoolExecutor getExecutor() {
+        return executor;
+    }
+
+    public ThreadPoolExecutor getRenderExecutor() {
+        return renderExecutor;
+    }
+
+    /**
+     * The returned task is rejected with a {@link RejectedExecutionException} when the export queue is full.
+     */
+    public WebAsyncTask<Void> exportPersonPrograms(long personId, HttpServletResponse response) {
+        return exportPrograms(programService.findProgramIds(personId), response);
+    }
+
+    public WebAsyncTask<Void> exportTenantPrograms(HttpServletResponse response) {
+        return exportPrograms(programService.findProgramIdsForTenant(), response);
+    }
+
+    private WebAsyncTask<Void> exportPrograms(List<Long> programIds, HttpServletResponse response) {
+        // the archive is written on an export thread; it needs the caller's tenant to load programs
+        SecurityContext securityContext = SecurityContextHolder.getContext();
+        return new WebAsyncTask<>(NO_TIMEOUT, new ConcurrentTaskExecutor(executor), () -> {
+            SecurityContextHolder.setContext(securityContext);
+            try (ZipOutputStream zip = new ZipOutputStream(response.getOutputStream(), StandardCharsets.UTF_8)) {
+                writeArchive(programIds, zip);
+            } finally {
+                SecurityContextHolder.clearContext();
+            }
+            return null;
+        });
+    }
+
+    private void writeArchive(List<Long> programIds, ZipOutputStream zip) throws IOException {
+        Deque<PendingEntry> pending = new ArrayDeque<>();
+        List<String> errors = new ArrayList<>();
+
+        for (Long programId : programIds) {
+            if (pending.size() >= window) {
+                writeEntry(pending.removeFirst(), zip, errors);
+            }
+            try {
+                ProgramReportRequest request = programService.prepareProgramReport(programId, ReportFormat.PDF);
+                pending.addLast(new PendingEntry(entryName(request),
+                        renderExecutor.submit(() -> programService.renderProgramReport(request, false))));
+            } catch (RuntimeException e) {
+                logger.error("program " + programId + " could not be exported", e);
+                errors.add(programId + ": " + e.getMessage());
+            }
+        }
+        while (!pending.isEmpty()) {
+            writeEntry(pending.removeFirst(), zip, errors);
+        }
+
+        if (errors.size() > 0) {
+            zip.putNextEntry(new ZipEntry("errors.txt"));
+            zip.write(String.join("\n", errors).getBytes(StandardCharsets.UTF_8));
+            zip.closeEntry();
+        }
+    }
+
+    private void writeEntry(PendingEntry entry, ZipOutputStream zip, List<String> errors) throws IOException {
+        byte[] bytes;
+        try {
+            bytes = entry.future.get(timeoutSeconds, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            entry.future.cancel(true);
+            logger.error(entry.name + " was not rendered in " + timeoutSeconds + " seconds");
+            errors.add(entry.name + ": timeout");
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("program export interrupted", e);
+        } catch (ExecutionException e) {
+            logger.error(entry.name + " could not be rendered", e.getCause());
+            errors.add(entry.name + ": " + e.getCause().getMessage());
+            return;
+        }
+        if (bytes == null) {
+            return;
+        }
+        zip.putNextEntry(new ZipEntry(entry.name));
+        zip.write(bytes);
+        zip.closeEntry();
+        zip.flush();
+    }
+
+    private String entryName(ProgramReportRequest request) {
+        Program program = request.getProgram();
+        Person person = request.getPerson();
+        String folder = person.getFirstName() + " " + person.getLastName() + " (" + person.getMobileNumber() + ")";
+        String date = DateUtil.getShamsiDate(program.getProgramDate()).replace('/', '-');
+        return sanitize(folder) + "/" + date + " " + program.getId() + "." + ReportFormat.PDF.getExtension();
+    }
+
+    private static ThreadFactory threadFactory(String prefix) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static String sanitize(String name) {
+        return name.replaceAll("[\\\\/:*?\"<>|]", "_");
+    }
+
+    private static class PendingEntry {
+        private final String name;
+        private final Future<byte[]> future;
+
+        PendingEntry(String name, Future<byte[]> future) {
+            this.name = name;
+            this.future = future;
+        }
+    }
+}
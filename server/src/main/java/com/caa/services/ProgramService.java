@@ -1,31 +1,49 @@
 package com.caa.services;
 
+import com.caa.constants.Metric;
 import com.caa.constants.ProgramConstants;
 import com.caa.dao.ExerciseDao;
 import com.caa.dao.ProgramDao;
 import com.caa.dao.ProgramExerciseItemDao;
 import com.caa.dao.TenantDao;
 import com.caa.model.Exercise;
+import com.caa.model.ImageRef;
 import com.caa.model.Person;
 import com.caa.model.Program;
 import com.caa.model.ProgramExerciseItem;
 import com.caa.modelview.ImageView;
+import com.caa.modelview.MeasurementSeriesView;
+import com.caa.modelview.PageView;
+import com.caa.modelview.PersonListItem;
 import com.caa.modelview.ProgramExerciseItemView;
 import com.caa.modelview.ProgramView;
 import com.caa.report.ExportReport;
-import com.caa.report.ProgramExercisesReportDTO;
+import com.caa.report.ProgramReportRequest;
+import com.caa.report.ReportFormat;
 import com.caa.services.security.impl.CustomUserDetailsService;
 import com.caa.util.DateUtil;
+import com.caa.util.ImageFile;
 import com.caa.util.ImageUtil;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Isolation;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.PathVariable;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 
 import static com.caa.constants.ProgramConstants.*;
 /**
@@ -46,7 +64,7 @@ public class ProgramService {
     private ProgramExerciseItemDao programExerciseItemDao;
 
     @Autowired
-    private ExerciseService exerciseService;
+    private ExerciseCatalogCache exerciseCatalogCache;
     @Autowired
     ProgramExerciseItemService programExerciseItemService;
 
@@ -56,6 +74,21 @@ public class ProgramService {
     @Autowired
     TenantConfigurationService tenantConfigurationService;
 
+    @Autowired
+    RenderedReportCache renderedReportCache;
+
+    @Autowired
+    ImagePipelineService imagePipelineService;
+
+    @Autowired
+    ImageStoreService imageStoreService;
+
+    @Autowired
+    MeasurementSeriesCache measurementSeriesCache;
+
+    @Autowired
+    ProgressAnalyticsService progressAnalyticsService;
+
     public String[][] getPersonAllSizes(long personId){
             String[][] personAllSizes;
         String userTenant = CustomUserDetailsService.getCurrentUserTenant();
@@ -103,6 +136,13 @@ public class ProgramService {
         return  personAllSizes;
     }
 
+    /**
+     * Typed alternative of getPersonAllSizes, see {@link MeasurementSeriesCache#getSeries}.
+     */
+    public MeasurementSeriesView getPersonMeasurements(long personId, List<Metric> metrics, int maxPoints) {
+        return measurementSeriesCache.getSeries(CustomUserDetailsService.getCurrentUserTenant(), personId, metrics, maxPoints);
+    }
+
     public Program findOne(long id) {
         return programDao.findOne(id);
     }
@@ -110,107 +150,214 @@ public class ProgramService {
     public ImageView getProgramexerciseImage(long programId) {
         String imageBase64 = "";
         if (programId > 0) {
-            Program program = findOne(programId);
-            Person person = personService.findOne(program.getPersonId());
-            List<ProgramExerciseItemView> viewList = getProgramExerciseList(program);
-
-            ExportReport exportReport = new ExportReport();
-            List<ProgramExercisesReportDTO> reportDTOList = exerciseService.convertProgramExerciseToReportDTO(viewList);
-            String confFolder = tenantConfigurationService.getProjectConfigFolder();
-            String coachName = tenantConfigurationService.getCoachName();
-            imageBase64 = exportReport.getProgramExerciseAsImage(confFolder, coachName, reportDTOList, program, person);
+            imageBase64 = ImageUtil.encodeImage(renderProgramReport(prepareProgramReport(programId, ReportFormat.JPEG)));
         }
         ImageView imageView = new ImageView();
         imageView.setContent(imageBase64);
         return imageView;
-        //return imageBase64;
     }
 
     public byte[] getProgramExerciseListAsImage(long programId) throws IOException {
-        Program program = findOne(programId);
-        Person person = personService.findOne(program.getPersonId());
-
-        List<ProgramExerciseItemView> viewList = getProgramExerciseList(program);
-        List<ProgramExercisesReportDTO> reportDTOList = exerciseService.convertProgramExerciseToReportDTO(viewList);
-        String confFolder = tenantConfigurationService.getProjectConfigFolder();
-        String coachName = tenantConfigurationService.getCoachName();
-        byte[] bytes = ExportReport.getProgramExerciseAsImageInBytes(confFolder, coachName, reportDTOList, program, person);
-        return bytes;
+        return renderProgramReport(prepareProgramReport(programId, ReportFormat.JPEG));
     }
 
     public byte[] getProgramExerciseListAsPDF(long programId) throws IOException {
-        Program program = findOne(programId);
-        Person person = personService.findOne(program.getPersonId());
+        return renderProgramReport(prepareProgramReport(programId, ReportFormat.PDF));
+    }
 
+    /**
+     * Loads everything the report of a program depends on. The returned request carries the content
+     * hash, so callers can answer conditional requests before anything is rendered.
+     * @throws RecordNotFoundException when the program or its person is not one of the current tenant's
+     */
+    public ProgramReportRequest prepareProgramReport(long programId, ReportFormat format) {
+        Program program = findOne(programId);
+        PersonListItem personItem = program == null ? null : personService.findListItem(program.getPersonId());
+        if (personItem == null) {
+            throw new RecordNotFoundException("برنامه " + programId + " پیدا نشد");
+        }
+        Person person = personItem.toPerson();
         List<ProgramExerciseItemView> viewList = getProgramExerciseList(program);
-        List<ProgramExercisesReportDTO> reportDTOList = exerciseService.convertProgramExerciseToReportDTO(viewList);
         String confFolder = tenantConfigurationService.getProjectConfigFolder();
         String coachName = tenantConfigurationService.getCoachName();
+        return new ProgramReportRequest(confFolder, coachName, program, person, viewList, format);
+    }
+
+    public List<Long> findProgramIds(long personId) {
+        String tenant = CustomUserDetailsService.getCurrentUserTenant();
+        return programDao.queryIdsByPersonIdForTenant(tenant, personId);
+    }
+
+    public List<Long> findProgramIdsForTenant() {
+        String tenant = CustomUserDetailsService.getCurrentUserTenant();
+        return programDao.queryIdsForTenant(tenant);
+    }
+
+    /**
+     * Renders the report, or returns the cached output of an earlier render of the same content.
+     * Runs outside a transaction so no connection is held while Jasper works.
+     * @return rendered bytes, or null when the program has no exercise
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public byte[] renderProgramReport(ProgramReportRequest request) {
+        return renderProgramReport(request, true);
+    }
 
-        byte[] bytes = ExportReport.getProgramExerciseAsPDFInBytes(confFolder, coachName, reportDTOList, program, person);
+    /**
+     * @param cacheResult false for one-off renders (bulk exports) that should not push hot entries out of the cache
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public byte[] renderProgramReport(ProgramReportRequest request, boolean cacheResult) {
+        if (request.getItems().size() == 0) {
+            return null;
+        }
+        String contentHash = request.getContentHash();
+        byte[] bytes = renderedReportCache.get(contentHash);
+        if (bytes != null) {
+            return bytes;
+        }
+
+        switch (request.getFormat()) {
+            case PDF :
+                bytes = ExportReport.getProgramExerciseAsPDFInBytes(request.getConfFolder(), request.getCoachName(),
+                        request.getItems(), request.getProgram(), request.getPerson());
+                break;
+            case JPEG :
+                bytes = ExportReport.getProgramExerciseAsImageInBytes(request.getConfFolder(), request.getCoachName(),
+                        request.getItems(), request.getProgram(), request.getPerson());
+                break;
+        }
+        if (bytes != null && cacheResult) {
+            renderedReportCache.put(request.getProgram().getId(), contentHash, bytes);
+        }
         return bytes;
     }
 
     private List<ProgramExerciseItemView> getProgramExerciseList(Program program) {
         List<ProgramExerciseItem> exerciseItems = programExerciseItemService.findByProgramId(program.getId());
-        //TODO improve code
         List<ProgramExerciseItemView> viewList = new ArrayList<>();
         if (exerciseItems != null && exerciseItems.size() > 0) {
+            Map<Long, Exercise> exercises = findExercises(CustomUserDetailsService.getCurrentUserTenant(), exerciseItems);
+            boolean isShow = tenantConfigurationService.showCodeInPrintOrImage();
             exerciseItems.stream().forEach(programExerciseItem -> {
                 ProgramExerciseItemView viewItem = new ProgramExerciseItemView(programExerciseItem);
-                Exercise ex = exerciseDao.getOne(programExerciseItem.getExerciseId());
-                boolean isShow = tenantConfigurationService.showCodeInPrintOrImage();
-
-                String code = isShow ?  "(" + ex.getCode() + ")  " : "";
-                viewItem.setExerciseName( code + ex.getName());
+                Exercise ex = exercises.get(programExerciseItem.getExerciseId());
+                if (ex != null) {
+                    String code = isShow ?  "(" + ex.getCode() + ")  " : "";
+                    viewItem.setExerciseName( code + ex.getName());
+                } else {
+                    viewItem.setExerciseName("");
+                }
                 viewList.add(viewItem);
             });
         }
         return viewList;
     }
 
+    /**
+     * Builds the program views of a person with a fixed number of statements: one for the programs,
+     * one for the items of all of them and one for the referenced exercises.
+     */
     public Iterable<ProgramView> getPersonsPrograms(long personId) {
+        return getPersonsPrograms(CustomUserDetailsService.getCurrentUserTenant(), personId);
+    }
+
+    public List<ProgramView> getPersonsPrograms(String tenant, long personId) {
+        return toViews(tenant, programDao.queryByPersonIdForTenant(tenant, personId));
+    }
+
+    /**
+     * One page of the person's programs in id order, starting after the given cursor.
+     */
+    public PageView<ProgramView> getPersonsProgramsPage(long personId, long afterId, int size, boolean withTotal) {
         String tenant = CustomUserDetailsService.getCurrentUserTenant();
-        List<Program> list = programDao.queryByPersonIdForTenant(tenant, personId);
+        List<Program> rows = programDao.queryPageByPersonIdForTenant(tenant, personId, afterId, new PageRequest(0, size + 1));
+        Long total = withTotal ? programDao.countByPersonIdForTenant(tenant, personId) : null;
+        return PageView.of(toViews(tenant, rows), size, ProgramView::getId, view -> view, total);
+    }
+
+    /**
+     * Builds the views of the given programs with their exercise items, loading all items with one query.
+     */
+    private List<ProgramView> toViews(String tenant, List<Program> list) {
         List<ProgramView> result = new ArrayList<>();
+        if (list == null || list.size() == 0) {
+            return result;
+        }
+
+        // persons without their images, instead of initializing each program's lazy person
+        Set<Long> personIds = new HashSet<>();
+        list.forEach(p -> personIds.add(p.getPersonId()));
+        Map<Long, PersonListItem> persons = personService.findListItems(personIds);
 
+        Map<Long, ProgramView> viewsById = new HashMap<>();
         for(Program p : list) {
+            PersonListItem person = persons.get(p.getPersonId());
             ProgramView pv = new ProgramView(p);
             pv.setShamsiProgramDate(DateUtil.getShamsiDate(p.getProgramDate()));
-            pv.setPersonName(p.getPerson().getFirstName() + " " + p.getPerson().getLastName()
-                    + "(" + p.getPerson().getMobileNumber() + ")");
-
-            List<ProgramExerciseItem> exerciseItems = programExerciseItemDao.findByProgramId(p.getId());
-            //TODO improve code
-            List<ProgramExerciseItemView> viewList = new ArrayList<>();
-            if (exerciseItems != null && exerciseItems.size() > 0) {
-                exerciseItems.stream().forEach(programExerciseItem -> {
-                    ProgramExerciseItemView viewItem = new ProgramExerciseItemView(programExerciseItem);
-                    viewItem.setExerciseName(
-                            exerciseDao.getOne(programExerciseItem.getExerciseId()).getName());
-                    viewList.add(viewItem);
-                });
+            // a program whose person has been deleted is listed without one
+            if (person != null) {
+                pv.setPerson(person.toPerson());
+                pv.setPersonName(person.getFirstName() + " " + person.getLastName()
+                        + "(" + person.getMobileNumber() + ")");
+            } else {
+                pv.setPersonName("");
             }
-
-            viewList.stream().forEach(exerciseItem -> {
-                switch (exerciseItem.getSubExerciseId()) {
-                    case 1 : pv.getProgramExercise1Items().add(exerciseItem); break;
-                    case 2 : pv.getProgramExercise2Items().add(exerciseItem); break;
-                    case 3 : pv.getProgramExercise3Items().add(exerciseItem); break;
-                    case 4 : pv.getProgramExercise4Items().add(exerciseItem); break;
-                    case 5 : pv.getProgramExercise5Items().add(exerciseItem); break;
-                    case 6 : pv.getProgramExercise6Items().add(exerciseItem); break;
-                }
-            });
+            pv.setPictureStatus(imagePipelineService.getProgramPictureStatus(p.getId()));
+            viewsById.put(p.getId(), pv);
             result.add(pv);
         }
+
+        imageStoreService.findHashes(tenant, ImageRef.OWNER_PROGRAM, viewsById.keySet())
+                .forEach((programId, hashes) -> viewsById.get(programId).setPictureHashes(hashes));
+
+        List<ProgramExerciseItem> exerciseItems = programExerciseItemDao.queryByProgramIds(viewsById.keySet());
+        Map<Long, Exercise> exercises = findExercises(tenant, exerciseItems);
+        exerciseItems.stream().forEach(programExerciseItem -> {
+            ProgramExerciseItemView viewItem = new ProgramExerciseItemView(programExerciseItem);
+            // an item whose exercise has been deleted keeps an empty name
+            Exercise exercise = exercises.get(programExerciseItem.getExerciseId());
+            viewItem.setExerciseName(exercise == null ? "" : exercise.getName());
+            addToSession(viewsById.get(programExerciseItem.getProgramId()), viewItem);
+        });
         return result;
     }
 
-    @Transactional
+    private void addToSession(ProgramView pv, ProgramExerciseItemView exerciseItem) {
+        switch (exerciseItem.getSubExerciseId()) {
+            case 1 : pv.getProgramExercise1Items().add(exerciseItem); break;
+            case 2 : pv.getProgramExercise2Items().add(exerciseItem); break;
+            case 3 : pv.getProgramExercise3Items().add(exerciseItem); break;
+            case 4 : pv.getProgramExercise4Items().add(exerciseItem); break;
+            case 5 : pv.getProgramExercise5Items().add(exerciseItem); break;
+            case 6 : pv.getProgramExercise6Items().add(exerciseItem); break;
+        }
+    }
+
+    /**
+     * Resolves every exercise referenced by the given items from the tenant's exercise catalog.
+     */
+    private Map<Long, Exercise> findExercises(String tenant, List<ProgramExerciseItem> exerciseItems) {
+        if (exerciseItems == null || exerciseItems.size() == 0) {
+            return new HashMap<>();
+        }
+        Set<Long> ids = new HashSet<>();
+        exerciseItems.forEach(item -> ids.add(item.getExerciseId()));
+        return exerciseCatalogCache.getExercises(tenant, ids);
+    }
+
+    /**
+     * Runs read committed like the rest of the class: the stats of the person are recomputed under
+     * the person's lock, and a snapshot taken at the first read, before the lock, would miss a save
+     * of the same person that committed while this one waited on it.
+     */
+    @Transactional(isolation = Isolation.READ_COMMITTED)
     public ProgramView saveProgram( ProgramView programView) {
 
         Program p = getProgramFromView(programView);
+        // the person the program belonged to, when it is stored already
+        List<Long> previousPersonIds = p.getId() > 0
+                ? programDao.queryPersonIdByIdForTenant(p.getTenantId(), p.getId()) : Collections.emptyList();
         List<ProgramExerciseItemView> items1 = programView.getProgramExercise1Items();
         List<ProgramExerciseItemView> items2 = programView.getProgramExercise2Items();
         List<ProgramExerciseItemView> items3 = programView.getProgramExercise3Items();
@@ -229,13 +376,80 @@ public class ProgramService {
         allEntityList.addAll(getSubExerciseItems(items5 , 5, p.getId()));
         allEntityList.addAll(getSubExerciseItems(items6 , 6, p.getId()));
 
-        programExerciseItemDao.deleteByProgramId(p.getId());
+        saveProgramExerciseItems(p.getId(), allEntityList);
+        renderedReportCache.invalidateProgramAfterCommit(p.getId());
+        measurementSeriesCache.invalidatePersonAfterCommit(p.getTenantId(), p.getPersonId());
+        if (previousPersonIds.isEmpty() || previousPersonIds.get(0) == p.getPersonId()) {
+            progressAnalyticsService.refreshPerson(p.getTenantId(), p.getPersonId());
+        } else {
+            // moved to another person: both persons' stats change; the lower id is refreshed (and
+            // locked) first, so two moves between the same persons can not deadlock
+            long previousPersonId = previousPersonIds.get(0);
+            measurementSeriesCache.invalidatePersonAfterCommit(p.getTenantId(), previousPersonId);
+            progressAnalyticsService.refreshPerson(p.getTenantId(), Math.min(previousPersonId, p.getPersonId()));
+            progressAnalyticsService.refreshPerson(p.getTenantId(), Math.max(previousPersonId, p.getPersonId()));
+        }
+        programView.setId(p.getId());
+        return programView;
+    }
 
+    /**
+     * Writes only what changed since the stored version of the program. Items are matched on their
+     * sub exercise, row id and position among the items sharing that row; a matched item whose values
+     * differ is updated in place, unmatched new items are inserted and unmatched stored items are
+     * deleted with one statement.
+     */
+    private void saveProgramExerciseItems(long programId, List<ProgramExerciseItem> items) {
+        Map<String, LinkedList<ProgramExerciseItem>> stored = new HashMap<>();
+        List<ProgramExerciseItem> storedItems = programExerciseItemDao.findByProgramId(programId);
+        storedItems.sort(Comparator.comparingLong(ProgramExerciseItem::getIdpk));
+        Map<String, Integer> ordinals = new HashMap<>();
+        for (ProgramExerciseItem item : storedItems) {
+            stored.computeIfAbsent(itemKey(item, ordinals), k -> new LinkedList<>()).add(item);
+        }
 
+        ordinals.clear();
+        List<ProgramExerciseItem> inserted = new ArrayList<>();
+        for (ProgramExerciseItem item : items) {
+            LinkedList<ProgramExerciseItem> candidates = stored.get(itemKey(item, ordinals));
+            ProgramExerciseItem current = candidates == null ? null : candidates.poll();
+            if (current == null) {
+                inserted.add(item);
+            } else if (!sameValues(current, item)) {
+                // current is managed, so the change is flushed as an update at commit
+                current.setExerciseId(item.getExerciseId());
+                current.setExerciseSet(item.getExerciseSet());
+                current.setExerciseRepeat(item.getExerciseRepeat());
+                current.setExerciseRepeatType(item.getExerciseRepeatType());
+                current.setDescription(item.getDescription());
+            }
+        }
 
-        programExerciseItemDao.save(allEntityList);
-        programView.setId(p.getId());
-        return programView;
+        List<ProgramExerciseItem> removed = new ArrayList<>();
+        stored.values().forEach(removed::addAll);
+        if (removed.size() > 0) {
+            programExerciseItemDao.deleteInBatch(removed);
+        }
+        if (inserted.size() > 0) {
+            programExerciseItemDao.save(inserted);
+        }
+    }
+
+    /**
+     * "sub/id/n" for the n-th item with this sub exercise and row id, counting in the given map.
+     */
+    private static String itemKey(ProgramExerciseItem item, Map<String, Integer> ordinals) {
+        String row = item.getSubExerciseId() + "/" + item.getId();
+        int ordinal = ordinals.merge(row, 1, Integer::sum);
+        return row + "/" + ordinal;
+    }
+
+    private static boolean sameValues(ProgramExerciseItem a, ProgramExerciseItem b) {
+        return a.getExerciseId() == b.getExerciseId()
+                && a.getExerciseSet() == b.getExerciseSet()
+                && a.getExerciseRepeat() == b.getExerciseRepeat()
+                && Objects.equals(a.getExerciseRepeatType(), b.getExerciseRepeatType())
+                && Objects.equals(a.getDescription(), b.getDescription());
     }
 
     private Program getProgramFromView(ProgramView view) {
@@ -289,55 +503,64 @@ public class ProgramService {
         return entityList;
     }
 
-    @Transactional
+    /**
+     * Read committed for the same reason as {@link #saveProgram(ProgramView)}.
+     *
+     * @throws RecordNotFoundException when the program is not one of the current tenant's
+     */
+    @Transactional(isolation = Isolation.READ_COMMITTED)
     public void deleteProgram(@PathVariable("id") long id) {
+        // loaded into the persistence context, so delete(id) below does not query it again
+        Program program = programDao.findOne(id);
+        if (program == null || !program.getTenantId().equals(CustomUserDetailsService.getCurrentUserTenant())) {
+            throw new RecordNotFoundException("برنامه " + id + " پیدا نشد");
+        }
         programExerciseItemDao.deleteByProgramId(id);
         programDao.delete(id);
+        renderedReportCache.invalidateProgramAfterCommit(id);
+        measurementSeriesCache.invalidatePersonAfterCommit(program.getTenantId(), program.getPersonId());
+        progressAnalyticsService.refreshPerson(program.getTenantId(), program.getPersonId());
     }
 
+    /**
+     * Stores the original picture; its thumbnails are built in the background by {@link ImagePipelineService}.
+     */
     public void saveProgramPicture(byte[] img, String personMobileNumber, long programId, String imageName, String type) throws IOException {
         String confFolder = tenantConfigurationService.getProjectConfigFolder();
-        int w = tenantConfigurationService.getShrinkedImageWidth();
-        int h = tenantConfigurationService.getShrinkedImageHeight();
-
-        byte[] shrinkedImage = ImageUtil.shrinkImage(w, h, img, type);
-
-        ImageUtil.saveToFileSystem(confFolder,personMobileNumber + "/" + programId, imageName, type, img);
-        ImageUtil.saveToFileSystem(confFolder,personMobileNumber + "/" + programId + "/" + "small", imageName, type, shrinkedImage);
-    }
+        String tenant = CustomUserDetailsService.getCurrentUserTenant();
 
-    public byte[] loadProgramPictureOriginal(String personMobileNumber, long programId, int imageNumber) throws IOException {
-        String path = personMobileNumber + "/" + programId;
-        return loadProgramPicture(path, imageNumber);
+        imageStoreService.store(confFolder, tenant, ImageRef.OWNER_PROGRAM, programId,
+                imageName, ImageRef.VARIANT_ORIGINAL, type, img);
+        imagePipelineService.submitProgramThumbnails(confFolder, tenant, programId, imageName, type, img);
     }
 
-    public byte[] loadProgramPictureShrinked(String personMobileNumber, long programId, int imageNumber) throws IOException {
-        String path = personMobileNumber + "/" + programId + "/" + "small";
-        return loadProgramPicture(path, imageNumber);
+    public ImageFile findProgramPictureOriginal(String personMobileNumber, long programId, int imageNumber) {
+        return findProgramPicture(ImageRef.VARIANT_ORIGINAL, personMobileNumber + "/" + programId, programId, imageNumber);
     }
 
-     private byte[] loadProgramPicture(String path, int imageNumber) throws IOException {
-        byte[] img;
-        img = getImage(path,
-                    ProgramConstants.PROGRAM_PICTURE_NAME + imageNumber + ".jpg");
-        if (img.length == 0) {
-            img = getImage(path,
-                    ProgramConstants.PROGRAM_PICTURE_NAME + imageNumber + ".png");
-        }
-        return img;
+    public ImageFile findProgramPictureShrinked(String personMobileNumber, long programId, int imageNumber) {
+        return findProgramPicture(ImagePipelineService.SMALL, personMobileNumber + "/" + programId + "/" + "small",
+                programId, imageNumber);
     }
 
-    private byte[] getImage(String path, String fileName) {
-        try {
-            String confFolder = tenantConfigurationService.getProjectConfigFolder();
+    /**
+     * Looks the picture up in the image store, then in the legacy mobileNumber/programId folders
+     * written before the store existed.
+     * @return the picture file, or null when there is none
+     */
+    private ImageFile findProgramPicture(String variant, String legacyPath, long programId, int imageNumber) {
+        String confFolder = tenantConfigurationService.getProjectConfigFolder();
+        String tenant = CustomUserDetailsService.getCurrentUserTenant();
+        String imageName = ProgramConstants.PROGRAM_PICTURE_NAME + imageNumber;
 
-            byte[] img = ImageUtil.loadImageInbytes(confFolder, path, fileName);
-            if (img != null && img.length > 0) {
-                return img;
-            }
-        }catch (Exception e) {
-            // ignore
+        ImageFile stored = imageStoreService.findFile(confFolder, tenant, ImageRef.OWNER_PROGRAM, programId, imageName, variant);
+        if (stored != null) {
+            return stored;
+        }
+        File file = new File(confFolder + "/" + legacyPath + "/" + imageName + ".jpg");
+        if (!file.exists()) {
+            file = new File(confFolder + "/" + legacyPath + "/" + imageName + ".png");
         }
-        return new byte[0];
+        return file.exists() ? ImageFile.legacy(file) : null;
     }
 }
\ No newline at end of file
@@ -0,0 +1,390 @@
+package com.caa.services;
+
+import com.caa.constants.Metric;
+import com.caa.dao.PersonDao;
+import com.caa.dao.PersonMetricStatsDao;
+import com.caa.dao.ProgramDao;
+import com.caa.dao.TenantMetricStatsDao;
+import com.caa.model.PersonMetricStats;
+import com.caa.model.TenantMetricStats;
+import com.caa.modelview.MeasurementRow;
+import com.caa.modelview.MetricStatsView;
+import com.caa.modelview.TenantMetricStatsView;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.annotation.Isolation;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps person_metric_stats and tenant_metric_stats in step with the programs, so the progress
+ * dashboards read a handful of rows instead of every program of a person or tenant.
+ *
+ * A person's stats are recomputed from the person's programs in the transaction that saves or
+ * deletes one of them (a minimum can not be taken back on delete without the other values), under
+ * a lock on the person's row so two saves for the same person do not interleave. The tenant's sums
+ * are not touched there, since every save of the tenant would wait on the same few rows; the save
+ * marks the tenant once it commits, and {@link #recomputeDirtyTenants()} sums the person stats of
+ * the marked tenants again a few seconds later.
+ */
+@Repository
+@Transactional(isolation = Isolation.READ_COMMITTED)
+public class ProgressAnalyticsService {
+
+    private static Logger logger = LoggerFactory.getLogger(ProgressAnalyticsService.class);
+
+    @Autowired
+    private ProgramDao programDao;
+
+    @Autowired
+    private PersonDao personDao;
+
+    @Autowired
+    private PersonMetricStatsDao personMetricStatsDao;
+
+    @Autowired
+    private TenantMetricStatsDao tenantMetricStatsDao;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private TransactionTemplate requiresNew;
+
+    /**
+     * Tenants whose tenant_metric_stats rows are known to exist.
+     */
+    private final Set<String> tenantsWithRows = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Tenants with person stats changed since their sums were last recomputed.
+     */
+    private final Set<String> dirtyTenants = ConcurrentHashMap.newKeySet();
+
+    @PostConstruct
+    public void init() {
+        requiresNew = new TransactionTemplate(transactionManager);
+        requiresNew.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        requiresNew.setIsolationLevel(TransactionDefinition.ISOLATION_READ_COMMITTED);
+    }
+
+    /**
+     * Recomputes the person's stats from the programs as this transaction sees them, and marks the
+     * tenant's sums for recomputing once it commits. Called after a program of the person is saved
+     * or deleted. The caller's transaction must be read committed (as saveProgram's is), so the
+     * reads after the lock see what another save of the person committed while this one waited.
+     */
+    @Transactional(isolation = Isolation.READ_COMMITTED)
+    public void refreshPerson(String tenant, long personId) {
+        updatePersonStats(tenant, personId);
+        markDirtyAfterCommit(tenant);
+    }
+
+    /**
+     * Deletes the stats of a person being deleted, and marks the tenant's sums for recomputing once
+     * the deletion commits, so they stop counting the person.
+     */
+    @Transactional(isolation = Isolation.READ_COMMITTED)
+    public void removePerson(String tenant, long personId) {
+        personMetricStatsDao.deleteByTenantIdAndPersonId(tenant, personId);
+        markDirtyAfterCommit(tenant);
+    }
+
+    /**
+     * Recomputes the stats of every person of the tenant and the tenant's sums from them; used to
+     * fill the tables for existing data and after bulk imports, which do not go through saveProgram.
+     * Each person is done in a transaction of its own under the person's lock, like a save, so
+     * saves running meanwhile are neither blocked for the whole rebuild nor overwritten by it.
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public void rebuildTenant(String tenant) {
+        // persons with programs, and persons whose stats are left over from programs deleted or moved since
+        Set<Long> personIds = new TreeSet<>(programDao.queryPersonIdsForTenant(tenant));
+        personIds.addAll(personMetricStatsDao.queryPersonIdsForTenant(tenant));
+        for (Long personId : personIds) {
+            requiresNew.execute(status -> {
+                updatePersonStats(tenant, personId);
+                return null;
+            });
+        }
+        dirtyTenants.remove(tenant);
+        recomputeTenant(tenant);
+    }
+
+    /**
+     * Sums the person stats of the tenants saved to since the last run into tenant_metric_stats.
+     */
+    @Scheduled(fixedDelay = 10000)
+    public void recomputeDirtyTenants() {
+        for (String tenant : new ArrayList<>(dirtyTenants)) {
+            dirtyTenants.remove(tenant);
+            try {
+                recomputeTenant(tenant);
+            } catch (RuntimeException e) {
+                dirtyTenants.add(tenant);
+                logger.warn("recomputing progress stats of tenant " + tenant + " failed", e);
+            }
+        }
+    }
+
+    private void markDirtyAfterCommit(String tenant) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            dirtyTenants.add(tenant);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                dirtyTenants.add(tenant);
+            }
+        });
+    }
+
+    private void updatePersonStats(String tenant, long personId) {
+        personDao.lockById(personId);
+
+        Map<String, PersonMetricStats> previous = new HashMap<>();
+        for (PersonMetricStats stats : personMetricStatsDao.queryForPerson(tenant, personId)) {
+            previous.put(stats.getMetric(), stats);
+        }
+        Map<String, PersonMetricStats> current = computeStats(tenant, personId,
+                programDao.queryMeasurementsByPersonIdForTenant(tenant, personId));
+
+        List<PersonMetricStats> saved = new ArrayList<>();
+        List<PersonMetricStats> removed = new ArrayList<>();
+        for (Metric metric : Metric.values()) {
+            PersonMetricStats before = previous.get(metric.getKey());
+            PersonMetricStats after = current.get(metric.getKey());
+            if (after == null) {
+                if (before != null) {
+                    removed.add(before);
+                }
+            } else if (before == null) {
+                saved.add(after);
+            } else if (copyValues(after, before)) {
+                saved.add(before);
+            }
+        }
+        if (removed.size() > 0) {
+            personMetricStatsDao.delete(removed);
+        }
+        if (saved.size() > 0) {
+            personMetricStatsDao.save(saved);
+        }
+    }
+
+    /**
+     * Replaces the tenant's sums with the ones of its person stats, in a short transaction of its
+     * own. The tenant's rows are locked before summing, so of two servers recomputing at once the
+     * later one sums what the earlier one could not see.
+     */
+    private void recomputeTenant(String tenant) {
+        ensureTenantRows(tenant);
+        requiresNew.execute(status -> {
+            Map<String, TenantMetricStats> byMetric = new HashMap<>();
+            for (TenantMetricStats stats : tenantMetricStatsDao.lockForTenant(tenant)) {
+                byMetric.put(stats.getMetric(), stats);
+            }
+            Map<String, Object[]> rollup = new HashMap<>();
+            for (Object[] row : personMetricStatsDao.queryRollupForTenant(tenant)) {
+                rollup.put((String) row[0], row);
+            }
+            List<TenantMetricStats> changed = new ArrayList<>();
+            for (Metric metric : Metric.values()) {
+                TenantMetricStats stats = byMetric.get(metric.getKey());
+                if (stats == null) {
+                    stats = newTenantStats(tenant, metric);
+                }
+                Object[] row = rollup.get(metric.getKey());
+                long personCount = row == null ? 0 : ((Number) row[1]).longValue();
+                double sumFirstValue = row == null ? 0 : ((Number) row[2]).doubleValue();
+                double sumLastValue = row == null ? 0 : ((Number) row[3]).doubleValue();
+                if (stats.getId() == 0 || stats.getPersonCount() != personCount
+                        || stats.getSumFirstValue() != sumFirstValue || stats.getSumLastValue() != sumLastValue) {
+                    stats.setPersonCount(personCount);
+                    stats.setSumFirstValue(sumFirstValue);
+                    stats.setSumLastValue(sumLastValue);
+                    changed.add(stats);
+                }
+            }
+            tenantMetricStatsDao.save(changed);
+            return null;
+        });
+    }
+
+    public List<MetricStatsView> getPersonProgress(String tenant, long personId) {
+        Map<String, PersonMetricStats> byMetric = new HashMap<>();
+        for (PersonMetricStats stats : personMetricStatsDao.queryForPerson(tenant, personId)) {
+            byMetric.put(stats.getMetric(), stats);
+        }
+        List<MetricStatsView> views = new ArrayList<>();
+        for (Metric metric : Metric.values()) {
+            PersonMetricStats stats = byMetric.get(metric.getKey());
+            if (stats == null) {
+                continue;
+            }
+            MetricStatsView view = new MetricStatsView();
+            view.setKey(metric.getKey());
+            view.setLabel(metric.getLabel());
+            view.setProgramCount(stats.getProgramCount());
+            view.setFirstEpochDay(toEpochDay(stats.getFirstDate()));
+            view.setFirstValue(stats.getFirstValue());
+            view.setLastEpochDay(toEpochDay(stats.getLastDate()));
+            view.setLastValue(stats.getLastValue());
+            view.setMinValue(stats.getMinValue());
+            view.setMaxValue(stats.getMaxValue());
+            view.setChange(stats.getLastValue() - stats.getFirstValue());
+            views.add(view);
+        }
+        return views;
+    }
+
+    public List<TenantMetricStatsView> getTenantProgress(String tenant) {
+        Map<String, TenantMetricStats> byMetric = new HashMap<>();
+        for (TenantMetricStats stats : tenantMetricStatsDao.queryForTenant(tenant)) {
+            byMetric.put(stats.getMetric(), stats);
+        }
+        List<TenantMetricStatsView> views = new ArrayList<>();
+        for (Metric metric : Metric.values()) {
+            TenantMetricStats stats = byMetric.get(metric.getKey());
+            if (stats == null || stats.getPersonCount() <= 0) {
+                continue;
+            }
+            TenantMetricStatsView view = new TenantMetricStatsView();
+            view.setKey(metric.getKey());
+            view.setLabel(metric.getLabel());
+            view.setPersonCount(stats.getPersonCount());
+            view.setAverageFirstValue(stats.getSumFirstValue() / stats.getPersonCount());
+            view.setAverageLastValue(stats.getSumLastValue() / stats.getPersonCount());
+            view.setAverageChange((stats.getSumLastValue() - stats.getSumFirstValue()) / stats.getPersonCount());
+            views.add(view);
+        }
+        return views;
+    }
+
+    /**
+     * @param rows the person's programs in date order
+     * @return stats by metric key, for the metrics taken (non zero) in at least one program
+     */
+    private static Map<String, PersonMetricStats> computeStats(String tenant, long personId, List<MeasurementRow> rows) {
+        Map<String, PersonMetricStats> result = new HashMap<>();
+        for (Metric metric : Metric.values()) {
+            PersonMetricStats stats = null;
+            for (MeasurementRow row : rows) {
+                double value = metric.valueOf(row);
+                if (value == 0) {
+                    continue;
+                }
+                if (stats == null) {
+                    stats = new PersonMetricStats();
+                    stats.setTenantId(tenant);
+                    stats.setPersonId(personId);
+                    stats.setMetric(metric.getKey());
+                    stats.setFirstDate(row.getProgramDate());
+                    stats.setFirstValue(value);
+                    stats.setMinValue(value);
+                    stats.setMaxValue(value);
+                }
+                stats.setProgramCount(stats.getProgramCount() + 1);
+                stats.setLastDate(row.getProgramDate());
+                stats.setLastValue(value);
+                stats.setMinValue(Math.min(stats.getMinValue(), value));
+                stats.setMaxValue(Math.max(stats.getMaxValue(), value));
+            }
+            if (stats != null) {
+                result.put(metric.getKey(), stats);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return true when target changed
+     */
+    private static boolean copyValues(PersonMetricStats source, PersonMetricStats target) {
+        boolean changed = source.getProgramCount() != target.getProgramCount()
+                || !sameDay(source.getFirstDate(), target.getFirstDate())
+                || source.getFirstValue() != target.getFirstValue()
+                || !sameDay(source.getLastDate(), target.getLastDate())
+                || source.getLastValue() != target.getLastValue()
+                || source.getMinValue() != target.getMinValue()
+                || source.getMaxValue() != target.getMaxValue();
+        if (changed) {
+            target.setProgramCount(source.getProgramCount());
+            target.setFirstDate(source.getFirstDate());
+            target.setFirstValue(source.getFirstValue());
+            target.setLastDate(source.getLastDate());
+            target.setLastValue(source.getLastValue());
+            target.setMinValue(source.getMinValue());
+            target.setMaxValue(source.getMaxValue());
+        }
+        return changed;
+    }
+
+    /**
+     * Creates the tenant's zeroed rows the first time, in a transaction of their own so they are
+     * visible to every later update of any server.
+     */
+    private void ensureTenantRows(String tenant) {
+        if (tenantsWithRows.contains(tenant)) {
+            return;
+        }
+        try {
+            requiresNew.execute(status -> {
+                Set<String> existing = new HashSet<>();
+                for (TenantMetricStats stats : tenantMetricStatsDao.queryForTenant(tenant)) {
+                    existing.add(stats.getMetric());
+                }
+                List<TenantMetricStats> missing = new ArrayList<>();
+                for (Metric metric : Metric.values()) {
+                    if (!existing.contains(metric.getKey())) {
+                        missing.add(newTenantStats(tenant, metric));
+                    }
+                }
+                tenantMetricStatsDao.save(missing);
+                tenantMetricStatsDao.flush();
+                return null;
+            });
+        } catch (DataIntegrityViolationException e) {
+            // another request created them first
+        }
+        tenantsWithRows.add(tenant);
+    }
+
+    private static TenantMetricStats newTenantStats(String tenant, Metric metric) {
+        TenantMetricStats stats = new TenantMetricStats();
+        stats.setTenantId(tenant);
+        stats.setMetric(metric.getKey());
+        return stats;
+    }
+
+    private static boolean sameDay(Date a, Date b) {
+        return toEpochDay(a) == toEpochDay(b);
+    }
+
+    private static long toEpochDay(Date date) {
+        // java.sql.Date does not support toInstant, so go through the epoch millis
+        return Instant.ofEpochMilli(date.getTime()).atZone(ZoneId.systemDefault()).toLocalDate().toEpochDay();
+    }
+}
@@ -0,0 +1,17 @@
+package com.caa.services;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Thrown when a record a request refers to does not exist or belongs to another tenant.
+ */
+@ResponseStatus(HttpStatus.NOT_FOUND)
+public class RecordNotFoundException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public RecordNotFoundException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,109 @@
+package com.caa.services;
+
+import com.caa.util.LruCache;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Rendered program PDFs and images keyed by the content hash of their input, bounded by total bytes
+ * and evicted least recently used first.
+ */
+@Repository
+public class RenderedReportCache {
+
+    @Value("${report.cache.max-bytes:67108864}")
+    private long maxBytes;
+
+    private LruCache<String, Report> reports;
+
+    /**
+     * Content hashes cached for each program, so saving or deleting a program drops its entries;
+     * hashes leave it again when their entry is evicted.
+     */
+    private final Map<Long, Set<String>> hashesByProgram = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        reports = new LruCache<>(maxBytes, report -> report.bytes.length,
+                (contentHash, report) -> forgetHash(report.programId, contentHash));
+    }
+
+    public byte[] get(String contentHash) {
+        Report report = reports.get(contentHash);
+        return report == null ? null : report.bytes;
+    }
+
+    public void put(long programId, String contentHash, byte[] bytes) {
+        if (bytes.length > maxBytes) {
+            return;
+        }
+        hashesByProgram.computeIfAbsent(programId, id -> ConcurrentHashMap.newKeySet()).add(contentHash);
+        reports.put(contentHash, new Report(programId, bytes));
+    }
+
+    public void invalidateProgram(long programId) {
+        Set<String> hashes = hashesByProgram.remove(programId);
+        if (hashes != null) {
+            hashes.forEach(reports::remove);
+        }
+    }
+
+    /**
+     * Drops the program's entries once the current transaction commits, or right away when there is none.
+     */
+    public void invalidateProgramAfterCommit(long programId) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            invalidateProgram(programId);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                invalidateProgram(programId);
+            }
+        });
+    }
+
+    private void forgetHash(long programId, String contentHash) {
+        hashesByProgram.computeIfPresent(programId, (id, hashes) -> {
+            hashes.remove(contentHash);
+            return hashes.isEmpty() ? null : hashes;
+        });
+    }
+
+    /**
+     * The cache itself, whose counters MetricsConfiguration reads one at a time.
+     */
+    public LruCache<?, ?> getCache() {
+        return reports;
+    }
+
+    public Map<String, Long> getStats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("entries", (long) reports.size());
+        stats.put("bytes", reports.getWeight());
+        stats.put("maxBytes", reports.getMaxWeight());
+        stats.put("hits", reports.getHits());
+        stats.put("misses", reports.getMisses());
+        stats.put("evictions", reports.getEvictions());
+        return stats;
+    }
+
+    private static class Report {
+        private final long programId;
+        private final byte[] bytes;
+
+        Report(long programId, byte[] bytes) {
+            this.programId = programId;
+            this.bytes = bytes;
+        }
+    }
+}
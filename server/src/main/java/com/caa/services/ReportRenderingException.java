@@ -0,0 +1,21 @@
+package com.caa.services;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Thrown when a report cannot be rendered right now because the renderer pool is saturated or too slow.
+ */
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class ReportRenderingException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public ReportRenderingException(String message) {
+        super(message);
+    }
+
+    public ReportRenderingException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,269 @@
+package com.caa.services;
+
+import com.caa.modelview.RenderJobView;
+import com.caa.report.ProgramReportRequest;
+import com.caa.services.security.impl.CustomUserDetailsService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Repository;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Renders program reports on a dedicated, fixed-size pool with a bounded queue, so report generation
+ * never runs on (and never starves) the web request threads. Reports can be rendered synchronously
+ * with a timeout, or enqueued as jobs that are polled and downloaded later.
+ */
+@Repository
+public class ReportRenderingService {
+
+    private static Logger logger = LoggerFactory.getLogger(ReportRenderingService.class);
+
+    public static final String STATUS_QUEUED = "QUEUED";
+    public static final String STATUS_RUNNING = "RUNNING";
+    public static final String STATUS_DONE = "DONE";
+    public static final String STATUS_FAILED = "FAILED";
+
+    @Autowired
+    ProgramService programService;
+
+    @Autowired
+    RenderedReportCache renderedReportCache;
+
+    @Value("${report.render.threads:2}")
+    private int threads;
+
+    @Value("${report.render.queue-capacity:50}")
+    private int queueCapacity;
+
+    @Value("${report.render.timeout-seconds:60}")
+    private long timeoutSeconds;
+
+    @Value("${report.render.job-ttl-minutes:30}")
+    private long jobTtlMinutes;
+
+    @Value("${report.render.max-finished-jobs-per-tenant:20}")
+    private int maxFinishedJobsPerTenant;
+
+    @Value("${report.render.max-finished-jobs:200}")
+    private int maxFinishedJobs;
+
+    private ThreadPoolExecutor executor;
+
+    private final Map<String, RenderJob> jobs = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "report-renderer-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), threadFactory, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    public ThreadPoolExecutor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Renders the report on the renderer pool and waits for it.
+     * @return rendered bytes, or null when the program has no exercise
+     */
+    public byte[] render(ProgramReportRequest request) {
+        if (request.getItems().size() == 0) {
+            return null;
+        }
+        byte[] cached = renderedReportCache.get(request.getContentHash());
+        if (cached != null) {
+            return cached;
+        }
+
+        Future<byte[]> future = submit(request);
+        try {
+            return future.get(timeoutSeconds, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            throw new ReportRenderingException("زمان آماده سازی برنامه به پایان رسید، لطفا دوباره تلاش کنید", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ReportRenderingException("آماده سازی برنامه متوقف شد", e);
+        } catch (ExecutionException e) {
+            throw new ReportRenderingException("خطا در آماده سازی برنامه", e.getCause());
+        }
+    }
+
+    /**
+     * Queues the report and returns immediately with the job that tracks it.
+     */
+    public RenderJobView enqueue(ProgramReportRequest request) {
+        purgeExpiredJobs();
+        RenderJob job = new RenderJob(UUID.randomUUID().toString(),
+                CustomUserDetailsService.getCurrentUserTenant(), request);
+        jobs.put(job.jobId, job);
+        try {
+            executor.submit(() -> {
+                job.status = STATUS_RUNNING;
+                try {
+                    job.result = programService.renderProgramReport(request);
+                    job.status = STATUS_DONE;
+                } catch (Throwable e) {
+                    logger.error("report render job " + job.jobId + " failed", e);
+                    job.error = e.getMessage();
+                    job.status = STATUS_FAILED;
+                } finally {
+                    job.finishedAt = System.currentTimeMillis();
+                    dropOldestFinishedJobs(job.tenant);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            jobs.remove(job.jobId);
+            throw queueFull(e);
+        }
+        return job.toView();
+    }
+
+    /**
+     * @return the job of the current tenant with the given id, or null when it is unknown or expired
+     */
+    public RenderJobView getJob(String jobId) {
+        RenderJob job = findJob(jobId);
+        return job == null ? null : job.toView();
+    }
+
+    /**
+     * @return the rendered bytes of a finished job, or null while it is still queued or running
+     */
+    public byte[] getJobResult(String jobId) {
+        RenderJob job = findJob(jobId);
+        if (job == null || !STATUS_DONE.equals(job.status)) {
+            return null;
+        }
+        return job.result;
+    }
+
+    public String getJobContentType(String jobId) {
+        RenderJob job = findJob(jobId);
+        return job == null ? null : job.request.getFormat().getContentType();
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    private Future<byte[]> submit(ProgramReportRequest request) {
+        try {
+            return executor.submit(() -> programService.renderProgramReport(request));
+        } catch (RejectedExecutionException e) {
+            throw queueFull(e);
+        }
+    }
+
+    private ReportRenderingException queueFull(RejectedExecutionException e) {
+        logger.warn("report render queue is full: " + executor.getQueue().size() + " waiting");
+        return new ReportRenderingException("صف آماده سازی برنامه ها پر است، لطفا دوباره تلاش کنید", e);
+    }
+
+    private RenderJob findJob(String jobId) {
+        RenderJob job = jobs.get(jobId);
+        if (job == null || !job.tenant.equals(CustomUserDetailsService.getCurrentUserTenant())) {
+            return null;
+        }
+        return job;
+    }
+
+    /**
+     * Drops jobs finished more than the job ttl ago, with their results. Runs every minute, so
+     * results do not stay in memory when no new job is queued.
+     */
+    @Scheduled(fixedDelay = 60000)
+    public void purgeExpiredJobs() {
+        long expiredBefore = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(jobTtlMinutes);
+        Iterator<RenderJob> it = jobs.values().iterator();
+        while (it.hasNext()) {
+            RenderJob job = it.next();
+            if (job.finishedAt > 0 && job.finishedAt < expiredBefore) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Keeps at most the configured number of finished jobs of the tenant and of all tenants, so jobs
+     * enqueued faster than they expire do not hold more than that many results in memory.
+     */
+    private synchronized void dropOldestFinishedJobs(String tenant) {
+        List<RenderJob> finished = new ArrayList<>();
+        for (RenderJob job : jobs.values()) {
+            if (job.finishedAt > 0) {
+                finished.add(job);
+            }
+        }
+        // newest first
+        finished.sort(Comparator.comparingLong((RenderJob job) -> job.finishedAt).reversed());
+        int ofTenant = 0;
+        for (int i = 0; i < finished.size(); i++) {
+            RenderJob job = finished.get(i);
+            boolean sameTenant = job.tenant.equals(tenant);
+            if (sameTenant) {
+                ofTenant++;
+            }
+            if (i >= maxFinishedJobs || (sameTenant && ofTenant > maxFinishedJobsPerTenant)) {
+                jobs.remove(job.jobId);
+            }
+        }
+    }
+
+    private static class RenderJob {
+        private final String jobId;
+        private final String tenant;
+        private final ProgramReportRequest request;
+        private volatile String status = STATUS_QUEUED;
+        private volatile byte[] result;
+        private volatile String error;
+        private volatile long finishedAt;
+
+        RenderJob(String jobId, String tenant, ProgramReportRequest request) {
+            this.jobId = jobId;
+            this.tenant = tenant;
+            this.request = request;
+        }
+
+        RenderJobView toView() {
+            RenderJobView view = new RenderJobView();
+            view.setJobId(jobId);
+            view.setProgramId(request.getProgram().getId());
+            view.setFormat(request.getFormat().name());
+            view.setStatus(status);
+            view.setError(error);
+            return view;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.caa.util;
+
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+/**
+ * Guards the operational endpoints (cache statistics, rebuilds) that act on or report about every
+ * tenant, so only users with the ROLE_ADMIN authority can call them.
+ */
+public class AdminAccess {
+
+    public static final String ADMIN_ROLE = "ROLE_ADMIN";
+
+    public static boolean isAdmin() {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication == null || !authentication.isAuthenticated()) {
+            return false;
+        }
+        for (GrantedAuthority authority : authentication.getAuthorities()) {
+            if (ADMIN_ROLE.equals(authority.getAuthority())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @throws AccessDeniedException, answered with 403 by the security filters, unless the user is an admin
+     */
+    public static void checkAdmin() {
+        if (!isAdmin()) {
+            throw new AccessDeniedException("دسترسی به این بخش فقط برای مدیر سیستم مجاز است");
+        }
+    }
+}
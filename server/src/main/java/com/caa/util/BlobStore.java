@@ -0,0 +1,66 @@
+package com.caa.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Content-addressed file store under confFolder/blobs. A blob is named after the SHA-256 of its bytes
+ * (blobs/ab/cd/abcd...), so storing the same content twice keeps a single file.
+ */
+public class BlobStore {
+
+    private static final String BLOB_FOLDER = "blobs";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    public static String hash(byte[] bytes) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+            char[] hex = new char[digest.length * 2];
+            for (int i = 0; i < digest.length; i++) {
+                hex[i * 2] = HEX[(digest[i] >> 4) & 0xF];
+                hex[i * 2 + 1] = HEX[digest[i] & 0xF];
+            }
+            return new String(hex);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Stores the bytes unless a blob with the same content already exists.
+     * @return the content hash that names the blob
+     */
+    public static String put(String confFolder, byte[] bytes) throws IOException {
+        String hash = hash(bytes);
+        Path target = getFile(confFolder, hash).toPath();
+        if (Files.exists(target)) {
+            return hash;
+        }
+        Files.createDirectories(target.getParent());
+        // write next to the target and move it in place, so readers never see a partial blob
+        Path temp = Files.createTempFile(target.getParent(), hash, ".tmp");
+        try {
+            Files.write(temp, bytes);
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileAlreadyExistsException e) {
+            // stored concurrently by another upload of the same content
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        return hash;
+    }
+
+    public static File getFile(String confFolder, String hash) {
+        return new File(confFolder + "/" + BLOB_FOLDER + "/" + hash.substring(0, 2) + "/" + hash.substring(2, 4) + "/" + hash);
+    }
+
+    public static boolean isHash(String value) {
+        return value != null && value.matches("[0-9a-f]{64}");
+    }
+}
@@ -1,16 +1,27 @@
 package com.caa.util;
 
 import ir.huri.jcal.JalaliCalendar;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.GregorianCalendar;
+import java.util.TimeZone;
 
 /**
  * Created by Reza on 16/08/2018.
  */
 public class DateUtil {
 
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
     public static String  getShamsiDate(Date d) {
+        long millis = d.getTime();
+        long epochDay = Math.floorDiv(millis + TimeZone.getDefault().getOffset(millis), MILLIS_PER_DAY);
+        if (JalaliConverter.isSupported(epochDay)) {
+            return format(JalaliConverter.fromEpochDay(epochDay));
+        }
         Calendar calendar = Calendar.getInstance();
         calendar.setTime(d);
         JalaliCalendar j = new JalaliCalendar(new GregorianCalendar(
@@ -29,8 +40,35 @@ public class DateUtil {
             return new Date(0);
         }
         String arr[] = d.trim().split("/");
+        int year = Integer.parseInt(arr[0]);
+        if (year >= JalaliConverter.MIN_YEAR && year <= JalaliConverter.MAX_YEAR) {
+            LocalDate date = LocalDate.ofEpochDay(JalaliConverter.toEpochDay(year, Integer.parseInt(arr[1]), Integer.parseInt(arr[2])));
+            // GregorianCalendar resolves a midnight that occurs twice to the later one
+            return Date.from(date.atStartOfDay(ZoneId.systemDefault()).withLaterOffsetAtOverlap().toInstant());
+        }
         JalaliCalendar jalaliCalendar =
                 new JalaliCalendar(Integer.parseInt(arr[0]), Integer.parseInt(arr[1]), Integer.parseInt(arr[2]));
         return jalaliCalendar.toGregorian().getTime();
     }
+
+    /**
+     * @return the date as year/month/day in the Jalali calendar, without leading zeros
+     */
+    public static String getShamsiDate(LocalDate date) {
+        return format(JalaliConverter.fromEpochDay(date.toEpochDay()));
+    }
+
+    /**
+     * @param shamsi year/month/day in the Jalali calendar
+     */
+    public static LocalDate getLocalDate(String shamsi) {
+        String arr[] = shamsi.trim().split("/");
+        return LocalDate.ofEpochDay(JalaliConverter.toEpochDay(
+                Integer.parseInt(arr[0]), Integer.parseInt(arr[1]), Integer.parseInt(arr[2])));
+    }
+
+    private static String format(int packed) {
+        return new StringBuilder(10).append(JalaliConverter.year(packed)).append('/')
+                .append(JalaliConverter.month(packed)).append('/').append(JalaliConverter.day(packed)).toString();
+    }
 }
@@ -0,0 +1,206 @@
+package com.caa.util;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Writes files to the response without loading them into memory. On Tomcat with sendfile enabled
+ * the connector sends the file straight from the kernel; otherwise it is copied to the response
+ * stream through a small buffer.
+ */
+public class FileResponseUtil {
+
+    /**
+     * For URLs whose content never changes, such as pictures addressed by their content hash.
+     */
+    public static final String CACHE_IMMUTABLE = "private, max-age=31536000, immutable";
+
+    /**
+     * For URLs whose content can change; the client keeps its copy but revalidates it on every use.
+     */
+    public static final String CACHE_REVALIDATE = "private, no-cache";
+
+    private static final String SENDFILE_SUPPORTED = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    /**
+     * Sends the picture with ETag, Last-Modified and Cache-Control headers, answering 304 when the
+     * client's copy is current. With acceptRanges a single byte range is served as 206, and a range
+     * outside the file is answered with 416.
+     */
+    public static void sendPicture(HttpServletRequest request, HttpServletResponse response, ImageFile picture,
+                                   String cacheControl, boolean acceptRanges) throws IOException {
+        File file = picture.getFile();
+        long length = file.length();
+        long lastModified = file.lastModified();
+        String etag = getETag(picture);
+
+        response.setHeader(HttpHeaders.CACHE_CONTROL, cacheControl);
+        if (acceptRanges) {
+            response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        }
+        if (new ServletWebRequest(request, response).checkNotModified(etag, lastModified)) {
+            return;
+        }
+
+        String range = request.getHeader(HttpHeaders.RANGE);
+        if (acceptRanges && range != null && matchesIfRange(request, etag, lastModified)) {
+            long[] bounds = parseRange(range, length);
+            if (bounds != null && bounds.length == 0) {
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+                response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                return;
+            }
+            if (bounds != null) {
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + bounds[0] + "-" + (bounds[1] - 1) + "/" + length);
+                sendFile(request, response, file, picture.getContentType(), bounds[0], bounds[1]);
+                return;
+            }
+        }
+        sendFile(request, response, file, picture.getContentType(), 0, length);
+    }
+
+    /**
+     * Sends a stored picture by redirecting to its immutable /api/images/{hash} URL, so clients
+     * that still use a picture's mutable URL cache the bytes once per content. The redirect itself
+     * is revalidated, since the picture behind the mutable URL can change.
+     */
+    public static void redirectToImage(HttpServletRequest request, HttpServletResponse response,
+                                       String hash) throws IOException {
+        response.setHeader(HttpHeaders.CACHE_CONTROL, CACHE_REVALIDATE);
+        response.sendRedirect(request.getContextPath() + "/api/images/" + hash);
+    }
+
+    /**
+     * Sends an in-memory picture with the given entity tag, answering 304 when the client has it.
+     */
+    public static void sendBytes(HttpServletRequest request, HttpServletResponse response, byte[] bytes,
+                                 String hash, String contentType, String cacheControl) throws IOException {
+        response.setHeader(HttpHeaders.CACHE_CONTROL, cacheControl);
+        if (new ServletWebRequest(request, response).checkNotModified("\"" + hash + "\"")) {
+            return;
+        }
+        response.setContentType(contentType);
+        response.setContentLength(bytes.length);
+        response.getOutputStream().write(bytes);
+    }
+
+    public static void sendFile(HttpServletRequest request, HttpServletResponse response,
+                                File file, String contentType) throws IOException {
+        sendFile(request, response, file, contentType, 0, file.length());
+    }
+
+    /**
+     * Sends bytes [start, end) of the file. Headers other than content type and length are left to the caller.
+     */
+    public static void sendFile(HttpServletRequest request, HttpServletResponse response,
+                                File file, String contentType, long start, long end) throws IOException {
+        response.setContentType(contentType);
+        response.setContentLengthLong(end - start);
+
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED))) {
+            request.setAttribute(SENDFILE_FILENAME, file.getCanonicalPath());
+            request.setAttribute(SENDFILE_START, start);
+            request.setAttribute(SENDFILE_END, end);
+            return;
+        }
+
+        if (end > start) {
+            try (InputStream in = new FileInputStream(file)) {
+                StreamUtils.copyRange(in, response.getOutputStream(), start, end - 1);
+            }
+        }
+    }
+
+    public static String getContentType(String imageSuffix) {
+        if ("png".equalsIgnoreCase(imageSuffix)) {
+            return "image/png";
+        }
+        if ("gif".equalsIgnoreCase(imageSuffix)) {
+            return "image/gif";
+        }
+        return "image/jpeg";
+    }
+
+    /**
+     * Store blobs are tagged with their content hash; legacy files with their modification time and size.
+     */
+    private static String getETag(ImageFile picture) {
+        if (picture.getHash() != null) {
+            return "\"" + picture.getHash() + "\"";
+        }
+        File file = picture.getFile();
+        return "\"" + Long.toHexString(file.lastModified()) + "-" + Long.toHexString(file.length()) + "\"";
+    }
+
+    /**
+     * A range request with If-Range is only honoured while the client's validator is still current;
+     * otherwise the whole file is sent.
+     */
+    private static boolean matchesIfRange(HttpServletRequest request, String etag, long lastModified) {
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return ifRange.equals(etag);
+        }
+        try {
+            return lastModified / 1000 <= request.getDateHeader(HttpHeaders.IF_RANGE) / 1000;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Parses a single "bytes=first-last", "bytes=first-" or "bytes=-suffixLength" range.
+     * @return {start, end} with end exclusive; an empty array when the range lies outside the file;
+     * null when the header is malformed or asks for several ranges, in which case it is ignored
+     */
+    static long[] parseRange(String range, long length) {
+        if (!range.startsWith("bytes=") || range.indexOf(',') >= 0) {
+            return null;
+        }
+        String spec = range.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            if (first.isEmpty()) {
+                if (last.isEmpty()) {
+                    return null;
+                }
+                long suffixLength = Long.parseLong(last);
+                if (suffixLength == 0 || length == 0) {
+                    return new long[0];
+                }
+                return new long[]{Math.max(0, length - suffixLength), length};
+            }
+            long start = Long.parseLong(first);
+            long end = last.isEmpty() ? length : Math.min(length, Long.parseLong(last) + 1);
+            if (start >= length) {
+                return new long[0];
+            }
+            if (end <= start) {
+                return null;
+            }
+            return new long[]{start, end};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
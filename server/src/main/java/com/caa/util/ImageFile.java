@@ -0,0 +1,45 @@
+package com.caa.util;
+
+import java.io.File;
+
+/**
+ * A stored picture on disk: either a blob of the image store, named by its content hash, or a legacy
+ * file written before the store existed (hash is null).
+ */
+public class ImageFile {
+
+    private final File file;
+    private final String imageSuffix;
+    private final String hash;
+
+    public ImageFile(File file, String imageSuffix, String hash) {
+        this.file = file;
+        this.imageSuffix = imageSuffix;
+        this.hash = hash;
+    }
+
+    /**
+     * Wraps a legacy file, taking the suffix from its extension.
+     */
+    public static ImageFile legacy(File file) {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        return new ImageFile(file, dot < 0 ? "jpg" : name.substring(dot + 1), null);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public String getImageSuffix() {
+        return imageSuffix;
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    public String getContentType() {
+        return FileResponseUtil.getContentType(imageSuffix);
+    }
+}
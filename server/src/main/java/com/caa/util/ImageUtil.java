@@ -1,6 +1,8 @@
 package com.caa.util;
 
 import com.caa.services.TenantConfigurationService;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
 import org.springframework.web.multipart.MultipartFile;
@@ -69,6 +71,9 @@ public class ImageUtil {
         return bytes;
     }
 
+    /**
+     * Shrinks the image to fit into the given box, keeping its aspect ratio.
+     */
     public static byte[] shrinkImage(
             int shrinkedImageWidth,
             int shrinkedImageHeight,
@@ -77,28 +82,75 @@ public class ImageUtil {
             return new byte[0];
         }
 
-        int w = shrinkedImageWidth;
-        int h = shrinkedImageHeight;
-
-        BufferedImage originalImage = toBufferedImage(imageInByte);
-        int type = originalImage.getType() == 0? BufferedImage.TYPE_INT_ARGB : originalImage.getType();
+        Timer.Sample sample = Timer.start(Metrics.globalRegistry);
+        try {
+            BufferedImage originalImage = toBufferedImage(imageInByte);
+            BufferedImage resizedImage = scaleToFit(originalImage, shrinkedImageWidth, shrinkedImageHeight);
+            return toByte(toWritableType(resizedImage, imageSuffix), imageSuffix);
+        } finally {
+            sample.stop(Metrics.timer("image.shrink"));
+        }
+    }
 
-        BufferedImage resizedImage = new BufferedImage(w, h, type);
-        Graphics2D g = resizedImage.createGraphics();
-        g.drawImage(originalImage, 0, 0, w, h, null);
+    /**
+     * Scales the image down to fit into maxWidth x maxHeight without distorting it. Large reductions are
+     * done in successive halving steps, which keeps bilinear filtering from skipping source pixels.
+     * Images already inside the box are returned unchanged.
+     */
+    public static BufferedImage scaleToFit(BufferedImage image, int maxWidth, int maxHeight) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        double scale = Math.min((double) maxWidth / width, (double) maxHeight / height);
+        if (scale >= 1) {
+            return image;
+        }
+        int targetWidth = Math.max(1, (int) Math.round(width * scale));
+        int targetHeight = Math.max(1, (int) Math.round(height * scale));
+        int type = image.getTransparency() == Transparency.OPAQUE ?
+                BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB;
+
+        BufferedImage current = image;
+        do {
+            width = Math.max(targetWidth, width / 2);
+            height = Math.max(targetHeight, height / 2);
+            if (width / 2 < targetWidth || height / 2 < targetHeight) {
+                // the next halving would overshoot, so finish on the exact size
+                width = targetWidth;
+                height = targetHeight;
+            }
 
-        g.setComposite(AlphaComposite.Src);
+            BufferedImage step = new BufferedImage(width, height, type);
+            Graphics2D g = step.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                    RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING,
+                    RenderingHints.VALUE_RENDER_QUALITY);
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                    RenderingHints.VALUE_ANTIALIAS_ON);
+            g.setComposite(AlphaComposite.Src);
+            g.drawImage(current, 0, 0, width, height, null);
+            g.dispose();
+            current = step;
+        } while (width != targetWidth || height != targetHeight);
+
+        return current;
+    }
 
-        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
-                RenderingHints.VALUE_INTERPOLATION_BILINEAR);
-        g.setRenderingHint(RenderingHints.KEY_RENDERING,
-                RenderingHints.VALUE_RENDER_QUALITY);
-        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
-                RenderingHints.VALUE_ANTIALIAS_ON);
+    /**
+     * JPEG has no alpha channel; ImageIO silently writes nothing for an ARGB image, so flatten it first.
+     */
+    private static BufferedImage toWritableType(BufferedImage image, String imageFormat) {
+        boolean jpeg = "jpg".equalsIgnoreCase(imageFormat) || "jpeg".equalsIgnoreCase(imageFormat);
+        if (!jpeg || image.getTransparency() == Transparency.OPAQUE) {
+            return image;
+        }
+        BufferedImage rgb = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = rgb.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, image.getWidth(), image.getHeight());
+        g.drawImage(image, 0, 0, null);
         g.dispose();
-
-        return toByte(resizedImage, imageSuffix);
-
+        return rgb;
     }
 
     private static byte[] toByte(BufferedImage bufferedImage, String imageFormat) throws IOException{
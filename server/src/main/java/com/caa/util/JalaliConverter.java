@@ -0,0 +1,146 @@
+package com.caa.util;
+
+import java.time.LocalDate;
+
+/**
+ * Converts between epoch days (days since 1970-01-01, as in {@link LocalDate#toEpochDay()}) and
+ * Jalali dates with table lookups and integer arithmetic only. The epoch day of 1 Farvardin of every
+ * supported year is computed once, with the same break-year rule as {@link ir.huri.jcal.JalaliCalendar}.
+ */
+public class JalaliConverter {
+
+    public static final int MIN_YEAR = 1000;
+    public static final int MAX_YEAR = 1999;
+
+    /**
+     * Years in which the 33-year leap cycle of the Jalali calendar shifts.
+     */
+    private static final int[] BREAKS = {-61, 9, 38, 199, 426, 686, 756, 818, 1111, 1181, 1210,
+            1635, 2060, 2097, 2192, 2262, 2324, 2394, 2456, 3178};
+
+    /**
+     * Day of the year (0 based) on which each month starts.
+     */
+    private static final int[] MONTH_START = {0, 31, 62, 93, 124, 155, 186, 216, 246, 276, 306, 336};
+
+    /**
+     * FARVARDIN_FIRST[y - MIN_YEAR] is the epoch day of 1 Farvardin of year y, up to MAX_YEAR + 1.
+     */
+    private static final int[] FARVARDIN_FIRST = new int[MAX_YEAR - MIN_YEAR + 2];
+
+    static {
+        for (int year = MIN_YEAR; year <= MAX_YEAR + 1; year++) {
+            int gregorianYear = year + 621;
+            FARVARDIN_FIRST[year - MIN_YEAR] = (int) LocalDate.of(gregorianYear, 3, marchDayOfFarvardinFirst(year)).toEpochDay();
+        }
+    }
+
+    public static int getMinEpochDay() {
+        return FARVARDIN_FIRST[0];
+    }
+
+    /**
+     * @return the last epoch day of MAX_YEAR
+     */
+    public static int getMaxEpochDay() {
+        return FARVARDIN_FIRST[FARVARDIN_FIRST.length - 1] - 1;
+    }
+
+    public static boolean isSupported(long epochDay) {
+        return epochDay >= getMinEpochDay() && epochDay <= getMaxEpochDay();
+    }
+
+    public static boolean isLeapYear(int year) {
+        checkYear(year);
+        return FARVARDIN_FIRST[year - MIN_YEAR + 1] - FARVARDIN_FIRST[year - MIN_YEAR] == 366;
+    }
+
+    public static int getMonthLength(int year, int month) {
+        if (month < 1 || month > 12) {
+            throw new RuntimeException("ماه " + month + " معتبر نیست");
+        }
+        if (month < 7) {
+            return 31;
+        }
+        if (month < 12) {
+            return 30;
+        }
+        return isLeapYear(year) ? 30 : 29;
+    }
+
+    /**
+     * As with {@link ir.huri.jcal.JalaliCalendar}, a day past the end of the month runs into the next month.
+     */
+    public static long toEpochDay(int year, int month, int day) {
+        checkYear(year);
+        if (month < 1 || month > 12 || day < 1 || day > 31) {
+            throw new RuntimeException("تاریخ " + year + "/" + month + "/" + day + " معتبر نیست");
+        }
+        return FARVARDIN_FIRST[year - MIN_YEAR] + MONTH_START[month - 1] + day - 1;
+    }
+
+    /**
+     * @return the Jalali date packed as year * 10000 + month * 100 + day, so nothing is allocated;
+     * see {@link #year(int)}, {@link #month(int)} and {@link #day(int)}
+     */
+    public static int fromEpochDay(long epochDay) {
+        if (!isSupported(epochDay)) {
+            throw new RuntimeException("تاریخ خارج از بازه " + MIN_YEAR + " تا " + MAX_YEAR + " است");
+        }
+        int days = (int) epochDay;
+        // the mean Jalali year is 365.2422 days, so this lands on the right year or next to it
+        int index = Math.min((int) ((days - FARVARDIN_FIRST[0]) * 10000L / 3652422), FARVARDIN_FIRST.length - 2);
+        if (FARVARDIN_FIRST[index] > days) {
+            index--;
+        } else if (FARVARDIN_FIRST[index + 1] <= days) {
+            index++;
+        }
+        int dayOfYear = days - FARVARDIN_FIRST[index];
+        int month = dayOfYear < 186 ? dayOfYear / 31 + 1 : (dayOfYear - 186) / 30 + 7;
+        int day = dayOfYear - MONTH_START[month - 1] + 1;
+        return (MIN_YEAR + index) * 10000 + month * 100 + day;
+    }
+
+    public static int year(int packed) {
+        return packed / 10000;
+    }
+
+    public static int month(int packed) {
+        return packed / 100 % 100;
+    }
+
+    public static int day(int packed) {
+        return packed % 100;
+    }
+
+    private static void checkYear(int year) {
+        if (year < MIN_YEAR || year > MAX_YEAR) {
+            throw new RuntimeException("سال " + year + " خارج از بازه " + MIN_YEAR + " تا " + MAX_YEAR + " است");
+        }
+    }
+
+    /**
+     * @return the day of March of the Gregorian year (year + 621) on which 1 Farvardin of the Jalali year falls
+     */
+    private static int marchDayOfFarvardinFirst(int year) {
+        int gregorianYear = year + 621;
+        int jalaliLeap = -14;
+        int jp = BREAKS[0];
+        for (int j = 1; j < BREAKS.length; j++) {
+            int jm = BREAKS[j];
+            int jump = jm - jp;
+            if (year < jm) {
+                int n = year - jp;
+                jalaliLeap += n / 33 * 8 + (n % 33 + 3) / 4;
+                if (jump % 33 == 4 && jump - n == 4) {
+                    jalaliLeap++;
+                }
+                int gregorianLeap = gregorianYear / 4 - (gregorianYear / 100 + 1) * 3 / 4 - 150;
+                return 20 + jalaliLeap - gregorianLeap;
+            }
+            jalaliLeap += jump / 33 * 8 + jump % 33 / 4;
+            jp = jm;
+        }
+        throw new RuntimeException("سال " + year + " پشتیبانی نمی شود");
+    }
+}
@@ -0,0 +1,124 @@
+package com.caa.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+/**
+ * Small thread-safe LRU cache bounded by a total weight (entry count by default),
+ * with hit/miss/eviction counters.
+ */
+public class LruCache<K, V> {
+
+    private final long maxWeight;
+    private final ToLongFunction<V> weigher;
+    private final BiConsumer<K, V> evictionListener;
+    private final LinkedHashMap<K, V> map = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long weight;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public LruCache(long maxEntries) {
+        this(maxEntries, value -> 1L);
+    }
+
+    public LruCache(long maxWeight, ToLongFunction<V> weigher) {
+        this(maxWeight, weigher, (key, value) -> { });
+    }
+
+    /**
+     * @param evictionListener called with each entry evicted to make room, while the cache is locked;
+     *                         not called for entries that are removed or replaced
+     */
+    public LruCache(long maxWeight, ToLongFunction<V> weigher, BiConsumer<K, V> evictionListener) {
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+        this.evictionListener = evictionListener;
+    }
+
+    public synchronized V get(K key) {
+        V value = map.get(key);
+        if (value == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return value;
+    }
+
+    /**
+     * Stores the value and evicts the least recently used entries until the cache fits its bound.
+     * A value heavier than the whole cache is not stored.
+     */
+    public synchronized void put(K key, V value) {
+        long valueWeight = weigher.applyAsLong(value);
+        remove(key);
+        if (valueWeight > maxWeight) {
+            return;
+        }
+        map.put(key, value);
+        weight += valueWeight;
+
+        Iterator<Map.Entry<K, V>> it = map.entrySet().iterator();
+        while (weight > maxWeight && it.hasNext()) {
+            Map.Entry<K, V> eldest = it.next();
+            weight -= weigher.applyAsLong(eldest.getValue());
+            it.remove();
+            evictions++;
+            evictionListener.accept(eldest.getKey(), eldest.getValue());
+        }
+    }
+
+    public synchronized V remove(K key) {
+        V old = map.remove(key);
+        if (old != null) {
+            weight -= weigher.applyAsLong(old);
+        }
+        return old;
+    }
+
+    public synchronized void removeIf(Predicate<K> keyPredicate) {
+        Iterator<Map.Entry<K, V>> it = map.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<K, V> entry = it.next();
+            if (keyPredicate.test(entry.getKey())) {
+                weight -= weigher.applyAsLong(entry.getValue());
+                it.remove();
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        map.clear();
+        weight = 0;
+    }
+
+    public synchronized int size() {
+        return map.size();
+    }
+
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+}
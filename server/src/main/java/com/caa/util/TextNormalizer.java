@@ -0,0 +1,74 @@
+package com.caa.util;
+
+import java.text.Normalizer;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Folds text for searching, so that the Arabic and Persian forms of the same letter or digit, and
+ * text with or without diacritics, compare equal.
+ */
+public class TextNormalizer {
+
+    /**
+     * Lower case, without diacritics (Latin accents and Arabic harakat), with Arabic yeh/kaf/teh marbuta
+     * folded to their Persian forms, Persian and Arabic-Indic digits folded to ASCII, tatweel removed
+     * and runs of whitespace and zero-width non-joiners collapsed to one space.
+     */
+    public static String normalize(String text) {
+        if (text == null || text.isEmpty()) {
+            return "";
+        }
+        // decomposing splits accents, hamza and madda off their base letters (آ -> ا, ئ -> ي) so they can be dropped
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        StringBuilder sb = new StringBuilder(decomposed.length());
+        boolean pendingSpace = false;
+        for (int i = 0; i < decomposed.length(); i++) {
+            char c = decomposed.charAt(i);
+            int type = Character.getType(c);
+            if (type == Character.NON_SPACING_MARK || type == Character.ENCLOSING_MARK || c == 'ـ') {
+                continue;
+            }
+            if (Character.isWhitespace(c) || c == '‌' || c == ' ') {
+                pendingSpace = sb.length() > 0;
+                continue;
+            }
+            if (pendingSpace) {
+                sb.append(' ');
+                pendingSpace = false;
+            }
+            sb.append(fold(c));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return the distinct trigrams of normalized text; shorter text yields no trigram
+     */
+    public static Set<String> trigrams(String normalized) {
+        Set<String> result = new LinkedHashSet<>();
+        for (int i = 0; i + 3 <= normalized.length(); i++) {
+            result.add(normalized.substring(i, i + 3));
+        }
+        return result;
+    }
+
+    private static char fold(char c) {
+        switch (c) {
+            case 'ي': // ARABIC LETTER YEH
+            case 'ى': // ARABIC LETTER ALEF MAKSURA
+                return 'ی'; // ARABIC LETTER FARSI YEH
+            case 'ك': // ARABIC LETTER KAF
+                return 'ک'; // ARABIC LETTER KEHEH
+            case 'ة': // ARABIC LETTER TEH MARBUTA
+                return 'ه'; // ARABIC LETTER HEH
+        }
+        if (c >= '۰' && c <= '۹') { // EXTENDED ARABIC-INDIC (Persian) digits
+            return (char) ('0' + (c - '۰'));
+        }
+        if (c >= '٠' && c <= '٩') { // ARABIC-INDIC digits
+            return (char) ('0' + (c - '٠'));
+        }
+        return Character.toLowerCase(c);
+    }
+}
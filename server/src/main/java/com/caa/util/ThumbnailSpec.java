@@ -0,0 +1,38 @@
+package com.caa.util;
+
+/**
+ * A named thumbnail variant: the image is scaled down to fit into maxWidth x maxHeight.
+ */
+public class ThumbnailSpec {
+
+    private final String name;
+    private final int maxWidth;
+    private final int maxHeight;
+
+    public ThumbnailSpec(String name, int maxWidth, int maxHeight) {
+        this.name = name;
+        this.maxWidth = maxWidth;
+        this.maxHeight = maxHeight;
+    }
+
+    /**
+     * Parses "name:WIDTHxHEIGHT", e.g. "medium:800x800".
+     */
+    public static ThumbnailSpec parse(String spec) {
+        String[] nameAndSize = spec.trim().split(":");
+        String[] size = nameAndSize[1].trim().toLowerCase().split("x");
+        return new ThumbnailSpec(nameAndSize[0].trim(), Integer.parseInt(size[0].trim()), Integer.parseInt(size[1].trim()));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getMaxWidth() {
+        return maxWidth;
+    }
+
+    public int getMaxHeight() {
+        return maxHeight;
+    }
+}
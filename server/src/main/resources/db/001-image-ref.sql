@@ -0,0 +1,17 @@
+-- content-addressed picture references, see com.caa.model.ImageRef
+CREATE TABLE image_ref (
+  id           BIGINT       NOT NULL AUTO_INCREMENT,
+  tenant_id    VARCHAR(255) NOT NULL,
+  owner_type   VARCHAR(32)  NOT NULL,
+  owner_id     BIGINT       NOT NULL,
+  image_name   VARCHAR(255) NOT NULL,
+  variant      VARCHAR(64)  NOT NULL,
+  hash         CHAR(64)     NOT NULL,
+  image_suffix VARCHAR(16)  NOT NULL,
+  size         BIGINT       NOT NULL,
+  created      DATETIME     NOT NULL,
+  PRIMARY KEY (id)
+);
+
+CREATE INDEX ix_image_ref_owner ON image_ref (owner_type, owner_id, image_name, variant);
+CREATE INDEX ix_image_ref_hash ON image_ref (hash);
@@ -0,0 +1,10 @@
+-- pooled id generator of program_exercise_item.idpk, see com.caa.model.ProgramExerciseItem
+CREATE TABLE id_generator (
+  name     VARCHAR(64) NOT NULL,
+  next_val BIGINT      NOT NULL,
+  PRIMARY KEY (name)
+);
+
+-- the pooled optimizer hands out next_val - 49 .. next_val on first use, so start one block past the current ids
+INSERT INTO id_generator (name, next_val)
+SELECT 'program_exercise_item', COALESCE(MAX(idpk), 0) + 51 FROM program_exercise_item;
@@ -0,0 +1,17 @@
+-- numeric exercise codes, see com.caa.model.Exercise.codeNumber and com.caa.services.ExerciseCodeAllocator
+ALTER TABLE exercise ADD COLUMN code_number BIGINT NULL;
+
+UPDATE exercise SET code_number = CAST(TRIM(code) AS UNSIGNED) WHERE TRIM(code) REGEXP '^[0-9]+$';
+
+-- not unique: tenants may already hold duplicate codes saved by concurrent requests
+CREATE INDEX ix_exercise_tenant_code_number ON exercise (tenant_id, code_number);
+
+CREATE TABLE exercise_code_sequence (
+  tenant_id VARCHAR(255) NOT NULL,
+  next_code BIGINT       NOT NULL,
+  PRIMARY KEY (tenant_id)
+);
+
+-- new codes used to start at 1001
+INSERT INTO exercise_code_sequence (tenant_id, next_code)
+SELECT tenant_id, GREATEST(1001, MAX(COALESCE(code_number, 0)) + 1) FROM exercise GROUP BY tenant_id;
@@ -0,0 +1,4 @@
+-- duplicate checks of a batch of exercises, see com.caa.dao.ExerciseDao.queryConflictsForTenant;
+-- codes are checked on ix_exercise_tenant_code_number from 003
+CREATE INDEX ix_exercise_tenant_name ON exercise (tenant_id, name);
+CREATE INDEX ix_exercise_tenant_latin_name ON exercise (tenant_id, latin_name);
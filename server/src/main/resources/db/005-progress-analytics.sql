@@ -0,0 +1,30 @@
+-- progress dashboards, see com.caa.services.ProgressAnalyticsService;
+-- fill them for existing programs with POST /api/rebuildProgressAnalytics once per tenant
+CREATE TABLE person_metric_stats (
+  id            BIGINT       NOT NULL AUTO_INCREMENT,
+  tenant_id     VARCHAR(255) NOT NULL,
+  person_id     BIGINT       NOT NULL,
+  metric        VARCHAR(32)  NOT NULL,
+  program_count INT          NOT NULL,
+  first_date    DATE         NOT NULL,
+  first_value   DOUBLE       NOT NULL,
+  last_date     DATE         NOT NULL,
+  last_value    DOUBLE       NOT NULL,
+  min_value     DOUBLE       NOT NULL,
+  max_value     DOUBLE       NOT NULL,
+  PRIMARY KEY (id)
+);
+
+CREATE UNIQUE INDEX ix_person_metric_stats_person ON person_metric_stats (tenant_id, person_id, metric);
+
+CREATE TABLE tenant_metric_stats (
+  id              BIGINT       NOT NULL AUTO_INCREMENT,
+  tenant_id       VARCHAR(255) NOT NULL,
+  metric          VARCHAR(32)  NOT NULL,
+  person_count    BIGINT       NOT NULL,
+  sum_first_value DOUBLE       NOT NULL,
+  sum_last_value  DOUBLE       NOT NULL,
+  PRIMARY KEY (id)
+);
+
+CREATE UNIQUE INDEX ix_tenant_metric_stats_tenant ON tenant_metric_stats (tenant_id, metric);
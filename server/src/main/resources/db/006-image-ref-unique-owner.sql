@@ -0,0 +1,15 @@
+-- one image_ref row per picture variant, see com.caa.services.ImageStoreService.store
+
+-- keep the newest row of variants stored twice by concurrent uploads
+DELETE older FROM image_ref older
+  JOIN image_ref newer
+    ON newer.tenant_id = older.tenant_id
+   AND newer.owner_type = older.owner_type
+   AND newer.owner_id = older.owner_id
+   AND newer.image_name = older.image_name
+   AND newer.variant = older.variant
+   AND newer.id > older.id;
+
+-- every lookup is per tenant, so the tenant leads
+DROP INDEX ix_image_ref_owner ON image_ref;
+CREATE UNIQUE INDEX ix_image_ref_owner ON image_ref (tenant_id, owner_type, owner_id, image_name, variant);
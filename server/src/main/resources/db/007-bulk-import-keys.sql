@@ -0,0 +1,8 @@
+-- duplicate checks of each bulk import chunk, see com.caa.dao.PersonDao.queryMobileNumbersForTenant
+CREATE INDEX ix_person_tenant_mobile_number ON person (tenant_id, mobile_number);
+
+-- pooled id generator of program.id, see com.caa.model.Program; the AUTO_INCREMENT of the column
+-- is left in place but no longer used by the application.
+-- the pooled optimizer hands out next_val - 49 .. next_val on first use, so start one block past the current ids
+INSERT INTO id_generator (name, next_val)
+SELECT 'program', COALESCE(MAX(id), 0) + 51 FROM program;
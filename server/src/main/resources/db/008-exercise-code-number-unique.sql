@@ -0,0 +1,45 @@
+-- codes allocated by com.caa.services.ExerciseCodeAllocator are unique per tenant, so the index
+-- 003 left non-unique can now enforce it. Exercises sharing a code with an older exercise of the
+-- tenant get new codes past both the tenant's sequence and its largest code first; programs refer
+-- to exercises by id, so only the code shown changes.
+CREATE TABLE exercise_code_duplicate (
+  id        BIGINT       NOT NULL,
+  tenant_id VARCHAR(255) NOT NULL,
+  PRIMARY KEY (id)
+);
+
+INSERT INTO exercise_code_duplicate (id, tenant_id)
+SELECT DISTINCT e.id, e.tenant_id FROM exercise e
+JOIN exercise older ON older.tenant_id = e.tenant_id AND older.code_number = e.code_number AND older.id < e.id;
+
+CREATE TABLE exercise_code_base (
+  tenant_id VARCHAR(255) NOT NULL,
+  base      BIGINT       NOT NULL,
+  PRIMARY KEY (tenant_id)
+);
+
+INSERT INTO exercise_code_base (tenant_id, base)
+SELECT e.tenant_id, GREATEST(COALESCE(MAX(s.next_code), 1001), MAX(e.code_number) + 1)
+FROM exercise e LEFT JOIN exercise_code_sequence s ON s.tenant_id = e.tenant_id
+WHERE e.tenant_id IN (SELECT tenant_id FROM exercise_code_duplicate)
+GROUP BY e.tenant_id;
+
+-- the n-th duplicate of a tenant, in id order, gets base + n - 1
+UPDATE exercise e
+JOIN exercise_code_base b ON b.tenant_id = e.tenant_id
+JOIN (SELECT d.id, COUNT(*) AS n FROM exercise_code_duplicate d
+      JOIN exercise_code_duplicate earlier ON earlier.tenant_id = d.tenant_id AND earlier.id <= d.id
+      GROUP BY d.id) r ON r.id = e.id
+SET e.code_number = b.base + r.n - 1, e.code = CAST(b.base + r.n - 1 AS CHAR);
+
+INSERT INTO exercise_code_sequence (tenant_id, next_code)
+SELECT b.tenant_id, b.base + COUNT(*) FROM exercise_code_base b
+JOIN exercise_code_duplicate d ON d.tenant_id = b.tenant_id
+GROUP BY b.tenant_id, b.base
+ON DUPLICATE KEY UPDATE next_code = GREATEST(next_code, VALUES(next_code));
+
+DROP TABLE exercise_code_duplicate;
+DROP TABLE exercise_code_base;
+
+DROP INDEX ix_exercise_tenant_code_number ON exercise;
+CREATE UNIQUE INDEX ix_exercise_tenant_code_number ON exercise (tenant_id, code_number);
@@ -0,0 +1,58 @@
+package com.caa;
+
+import com.caa.model.Exercise;
+import com.caa.model.Person;
+import com.caa.model.Program;
+import com.caa.model.ProgramExerciseItem;
+
+import java.util.Date;
+
+/**
+ * Unsaved entities with every non-null column filled, for the repository and service tests.
+ */
+public class TestEntities {
+
+    public static Person person(String tenant, String mobileNumber) {
+        Person person = new Person();
+        person.setTenantId(tenant);
+        person.setFirstName("first " + mobileNumber);
+        person.setLastName("last " + mobileNumber);
+        person.setMobileNumber(mobileNumber);
+        return person;
+    }
+
+    public static Program program(String tenant, Person person, Date programDate) {
+        Program program = new Program();
+        program.setTenantId(tenant);
+        program.setPerson(person);
+        program.setPersonId(person.getId());
+        program.setProgramDate(programDate);
+        program.setProgramName("program");
+        program.setPersonWeight(80);
+        program.setPersonFatPercentage(20);
+        return program;
+    }
+
+    public static Exercise exercise(String tenant, long code) {
+        Exercise exercise = new Exercise();
+        exercise.setTenantId(tenant);
+        exercise.setName("exercise " + code);
+        exercise.setLatinName("latin " + code);
+        exercise.setCode(String.valueOf(code));
+        exercise.setCodeNumber(code);
+        exercise.setInvolvedMuscel("muscle");
+        return exercise;
+    }
+
+    public static ProgramExerciseItem item(long programId, int subExerciseId, long id, long exerciseId) {
+        ProgramExerciseItem item = new ProgramExerciseItem();
+        item.setProgramId(programId);
+        item.setSubExerciseId(subExerciseId);
+        item.setId(id);
+        item.setExerciseId(exerciseId);
+        item.setExerciseSet(3);
+        item.setExerciseRepeat(12);
+        item.setExerciseRepeatType("R");
+        return item;
+    }
+}
@@ -0,0 +1,267 @@
+package com.caa.report;
+
+import com.caa.modelview.ProgramExerciseItemView;
+import net.sf.jasperreports.engine.JRException;
+import net.sf.jasperreports.engine.JRField;
+import net.sf.jasperreports.engine.data.JRBeanCollectionDataSource;
+import net.sf.jasperreports.engine.design.JRDesignField;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * buildReportDTOs must give the same rows as the conversion it replaced, kept below as
+ * {@link LegacyReportRows}, for every program of at most six sessions, and ProgramReportDataSource
+ * must serve the same values as those rows through JRBeanCollectionDataSource.
+ */
+public class ProgramReportRowsBuilderTest {
+
+    private static final String[] REPEAT_TYPES = {"S", "M", "T", ""};
+
+    @Test
+    public void reportDTOsMatchLegacyConversion() {
+        Random random = new Random(42);
+        for (int program = 0; program < 20000; program++) {
+            List<ProgramExerciseItemView> items = randomItems(random);
+
+            assertThat(new ProgramReportRowsBuilder().addAll(items).buildReportDTOs())
+                    .as("program " + program).isEqualTo(LegacyReportRows.convert(items));
+        }
+    }
+
+    @Test
+    public void dataSourceMatchesLegacyConversion() throws JRException {
+        List<JRField> fields = new ArrayList<>();
+        for (int session = 1; session <= ProgramReportRowsBuilder.DTO_SESSIONS; session++) {
+            for (String name : new String[]{"Id", "Exercise", "ExerciseRepeatSet", "ExerciseDscription"}) {
+                JRDesignField field = new JRDesignField();
+                field.setName("program" + session + name);
+                fields.add(field);
+            }
+        }
+        Random random = new Random(43);
+        for (int program = 0; program < 5000; program++) {
+            List<ProgramExerciseItemView> items = randomItems(random);
+            List<ProgramExercisesReportDTO> legacy = LegacyReportRows.convert(items);
+            ProgramReportDataSource dataSource = ProgramReportDataSource.fromItems(items);
+            JRBeanCollectionDataSource beans = new JRBeanCollectionDataSource(legacy);
+
+            assertThat(dataSource.getSessionCount()).as("program " + program).isEqualTo(legacySessionCount(legacy));
+            assertThat(dataSource.getRowCount()).as("program " + program).isEqualTo(legacy.size());
+            while (beans.next()) {
+                assertThat(dataSource.next()).isTrue();
+                for (JRField field : fields) {
+                    assertThat(dataSource.getFieldValue(field)).as("program " + program + " " + field.getName())
+                            .isEqualTo(beans.getFieldValue(field));
+                }
+            }
+            assertThat(dataSource.next()).isFalse();
+        }
+    }
+
+    @Test
+    public void supersetItemsShareOneCell() {
+        List<ProgramExerciseItemView> items = new ArrayList<>();
+        items.add(item(1, 2, "اسکات پا", 4, 10, "T"));
+        items.add(item(1, 1, "پرس سینه", 3, 12, "T"));
+        items.add(item(1, 1, "کرانچ شکم", 3, 30, "S"));
+        items.add(item(2, 1, "ددلیفت", 5, 2, "M"));
+
+        ProgramReportRowsBuilder.Cell[][] rows = new ProgramReportRowsBuilder().addAll(items).build();
+
+        assertThat(rows.length).isEqualTo(2);
+        assertThat(rows[0][0].getExercise()).isEqualTo("1 - پرس سینه + کرانچ شکم");
+        assertThat(rows[0][0].getRepeatSet()).isEqualTo("3. 12 + 30\"");
+        assertThat(rows[0][1].getRepeatSet()).isEqualTo("5. 2'");
+        assertThat(rows[1][0].getId()).isEqualTo(2);
+        assertThat(rows[1][1]).isNull();
+    }
+
+    @Test
+    public void buildKeepsTheCellOfIdZero() {
+        List<ProgramExerciseItemView> items = new ArrayList<>();
+        items.add(item(1, 0, "پرس سینه", 3, 12, "T"));
+        items.add(item(1, 1, "اسکات پا", 4, 10, "T"));
+
+        ProgramReportRowsBuilder.Cell[][] rows = new ProgramReportRowsBuilder().addAll(items).build();
+        List<ProgramExercisesReportDTO> dtos = new ProgramReportRowsBuilder().addAll(items).buildReportDTOs();
+
+        assertThat(rows.length).isEqualTo(2);
+        assertThat(rows[0][0].getId()).isEqualTo(0);
+        assertThat(rows[1][0].getId()).isEqualTo(1);
+        // the DTOs keep the old layout, where the next cell took the place of id 0
+        assertThat(dtos).hasSize(1);
+        assertThat(dtos.get(0).getProgram1Id()).isEqualTo(1);
+    }
+
+    @Test
+    public void buildGoesPastSixSessions() {
+        List<ProgramExerciseItemView> items = new ArrayList<>();
+        items.add(item(8, 1, "ددلیفت", 5, 2, "T"));
+
+        ProgramReportRowsBuilder builder = new ProgramReportRowsBuilder().addAll(items);
+
+        assertThat(builder.getSessionCount()).isEqualTo(8);
+        assertThat(builder.build()[0][7].getExercise()).isEqualTo("1 - ددلیفت");
+        assertThat(builder.buildReportDTOs().get(0).getProgram6Exercise()).isEmpty();
+    }
+
+    /**
+     * The template ExportReport chose from the DTO rows: the highest session with a positive id in
+     * the first row, at least 1.
+     */
+    private static int legacySessionCount(List<ProgramExercisesReportDTO> dtos) {
+        if (dtos.isEmpty()) {
+            return 1;
+        }
+        Long[] ids = {dtos.get(0).getProgram1Id(), dtos.get(0).getProgram2Id(), dtos.get(0).getProgram3Id(),
+                dtos.get(0).getProgram4Id(), dtos.get(0).getProgram5Id(), dtos.get(0).getProgram6Id()};
+        for (int session = ids.length; session > 1; session--) {
+            if (ids[session - 1] != null && ids[session - 1] > 0) {
+                return session;
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * Items of 1 to 6 sessions in random order, with repeated ids (supersets), ids from -3 up, and
+     * some null names.
+     */
+    private static List<ProgramExerciseItemView> randomItems(Random random) {
+        int sessions = 1 + random.nextInt(6);
+        int count = random.nextInt(40);
+        List<ProgramExerciseItemView> items = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String name = random.nextInt(10) == 0 ? null : "exercise " + random.nextInt(300);
+            items.add(item(1 + random.nextInt(sessions), random.nextInt(15) - 3, name,
+                    1 + random.nextInt(5), random.nextInt(20), REPEAT_TYPES[random.nextInt(REPEAT_TYPES.length)]));
+        }
+        return items;
+    }
+
+    private static ProgramExerciseItemView item(int session, long id, String name, int set, int repeat, String repeatType) {
+        ProgramExerciseItemView item = new ProgramExerciseItemView();
+        item.setSubExerciseId(session);
+        item.setId(id);
+        item.setExerciseName(name);
+        item.setExerciseSet(set);
+        item.setExerciseRepeat(repeat);
+        item.setExerciseRepeatType(repeatType);
+        return item;
+    }
+
+    /**
+     * ExerciseService.convertProgramExerciseToReportDTO before ProgramReportRowsBuilder, with the
+     * same slot search: a cell goes into the first row whose id of its session is null or 0.
+     */
+    private static class LegacyReportRows {
+
+        static List<ProgramExercisesReportDTO> convert(List<ProgramExerciseItemView> list) {
+            Map<Integer, Map<Long, String>> exerciseNameMapList = new HashMap<>();
+            Map<Integer, Map<Long, String>> exerciseRepeatSetMapList = new HashMap<>();
+            for (ProgramExerciseItemView item : list) {
+                String repeat = item.getExerciseRepeat() + repeatTypeSymbol(item.getExerciseRepeatType());
+                int subExerciseId = item.getSubExerciseId();
+                long id = item.getId();
+                exerciseNameMapList.computeIfAbsent(subExerciseId, k -> new HashMap<>());
+                String name = exerciseNameMapList.get(subExerciseId).get(id);
+                exerciseNameMapList.get(subExerciseId).put(id, name == null
+                        ? id + " - " + item.getExerciseName() : name + " + " + item.getExerciseName());
+                exerciseRepeatSetMapList.computeIfAbsent(subExerciseId, k -> new HashMap<>());
+                String repeatSet = exerciseRepeatSetMapList.get(subExerciseId).get(id);
+                exerciseRepeatSetMapList.get(subExerciseId).put(id, repeatSet == null
+                        ? item.getExerciseSet() + ". " + repeat : repeatSet + " + " + repeat);
+            }
+            List<ProgramExercisesReportDTO> dtos = new ArrayList<>();
+            for (Integer key : exerciseNameMapList.keySet()) {
+                TreeMap<Long, String> tmap = new TreeMap<>(exerciseNameMapList.get(key));
+                for (Long subKey : tmap.keySet()) {
+                    addToPrintDtoList(dtos, key, subKey, tmap.get(subKey), exerciseRepeatSetMapList.get(key).get(subKey));
+                }
+            }
+            return dtos;
+        }
+
+        private static void addToPrintDtoList(List<ProgramExercisesReportDTO> dtos,
+                                              int subListIndex, Long id, String exercise, String repeatSet) {
+            for (ProgramExercisesReportDTO item : dtos) {
+                Long slot = slotId(item, subListIndex);
+                if (slot == null || slot == 0) {
+                    addItem(item, subListIndex, id, exercise, repeatSet);
+                    return;
+                }
+            }
+            ProgramExercisesReportDTO newItem = new ProgramExercisesReportDTO();
+            dtos.add(newItem);
+            newItem.setProgram1Exercise("");
+            newItem.setProgram2Exercise("");
+            newItem.setProgram3Exercise("");
+            newItem.setProgram4Exercise("");
+            newItem.setProgram5Exercise("");
+            newItem.setProgram6Exercise("");
+            addItem(newItem, subListIndex, id, exercise, repeatSet);
+        }
+
+        private static Long slotId(ProgramExercisesReportDTO item, int subListIndex) {
+            switch (subListIndex) {
+                case 1 : return item.getProgram1Id();
+                case 2 : return item.getProgram2Id();
+                case 3 : return item.getProgram3Id();
+                case 4 : return item.getProgram4Id();
+                case 5 : return item.getProgram5Id();
+                default : return item.getProgram6Id();
+            }
+        }
+
+        private static void addItem(ProgramExercisesReportDTO item, int subListIndex, Long id, String exercise, String repeatSet) {
+            switch (subListIndex) {
+                case 1 :
+                    item.setProgram1Id(id);
+                    item.setProgram1Exercise(exercise);
+                    item.setProgram1ExerciseRepeatSet(repeatSet);
+                    break;
+                case 2 :
+                    item.setProgram2Id(id);
+                    item.setProgram2Exercise(exercise);
+                    item.setProgram2ExerciseRepeatSet(repeatSet);
+                    break;
+                case 3 :
+                    item.setProgram3Id(id);
+                    item.setProgram3Exercise(exercise);
+                    item.setProgram3ExerciseRepeatSet(repeatSet);
+                    break;
+                case 4 :
+                    item.setProgram4Id(id);
+                    item.setProgram4Exercise(exercise);
+                    item.setProgram4ExerciseRepeatSet(repeatSet);
+                    break;
+                case 5 :
+                    item.setProgram5Id(id);
+                    item.setProgram5Exercise(exercise);
+                    item.setProgram5ExerciseRepeatSet(repeatSet);
+                    break;
+                case 6 :
+                    item.setProgram6Id(id);
+                    item.setProgram6Exercise(exercise);
+                    item.setProgram6ExerciseRepeatSet(repeatSet);
+                    break;
+            }
+        }
+
+        private static String repeatTypeSymbol(String type) {
+            switch (type) {
+                case "S" : return "\"";
+                case "M" : return "'";
+            }
+            return "";
+        }
+    }
+}
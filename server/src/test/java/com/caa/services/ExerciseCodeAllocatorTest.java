@@ -0,0 +1,141 @@
+package com.caa.services;
+
+import com.caa.TestEntities;
+import com.caa.dao.ExerciseCodeSequenceDao;
+import com.caa.dao.ExerciseDao;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Concurrent saves, on one server and on two, must never be handed the same code. The exercises are
+ * committed by each thread, so the unique index on (tenant_id, code_number) catches a code handed out twice.
+ */
+@RunWith(SpringRunner.class)
+@DataJpaTest
+@ActiveProfiles("test")
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class ExerciseCodeAllocatorTest {
+
+    private static final String TENANT = "gym";
+    private static final int THREADS = 8;
+    private static final int SAVES_PER_THREAD = 40;
+    // small, so that the threads reserve blocks often and race for them
+    private static final int BLOCK_SIZE = 3;
+
+    @Autowired
+    private ExerciseDao exerciseDao;
+    @Autowired
+    private ExerciseCodeSequenceDao exerciseCodeSequenceDao;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @After
+    public void tearDown() {
+        exerciseDao.deleteAllInBatch();
+        exerciseCodeSequenceDao.deleteAllInBatch();
+    }
+
+    @Test
+    public void concurrentSavesGetUniqueCodes() throws Exception {
+        ExerciseCodeAllocator allocator = newAllocator();
+        List<Long> codes = saveConcurrently(allocator, allocator);
+
+        assertUnique(codes);
+        assertThat(exerciseDao.queryAllForTenant(TENANT)).hasSize(codes.size());
+        assertThat(Collections.min(codes)).isGreaterThanOrEqualTo(ExerciseCodeAllocator.FIRST_CODE);
+    }
+
+    @Test
+    public void concurrentSavesOnTwoServersGetUniqueCodes() throws Exception {
+        List<Long> codes = saveConcurrently(newAllocator(), newAllocator());
+
+        assertUnique(codes);
+        assertThat(exerciseDao.queryAllForTenant(TENANT)).hasSize(codes.size());
+    }
+
+    @Test
+    public void codesTypedInBeforeTheFirstBlockAreSkipped() throws Exception {
+        exerciseDao.save(TestEntities.exercise(TENANT, 5000));
+
+        List<Long> codes = saveConcurrently(newAllocator(), newAllocator());
+
+        assertUnique(codes);
+        assertThat(Collections.min(codes)).isGreaterThan(5000L);
+        assertThat(exerciseDao.queryAllForTenant(TENANT)).hasSize(codes.size() + 1);
+    }
+
+    /**
+     * Saves exercises from several threads at once, half of them taking codes from each allocator.
+     * @return the codes handed out
+     */
+    private List<Long> saveConcurrently(ExerciseCodeAllocator first, ExerciseCodeAllocator second) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<List<Long>>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                ExerciseCodeAllocator allocator = t % 2 == 0 ? first : second;
+                futures.add(executor.submit((Callable<List<Long>>) () -> {
+                    start.await();
+                    List<Long> codes = new ArrayList<>();
+                    for (int i = 0; i < SAVES_PER_THREAD; i++) {
+                        long code = allocator.next(TENANT);
+                        exerciseDao.save(TestEntities.exercise(TENANT, code));
+                        codes.add(code);
+                    }
+                    return codes;
+                }));
+            }
+            start.countDown();
+            List<Long> codes = new ArrayList<>();
+            for (Future<List<Long>> future : futures) {
+                codes.addAll(future.get());
+            }
+            return codes;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void assertUnique(List<Long> codes) {
+        Set<Long> distinct = new HashSet<>(codes);
+        assertThat(codes).hasSize(THREADS * SAVES_PER_THREAD);
+        assertThat(distinct).hasSize(codes.size());
+    }
+
+    /**
+     * An allocator without reserved blocks, as a server that has just started has; two of them share
+     * the database as two servers do.
+     */
+    private ExerciseCodeAllocator newAllocator() {
+        ExerciseCodeAllocator allocator = new ExerciseCodeAllocator();
+        ReflectionTestUtils.setField(allocator, "exerciseCodeSequenceDao", exerciseCodeSequenceDao);
+        ReflectionTestUtils.setField(allocator, "exerciseDao", exerciseDao);
+        ReflectionTestUtils.setField(allocator, "transactionManager", transactionManager);
+        ReflectionTestUtils.setField(allocator, "blockSize", BLOCK_SIZE);
+        allocator.init();
+        return allocator;
+    }
+}
@@ -0,0 +1,196 @@
+package com.caa.services;
+
+import com.caa.TestEntities;
+import com.caa.dao.TenantDao;
+import com.caa.model.Person;
+import com.caa.model.PersonMetricStats;
+import com.caa.modelview.ProgramView;
+import com.caa.modelview.TenantMetricStatsView;
+import com.caa.services.security.impl.CustomUserDetailsService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+
+/**
+ * Two saves of programs of the same person at once must both end up in the person's stats, and a
+ * deleted person's stats must go with them. The saves commit here, unlike in the other service
+ * tests, so each runs in a transaction of its own.
+ */
+@RunWith(SpringRunner.class)
+@DataJpaTest
+@ActiveProfiles("test")
+@Import({ProgramService.class, ExerciseCatalogCache.class, ProgressAnalyticsService.class})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class ProgramSaveConcurrencyTest {
+
+    private static final String TENANT = "gym";
+
+    @Autowired
+    private ProgramService programService;
+    @Autowired
+    private ProgressAnalyticsService progressAnalyticsService;
+    @Autowired
+    private TestEntityManager entityManager;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+    @Autowired
+    private DataSource dataSource;
+
+    @MockBean
+    private TenantDao tenantDao;
+    @MockBean
+    private TenantConfigurationService tenantConfigurationService;
+    @MockBean
+    private PersonService personService;
+    @MockBean
+    private ProgramExerciseItemService programExerciseItemService;
+    @MockBean
+    private RenderedReportCache renderedReportCache;
+    @MockBean
+    private ImagePipelineService imagePipelineService;
+    @MockBean
+    private ImageStoreService imageStoreService;
+    @MockBean
+    private MeasurementSeriesCache measurementSeriesCache;
+
+    private TransactionTemplate transaction;
+    private Person person;
+
+    /**
+     * Isolation of the transactions that reached renderedReportCache, the last call before the stats.
+     */
+    private final List<Integer> isolationLevels = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void setUp() {
+        transaction = new TransactionTemplate(transactionManager);
+        person = transaction.execute(status -> entityManager.persist(TestEntities.person(TENANT, "09120000001")));
+        doAnswer(invocation -> {
+            isolationLevels.add(TransactionSynchronizationManager.getCurrentTransactionIsolationLevel());
+            return null;
+        }).when(renderedReportCache).invalidateProgramAfterCommit(anyLong());
+    }
+
+    @After
+    public void tearDown() {
+        JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+        for (String table : new String[]{"person_metric_stats", "tenant_metric_stats", "program_exercise_item",
+                "program", "person"}) {
+            jdbc.execute("DELETE FROM " + table);
+        }
+    }
+
+    @Test
+    public void concurrentSavesOfOnePersonCountBothPrograms() throws Exception {
+        // both saves have written their program, and neither has locked the person, before either goes on
+        CyclicBarrier bothWritten = new CyclicBarrier(2);
+        doAnswer(invocation -> {
+            isolationLevels.add(TransactionSynchronizationManager.getCurrentTransactionIsolationLevel());
+            bothWritten.await(10, TimeUnit.SECONDS);
+            return null;
+        }).when(renderedReportCache).invalidateProgramAfterCommit(anyLong());
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<ProgramView> first = executor.submit(() -> programService.saveProgram(programView("1397/11/14", 80)));
+            Future<ProgramView> second = executor.submit(() -> programService.saveProgram(programView("1397/12/14", 90)));
+            first.get(30, TimeUnit.SECONDS);
+            second.get(30, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        List<PersonMetricStats> weight = weightStats();
+        assertThat(weight).hasSize(1);
+        assertThat(weight.get(0).getProgramCount()).isEqualTo(2);
+        assertThat(weight.get(0).getFirstValue()).isEqualTo(80);
+        assertThat(weight.get(0).getLastValue()).isEqualTo(90);
+        assertThat(isolationLevels).containsExactly(Connection.TRANSACTION_READ_COMMITTED,
+                Connection.TRANSACTION_READ_COMMITTED);
+    }
+
+    @Test
+    public void deleteRecomputesStatsReadCommitted() {
+        programService.saveProgram(programView("1397/11/14", 80));
+        ProgramView last = programService.saveProgram(programView("1397/12/14", 90));
+        isolationLevels.clear();
+
+        programService.deleteProgram(last.getId());
+
+        List<PersonMetricStats> weight = weightStats();
+        assertThat(weight).hasSize(1);
+        assertThat(weight.get(0).getProgramCount()).isEqualTo(1);
+        assertThat(weight.get(0).getLastValue()).isEqualTo(80);
+        assertThat(isolationLevels).containsExactly(Connection.TRANSACTION_READ_COMMITTED);
+    }
+
+    @Test
+    public void removingPersonDeletesTheirStats() {
+        String tenant = CustomUserDetailsService.getCurrentUserTenant();
+        programService.saveProgram(programView("1397/11/14", 80));
+        progressAnalyticsService.recomputeDirtyTenants();
+        assertThat(weightStats()).hasSize(1);
+        assertThat(tenantWeightPersonCount(tenant)).isEqualTo(1);
+
+        transaction.execute(status -> {
+            progressAnalyticsService.removePerson(tenant, person.getId());
+            return null;
+        });
+        progressAnalyticsService.recomputeDirtyTenants();
+
+        assertThat(weightStats()).isEmpty();
+        assertThat(tenantWeightPersonCount(tenant)).isEqualTo(0);
+    }
+
+    private ProgramView programView(String shamsiDate, double weight) {
+        ProgramView view = new ProgramView();
+        view.setPerson(person);
+        view.setProgramName("program");
+        view.setShamsiProgramDate(shamsiDate);
+        view.setPersonWeight(weight);
+        return view;
+    }
+
+    private List<PersonMetricStats> weightStats() {
+        return transaction.execute(status -> entityManager.getEntityManager()
+                .createQuery("select e from PersonMetricStats e where e.personId=?1 and e.metric='weight'",
+                        PersonMetricStats.class)
+                .setParameter(1, person.getId())
+                .getResultList());
+    }
+
+    private long tenantWeightPersonCount(String tenant) {
+        return progressAnalyticsService.getTenantProgress(tenant).stream()
+                .filter(view -> view.getKey().equals("weight"))
+                .mapToLong(TenantMetricStatsView::getPersonCount)
+                .sum();
+    }
+}
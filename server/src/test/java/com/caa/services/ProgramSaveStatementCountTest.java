@@ -0,0 +1,231 @@
+package com.caa.services;
+
+import com.caa.TestEntities;
+import com.caa.dao.TenantDao;
+import com.caa.model.Exercise;
+import com.caa.model.Person;
+import com.caa.model.ProgramExerciseItem;
+import com.caa.modelview.ProgramExerciseItemView;
+import com.caa.modelview.ProgramView;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.EntityStatistics;
+import org.hibernate.stat.Statistics;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.verify;
+
+/**
+ * saveProgram must write only the items that changed, and the statements it sends must not grow with
+ * the size of the program. Also covers the progress stats refreshed on save and delete.
+ */
+@RunWith(SpringRunner.class)
+@DataJpaTest
+@ActiveProfiles("test")
+@Import({ProgramService.class, ExerciseCatalogCache.class})
+public class ProgramSaveStatementCountTest {
+
+    private static final String TENANT = "gym";
+
+    @Autowired
+    private ProgramService programService;
+    @Autowired
+    private TestEntityManager entityManager;
+
+    @MockBean
+    private TenantDao tenantDao;
+    @MockBean
+    private TenantConfigurationService tenantConfigurationService;
+    @MockBean
+    private PersonService personService;
+    @MockBean
+    private ProgramExerciseItemService programExerciseItemService;
+    @MockBean
+    private RenderedReportCache renderedReportCache;
+    @MockBean
+    private ImagePipelineService imagePipelineService;
+    @MockBean
+    private ImageStoreService imageStoreService;
+    @MockBean
+    private MeasurementSeriesCache measurementSeriesCache;
+    @MockBean
+    private ProgressAnalyticsService progressAnalyticsService;
+
+    private Statistics statistics;
+    private Person person;
+    private List<Exercise> exercises = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        statistics = entityManager.getEntityManager().getEntityManagerFactory()
+                .unwrap(SessionFactory.class).getStatistics();
+        person = entityManager.persist(TestEntities.person(TENANT, "09120000001"));
+        for (int code = 1; code <= 10; code++) {
+            exercises.add(entityManager.persist(TestEntities.exercise(TENANT, code)));
+        }
+    }
+
+    @Test
+    public void editingOneItemUpdatesOnlyThatItem() {
+        ProgramView small = createProgram(12);
+        ProgramView large = createProgram(60);
+
+        long smallStatements = countStatements(editOneItem(small));
+        assertItemWrites(0, 1, 0);
+        long largeStatements = countStatements(editOneItem(large));
+        assertItemWrites(0, 1, 0);
+
+        assertThat(largeStatements).isEqualTo(smallStatements);
+    }
+
+    @Test
+    public void unchangedProgramWritesNoItem() {
+        ProgramView program = createProgram(30);
+
+        countStatements(program);
+
+        assertItemWrites(0, 0, 0);
+    }
+
+    @Test
+    public void addedItemsAreInsertedInOneBatch() {
+        ProgramView few = createProgram(6);
+        ProgramView many = createProgram(6);
+
+        long fewStatements = countStatements(addItems(few, 3));
+        assertItemWrites(3, 0, 0);
+        long manyStatements = countStatements(addItems(many, 40));
+        assertItemWrites(40, 0, 0);
+
+        assertThat(manyStatements).isEqualTo(fewStatements);
+    }
+
+    @Test
+    public void removedItemsAreDeletedTogether() {
+        ProgramView few = createProgram(60);
+        ProgramView many = createProgram(60);
+
+        long fewStatements = countStatements(removeItems(few, 2));
+        assertItemWrites(0, 0, 0);
+        long manyStatements = countStatements(removeItems(many, 20));
+        assertItemWrites(0, 0, 0);
+
+        // deleteInBatch is one bulk statement, so Hibernate does not count it as entity deletes
+        assertThat(countItems(few)).isEqualTo(58);
+        assertThat(countItems(many)).isEqualTo(40);
+
+        assertThat(manyStatements).isEqualTo(fewStatements);
+    }
+
+    @Test
+    public void movingProgramRefreshesBothPersons() {
+        ProgramView program = createProgram(3);
+        Person other = entityManager.persist(TestEntities.person(TENANT, "09120000002"));
+        reset(progressAnalyticsService, measurementSeriesCache);
+
+        program.setPerson(other);
+        programService.saveProgram(program);
+
+        verify(progressAnalyticsService).refreshPerson(anyString(), eq(person.getId()));
+        verify(progressAnalyticsService).refreshPerson(anyString(), eq(other.getId()));
+        verify(measurementSeriesCache).invalidatePersonAfterCommit(anyString(), eq(person.getId()));
+        verify(measurementSeriesCache).invalidatePersonAfterCommit(anyString(), eq(other.getId()));
+    }
+
+    @Test(expected = RecordNotFoundException.class)
+    public void deletingMissingProgramIsNotFound() {
+        programService.deleteProgram(Long.MAX_VALUE);
+    }
+
+    /**
+     * Saves a new program with the given number of items, spread over three sessions.
+     */
+    private ProgramView createProgram(int items) {
+        ProgramView view = new ProgramView();
+        view.setPerson(person);
+        view.setProgramName("program");
+        view.setShamsiProgramDate("1397/11/14");
+        for (int i = 0; i < items; i++) {
+            itemsOf(view, i % 3 + 1).add(itemView(i % 3 + 1, i + 1, exercises.get(i % exercises.size()).getId()));
+        }
+        programService.saveProgram(view);
+        entityManager.flush();
+        entityManager.clear();
+        return view;
+    }
+
+    private ProgramView editOneItem(ProgramView view) {
+        ProgramExerciseItemView item = view.getProgramExercise2Items().get(1);
+        item.setExerciseRepeat(item.getExerciseRepeat() + 2);
+        return view;
+    }
+
+    private ProgramView addItems(ProgramView view, int count) {
+        for (int i = 0; i < count; i++) {
+            view.getProgramExercise3Items().add(itemView(3, 1000 + i, exercises.get(0).getId()));
+        }
+        return view;
+    }
+
+    private ProgramView removeItems(ProgramView view, int count) {
+        List<ProgramExerciseItemView> items = view.getProgramExercise1Items();
+        items.subList(items.size() - count, items.size()).clear();
+        return view;
+    }
+
+    private long countStatements(ProgramView view) {
+        statistics.clear();
+        programService.saveProgram(view);
+        entityManager.flush();
+        entityManager.clear();
+        return statistics.getPrepareStatementCount();
+    }
+
+    private long countItems(ProgramView view) {
+        return entityManager.getEntityManager()
+                .createQuery("select count(e) from ProgramExerciseItem e where e.programId=?1", Long.class)
+                .setParameter(1, view.getId())
+                .getSingleResult();
+    }
+
+    private void assertItemWrites(long inserts, long updates, long deletes) {
+        EntityStatistics items = statistics.getEntityStatistics(ProgramExerciseItem.class.getName());
+        assertThat(items.getInsertCount()).as("inserts").isEqualTo(inserts);
+        assertThat(items.getUpdateCount()).as("updates").isEqualTo(updates);
+        assertThat(items.getDeleteCount()).as("deletes").isEqualTo(deletes);
+    }
+
+    private static List<ProgramExerciseItemView> itemsOf(ProgramView view, int subExerciseId) {
+        switch (subExerciseId) {
+            case 1: return view.getProgramExercise1Items();
+            case 2: return view.getProgramExercise2Items();
+            default: return view.getProgramExercise3Items();
+        }
+    }
+
+    private static ProgramExerciseItemView itemView(int subExerciseId, long id, long exerciseId) {
+        ProgramExerciseItemView item = new ProgramExerciseItemView();
+        item.setSubExerciseId(subExerciseId);
+        item.setId(id);
+        item.setExerciseId(exerciseId);
+        item.setExerciseSet(3);
+        item.setExerciseRepeat(12);
+        item.setExerciseRepeatType("R");
+        return item;
+    }
+}
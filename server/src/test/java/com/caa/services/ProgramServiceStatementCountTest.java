@@ -0,0 +1,212 @@
+package com.caa.services;
+
+import com.caa.TestEntities;
+import com.caa.dao.TenantDao;
+import com.caa.model.Exercise;
+import com.caa.model.Person;
+import com.caa.model.Program;
+import com.caa.modelview.PersonListItem;
+import com.caa.modelview.ProgramExerciseItemView;
+import com.caa.modelview.ProgramView;
+import com.caa.report.ReportFormat;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.anyCollectionOf;
+
+/**
+ * getPersonsPrograms must cost the same number of statements whatever the number of programs and items,
+ * and resolve item exercises among the tenant's exercises only.
+ */
+@RunWith(SpringRunner.class)
+@DataJpaTest
+@ActiveProfiles("test")
+@Import({ProgramService.class, ExerciseCatalogCache.class})
+public class ProgramServiceStatementCountTest {
+
+    private static final String TENANT = "gym";
+
+    @Autowired
+    private ProgramService programService;
+    @Autowired
+    private ExerciseCatalogCache exerciseCatalogCache;
+    @Autowired
+    private TestEntityManager entityManager;
+
+    @MockBean
+    private TenantDao tenantDao;
+    @MockBean
+    private TenantConfigurationService tenantConfigurationService;
+    @MockBean
+    private PersonService personService;
+    @MockBean
+    private ProgramExerciseItemService programExerciseItemService;
+    @MockBean
+    private RenderedReportCache renderedReportCache;
+    @MockBean
+    private ImagePipelineService imagePipelineService;
+    @MockBean
+    private ImageStoreService imageStoreService;
+    @MockBean
+    private MeasurementSeriesCache measurementSeriesCache;
+    @MockBean
+    private ProgressAnalyticsService progressAnalyticsService;
+
+    private Statistics statistics;
+    private List<Exercise> exercises = new ArrayList<>();
+    private Map<Long, PersonListItem> listItems = new HashMap<>();
+
+    @Before
+    public void setUp() {
+        statistics = entityManager.getEntityManager().getEntityManagerFactory()
+                .unwrap(SessionFactory.class).getStatistics();
+        for (int code = 1; code <= 10; code++) {
+            exercises.add(entityManager.persist(TestEntities.exercise(TENANT, code)));
+        }
+        given(personService.findListItems(anyCollectionOf(Long.class))).willReturn(listItems);
+    }
+
+    @Test
+    public void statementCountDoesNotDependOnProgramCount() {
+        Person few = createPerson("09120000001", 1, 5);
+        Person many = createPerson("09120000002", 25, 30);
+
+        long fewStatements = countStatements(few);
+        long manyStatements = countStatements(many);
+
+        // programs, their items, and the tenant's exercise catalog
+        assertThat(fewStatements).isEqualTo(3);
+        assertThat(manyStatements).isEqualTo(fewStatements);
+    }
+
+    @Test
+    public void viewsHoldEveryItemWithItsExerciseName() {
+        Person person = createPerson("09120000003", 3, 12);
+
+        List<ProgramView> views = programService.getPersonsPrograms(TENANT, person.getId());
+
+        assertThat(views).hasSize(3);
+        for (ProgramView view : views) {
+            List<ProgramExerciseItemView> items = new ArrayList<>();
+            items.addAll(view.getProgramExercise1Items());
+            items.addAll(view.getProgramExercise2Items());
+            items.addAll(view.getProgramExercise3Items());
+            assertThat(items).hasSize(12);
+            for (ProgramExerciseItemView item : items) {
+                assertThat(item.getExerciseName()).isEqualTo("exercise " + (item.getExerciseId() - exercises.get(0).getId() + 1));
+            }
+        }
+    }
+
+    @Test
+    public void itemOfDeletedExerciseGetsEmptyName() {
+        Person person = entityManager.persist(TestEntities.person(TENANT, "09120000004"));
+        Program program = entityManager.persist(TestEntities.program(TENANT, person, new Date()));
+        entityManager.persist(TestEntities.item(program.getId(), 1, 1, Long.MAX_VALUE));
+        givenListItem(person);
+        entityManager.flush();
+
+        List<ProgramView> views = programService.getPersonsPrograms(TENANT, person.getId());
+
+        assertThat(views.get(0).getProgramExercise1Items()).extracting("exerciseName").containsExactly("");
+    }
+
+    @Test
+    public void deletedExerciseIsLookedUpOnce() {
+        Person person = entityManager.persist(TestEntities.person(TENANT, "09120000007"));
+        Program program = entityManager.persist(TestEntities.program(TENANT, person, new Date()));
+        entityManager.persist(TestEntities.item(program.getId(), 1, 1, Long.MAX_VALUE));
+        entityManager.persist(TestEntities.item(program.getId(), 1, 2, exercises.get(0).getId()));
+        givenListItem(person);
+
+        long firstStatements = countStatements(person);
+        entityManager.clear();
+        statistics.clear();
+        programService.getPersonsPrograms(TENANT, person.getId());
+
+        // programs, their items, the catalog and the deleted exercise, then only programs and items
+        assertThat(firstStatements).isEqualTo(4);
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void itemOfOtherTenantsExerciseGetsEmptyName() {
+        Exercise other = entityManager.persist(TestEntities.exercise("other gym", 1));
+        Person person = entityManager.persist(TestEntities.person(TENANT, "09120000008"));
+        Program program = entityManager.persist(TestEntities.program(TENANT, person, new Date()));
+        entityManager.persist(TestEntities.item(program.getId(), 1, 1, other.getId()));
+        givenListItem(person);
+        entityManager.flush();
+
+        List<ProgramView> views = programService.getPersonsPrograms(TENANT, person.getId());
+
+        assertThat(views.get(0).getProgramExercise1Items()).extracting("exerciseName").containsExactly("");
+    }
+
+    @Test
+    public void programOfDeletedPersonIsListedWithoutPerson() {
+        Person person = entityManager.persist(TestEntities.person(TENANT, "09120000005"));
+        entityManager.persist(TestEntities.program(TENANT, person, new Date()));
+        entityManager.flush();
+
+        List<ProgramView> views = programService.getPersonsPrograms(TENANT, person.getId());
+
+        assertThat(views).hasSize(1);
+        assertThat(views.get(0).getPersonName()).isEmpty();
+    }
+
+    @Test(expected = RecordNotFoundException.class)
+    public void reportOfProgramWithoutPersonIsNotFound() {
+        Person person = entityManager.persist(TestEntities.person(TENANT, "09120000006"));
+        Program program = entityManager.persist(TestEntities.program(TENANT, person, new Date()));
+        entityManager.flush();
+
+        programService.prepareProgramReport(program.getId(), ReportFormat.PDF);
+    }
+
+    private Person createPerson(String mobileNumber, int programs, int itemsPerProgram) {
+        Person person = entityManager.persist(TestEntities.person(TENANT, mobileNumber));
+        for (int p = 0; p < programs; p++) {
+            Program program = entityManager.persist(TestEntities.program(TENANT, person, new Date()));
+            for (int i = 0; i < itemsPerProgram; i++) {
+                Exercise exercise = exercises.get(i % exercises.size());
+                entityManager.persist(TestEntities.item(program.getId(), i % 3 + 1, i + 1, exercise.getId()));
+            }
+        }
+        givenListItem(person);
+        return person;
+    }
+
+    private void givenListItem(Person person) {
+        listItems.put(person.getId(), new PersonListItem(person.getId(), TENANT, person.getFirstName(),
+                person.getLastName(), null, null, person.getMobileNumber(), null, null, null));
+    }
+
+    private long countStatements(Person person) {
+        entityManager.flush();
+        entityManager.clear();
+        exerciseCatalogCache.invalidate(TENANT);
+        statistics.clear();
+        List<ProgramView> views = programService.getPersonsPrograms(TENANT, person.getId());
+        assertThat(views).isNotEmpty();
+        return statistics.getPrepareStatementCount();
+    }
+}
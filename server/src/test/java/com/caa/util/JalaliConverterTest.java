@@ -0,0 +1,129 @@
+package com.caa.util;
+
+import ir.huri.jcal.JalaliCalendar;
+import org.junit.Test;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * JalaliConverter and the DateUtil methods built on it must agree with ir.huri.jcal.JalaliCalendar,
+ * which they replace, on every day from 1 Farvardin 1300 to the end of 1500.
+ */
+public class JalaliConverterTest {
+
+    private static final int FIRST_YEAR = 1300;
+    private static final int LAST_YEAR = 1500;
+
+    private static final String[] ZONES = {"Asia/Tehran", "UTC", "Europe/London"};
+
+    @Test
+    public void everyDayMatchesToGregorian() {
+        long expectedEpochDay = toLocalDate(new JalaliCalendar(FIRST_YEAR, 1, 1).toGregorian()).toEpochDay();
+        for (int year = FIRST_YEAR; year <= LAST_YEAR; year++) {
+            for (int month = 1; month <= 12; month++) {
+                int length = new JalaliCalendar(year, month, 1).getMonthLength();
+                assertThat(JalaliConverter.getMonthLength(year, month)).as(year + "/" + month).isEqualTo(length);
+                for (int day = 1; day <= length; day++) {
+                    String date = year + "/" + month + "/" + day;
+                    long epochDay = JalaliConverter.toEpochDay(year, month, day);
+
+                    assertThat(epochDay).as(date).isEqualTo(expectedEpochDay);
+                    assertThat(LocalDate.ofEpochDay(epochDay)).as(date)
+                            .isEqualTo(toLocalDate(new JalaliCalendar(year, month, day).toGregorian()));
+                    int packed = JalaliConverter.fromEpochDay(epochDay);
+                    assertThat(JalaliConverter.year(packed) + "/" + JalaliConverter.month(packed) + "/"
+                            + JalaliConverter.day(packed)).isEqualTo(date);
+                    expectedEpochDay++;
+                }
+            }
+        }
+    }
+
+    @Test
+    public void everyDayMatchesFromGregorian() {
+        for (LocalDate date = firstDay(); !date.isAfter(lastDay()); date = date.plusDays(1)) {
+            JalaliCalendar jalali = new JalaliCalendar(date);
+            if (isFromGregorianError(jalali, date)) {
+                continue;
+            }
+            assertThat(DateUtil.getShamsiDate(date)).as(date.toString()).isEqualTo(format(jalali));
+            assertThat(DateUtil.getLocalDate(DateUtil.getShamsiDate(date))).isEqualTo(date);
+        }
+    }
+
+    @Test
+    public void dateUtilMatchesJalaliCalendarInEveryZone() {
+        TimeZone defaultZone = TimeZone.getDefault();
+        try {
+            for (String zone : ZONES) {
+                TimeZone.setDefault(TimeZone.getTimeZone(zone));
+                for (LocalDate date = firstDay(); !date.isAfter(lastDay()); date = date.plusDays(1)) {
+                    Date midnight = Date.from(date.atStartOfDay(ZoneId.of(zone)).toInstant());
+                    Date noon = Date.from(date.atTime(12, 0).atZone(ZoneId.of(zone)).toInstant());
+                    String shamsi = DateUtil.getShamsiDate(midnight);
+
+                    JalaliCalendar jalali = withJalaliCalendar(midnight);
+                    if (!isFromGregorianError(jalali, date)) {
+                        assertThat(shamsi).as(zone + " " + date).isEqualTo(format(jalali));
+                    }
+                    assertThat(DateUtil.getShamsiDate(noon)).as(zone + " " + date).isEqualTo(shamsi);
+
+                    String[] parts = shamsi.split("/");
+                    Date expected = new JalaliCalendar(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]),
+                            Integer.parseInt(parts[2])).toGregorian().getTime();
+                    assertThat(DateUtil.getGregorianDate(shamsi)).as(zone + " " + shamsi).isEqualTo(expected);
+                }
+            }
+        } finally {
+            TimeZone.setDefault(defaultZone);
+        }
+    }
+
+    /**
+     * How DateUtil.getShamsiDate(Date) converted before JalaliConverter.
+     */
+    private static JalaliCalendar withJalaliCalendar(Date d) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTime(d);
+        return new JalaliCalendar(new GregorianCalendar(
+                calendar.get(Calendar.YEAR), calendar.get(Calendar.MONTH), calendar.get(Calendar.DAY_OF_MONTH)));
+    }
+
+    /**
+     * JalaliCalendar.fromGregorian is a day off on some days before Farvardin of 2100, a Gregorian
+     * century year that is not leap; its own toGregorian does not give the date back there, and
+     * JalaliConverter agrees with toGregorian (see everyDayMatchesToGregorian).
+     */
+    private static boolean isFromGregorianError(JalaliCalendar jalali, LocalDate date) {
+        if (toLocalDate(jalali.toGregorian()).equals(date)) {
+            return false;
+        }
+        assertThat(date.getYear()).as(date.toString()).isEqualTo(2100);
+        assertThat(date.getMonthValue()).as(date.toString()).isLessThanOrEqualTo(3);
+        return true;
+    }
+
+    private static String format(JalaliCalendar jalali) {
+        return jalali.getYear() + "/" + jalali.getMonth() + "/" + jalali.getDay();
+    }
+
+    private static LocalDate firstDay() {
+        return LocalDate.ofEpochDay(JalaliConverter.toEpochDay(FIRST_YEAR, 1, 1));
+    }
+
+    private static LocalDate lastDay() {
+        return LocalDate.ofEpochDay(JalaliConverter.toEpochDay(LAST_YEAR + 1, 1, 1) - 1);
+    }
+
+    private static LocalDate toLocalDate(GregorianCalendar calendar) {
+        return LocalDate.of(calendar.get(Calendar.YEAR), calendar.get(Calendar.MONTH) + 1,
+                calendar.get(Calendar.DAY_OF_MONTH));
+    }
+}
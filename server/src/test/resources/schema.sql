@@ -0,0 +1,108 @@
+-- tables of the entities used by the tests; kept by hand because the entities mark columns such as
+-- tenant_id unique, which the MySQL tables are not, so the schema cannot be generated from them
+CREATE TABLE person (
+  id             BIGINT       NOT NULL AUTO_INCREMENT,
+  tenant_id      VARCHAR(255) NOT NULL,
+  first_name     VARCHAR(255) NOT NULL,
+  last_name      VARCHAR(255) NOT NULL,
+  mobile_number  VARCHAR(255) NOT NULL,
+  address        VARCHAR(255),
+  father_name    VARCHAR(255),
+  disability     VARCHAR(255),
+  birth_date     TIMESTAMP,
+  shrinked_image BLOB,
+  image_suffix   VARCHAR(16),
+  PRIMARY KEY (id)
+);
+
+CREATE TABLE program (
+  id                    BIGINT       NOT NULL AUTO_INCREMENT,
+  tenant_id             VARCHAR(255) NOT NULL,
+  person_id             BIGINT       NOT NULL,
+  program_date          TIMESTAMP    NOT NULL,
+  program_name          VARCHAR(255) NOT NULL,
+  person_age            INT          NOT NULL,
+  person_tall           INT          NOT NULL,
+  person_weight         DOUBLE       NOT NULL,
+  person_chest          INT          NOT NULL,
+  person_waist          INT          NOT NULL,
+  person_abdomen        INT          NOT NULL,
+  person_arm            INT          NOT NULL,
+  person_forearm        INT          NOT NULL,
+  person_thigh          INT          NOT NULL,
+  person_shin           INT          NOT NULL,
+  person_butt           INT          NOT NULL,
+  person_fat_percentage DOUBLE       NOT NULL,
+  person_fat_weight     DOUBLE       NOT NULL,
+  person_muscle_weight  DOUBLE       NOT NULL,
+  person_score          DOUBLE       NOT NULL,
+  description           VARCHAR(255),
+  PRIMARY KEY (id)
+);
+
+CREATE TABLE program_exercise_item (
+  idpk                 BIGINT       NOT NULL,
+  id                   BIGINT       NOT NULL,
+  program_id           BIGINT       NOT NULL,
+  exercise_id          BIGINT       NOT NULL,
+  sub_exercise_id      INT          NOT NULL,
+  exercise_set         INT          NOT NULL,
+  exercise_repeat      INT          NOT NULL,
+  exercise_repeat_type VARCHAR(16)  NOT NULL,
+  description          VARCHAR(255),
+  PRIMARY KEY (idpk)
+);
+
+CREATE TABLE id_generator (
+  name     VARCHAR(64) NOT NULL,
+  next_val BIGINT      NOT NULL,
+  PRIMARY KEY (name)
+);
+
+CREATE TABLE exercise (
+  id              BIGINT       NOT NULL AUTO_INCREMENT,
+  tenant_id       VARCHAR(255) NOT NULL,
+  name            VARCHAR(255) NOT NULL,
+  latin_name      VARCHAR(255) NOT NULL,
+  code            VARCHAR(255) NOT NULL,
+  code_number     BIGINT,
+  involved_muscel VARCHAR(255) NOT NULL,
+  PRIMARY KEY (id)
+);
+
+-- ExerciseCodeAllocatorTest relies on it to catch a code handed out twice
+CREATE UNIQUE INDEX ix_exercise_tenant_code_number ON exercise (tenant_id, code_number);
+
+CREATE TABLE exercise_code_sequence (
+  tenant_id VARCHAR(255) NOT NULL,
+  next_code BIGINT       NOT NULL,
+  PRIMARY KEY (tenant_id)
+);
+
+CREATE TABLE person_metric_stats (
+  id            BIGINT       NOT NULL AUTO_INCREMENT,
+  tenant_id     VARCHAR(255) NOT NULL,
+  person_id     BIGINT       NOT NULL,
+  metric        VARCHAR(32)  NOT NULL,
+  program_count INT          NOT NULL,
+  first_date    DATE         NOT NULL,
+  first_value   DOUBLE       NOT NULL,
+  last_date     DATE         NOT NULL,
+  last_value    DOUBLE       NOT NULL,
+  min_value     DOUBLE       NOT NULL,
+  max_value     DOUBLE       NOT NULL,
+  PRIMARY KEY (id)
+);
+
+-- ProgramSaveConcurrencyTest relies on it to catch a person's stats inserted twice
+CREATE UNIQUE INDEX ix_person_metric_stats_person ON person_metric_stats (tenant_id, person_id, metric);
+
+CREATE TABLE tenant_metric_stats (
+  id              BIGINT       NOT NULL AUTO_INCREMENT,
+  tenant_id       VARCHAR(255) NOT NULL,
+  metric          VARCHAR(32)  NOT NULL,
+  person_count    BIGINT       NOT NULL,
+  sum_first_value DOUBLE       NOT NULL,
+  sum_last_value  DOUBLE       NOT NULL,
+  PRIMARY KEY (id)
+);